@@ -0,0 +1,263 @@
+package com.github.gkane1234;
+
+/**
+    A flat, primitive representation of an <code>ExpressionList</code> used for fast evaluation.
+
+    Every expression is compiled into a fixed length program of <code>2*numValues-1</code> bytes stored back to back in one array.
+    A non-negative code pushes <code>values[code]</code> onto the stack, a negative code applies the operation <code>-code-1</code>
+    to the top two values of the stack.
+
+    For example the expression ((a+b)*c) with value_order = [0,1,2], operations = [0,2] and order = [true,true,false,true,false]
+    is compiled to the program [0,1,-1,2,-3].
+
+    Evaluation uses a caller supplied stack, so that a thread can reuse one stack for every expression it evaluates
+    and nothing is allocated per expression.
+*/
+public class CompiledExpressionList {
+
+    private final byte[] program;
+    private final int programLength;
+    private final int numExpressions;
+    private final int numValues;
+    private final Operation[] operations;
+
+    /**
+        Constructor for a CompiledExpressionList.
+        @param program: a <code>byte[]</code> representing the programs of all expressions back to back.
+        @param numExpressions: an <code>int</code> representing the number of expressions in the program.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param operations: an <code>Operation[]</code> representing the operations the op codes refer to.
+    */
+    private CompiledExpressionList(byte[] program, int numExpressions, int numValues, Operation[] operations) {
+        this.program = program;
+        this.programLength = 2*numValues-1;
+        this.numExpressions = numExpressions;
+        this.numValues = numValues;
+        this.operations = operations;
+    }
+
+    /**
+        Compiles an expression list, decompressing a compressed list on the shared EvaluationEngine.
+        The current operations from <code>Operation.getOperations()</code> are captured at compile time.
+        @param expressionList: an <code>ExpressionList</code> to compile.
+        @return a <code>CompiledExpressionList</code> representing the compiled list.
+        @throws ArithmeticException if the program does not fit in a single array.
+    */
+    public static CompiledExpressionList compile(ExpressionList expressionList) {
+        return compile(expressionList, EvaluationEngine.getShared());
+    }
+
+    /**
+        Compiles an expression list.
+        The current operations from <code>Operation.getOperations()</code> are captured at compile time.
+        @param expressionList: an <code>ExpressionList</code> to compile.
+        @param engine: an <code>EvaluationEngine</code> whose pool decompresses a compressed list.
+        @return a <code>CompiledExpressionList</code> representing the compiled list.
+        @throws ArithmeticException if the program does not fit in a single array.
+    */
+    public static CompiledExpressionList compile(ExpressionList expressionList, EvaluationEngine engine) {
+        int numValues = expressionList.getNumValues();
+        int numExpressions = expressionList.getNumExpressions();
+        int programLength = 2*numValues-1;
+        byte[] program = new byte[Math.multiplyExact(numExpressions, programLength)];
+        if (expressionList instanceof CompressedExpressionList) {
+            // decompressing is most of the work, so it is done in parallel chunks
+            engine.forEachExpression((CompressedExpressionList) expressionList,
+                (index, expression) -> compileExpression(expression, program, (int) index*programLength));
+        } else {
+            for (int i = 0; i < numExpressions; i++) {
+                compileExpression(expressionList.get(i), program, i*programLength);
+            }
+        }
+        return new CompiledExpressionList(program, numExpressions, numValues, Operation.getOperations());
+    }
+
+    /**
+        Writes the program of a single expression into a program array.
+        @param expression: an <code>Expression</code> to compile.
+        @param program: a <code>byte[]</code> representing the program array to write to.
+        @param offset: an <code>int</code> representing the index to start writing at.
+    */
+    private static void compileExpression(Expression expression, byte[] program, int offset) {
+        int valuesPointer = 0;
+        int operationsPointer = 0;
+        for (boolean isNumber : expression.order) {
+            if (isNumber) {
+                program[offset++] = expression.valueOrder[valuesPointer++];
+            } else {
+                program[offset++] = (byte) (-expression.operations[operationsPointer++]-1);
+            }
+        }
+    }
+
+    /**
+        Creates a stack large enough to evaluate any expression of this list.
+        @return a <code>double[]</code> to pass to the evaluate methods.
+    */
+    public double[] createStack() {
+        return new double[Math.max(numValues, 1)];
+    }
+
+    /**
+        Creates an evaluator with its own stack, for one thread to evaluate expressions of this list with.
+        @return an <code>ExpressionEvaluator</code> over this list.
+    */
+    public ExpressionEvaluator newEvaluator() {
+        return new Evaluator();
+    }
+
+    /**
+        Evaluates an expression without rounding.
+        @param index: an <code>int</code> representing the index of the expression to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expression.
+        @param stack: a <code>double[]</code> created by createStack, used as scratch space.
+        @return a <code>double</code> representing the value of the expression, NaN if an operation was undefined.
+    */
+    public double evaluate(int index, double[] values, double[] stack) {
+        int pointer = index*programLength;
+        int end = pointer+programLength;
+        int top = -1;
+        for (; pointer < end; pointer++) {
+            byte code = program[pointer];
+            if (code >= 0) {
+                stack[++top] = values[code];
+            } else {
+                double b = stack[top--];
+                double result = operations[-code-1].apply(stack[top], b);
+                if (Double.isNaN(result)) {
+                    return result;
+                }
+                stack[top] = result;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+        Evaluates an expression and rounds it the same way <code>Expression.evaluateWithValues</code> does.
+        @param index: an <code>int</code> representing the index of the expression to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expression.
+        @param stack: a <code>double[]</code> created by createStack, used as scratch space.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places to round to, see getScale.
+        @return a <code>double</code> representing the rounded value of the expression, NaN if an operation was undefined.
+    */
+    public double evaluate(int index, double[] values, double[] stack, double scale) {
+        double value = evaluate(index, values, stack);
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        return Math.round(value * scale) / scale;
+    }
+
+    /**
+        Evaluates an expression without rounding for a block of value tuples.
+        The program is read once for the whole block, and each of its steps is a loop over the tuples, see LaneEvaluator.
+        @param index: an <code>int</code> representing the index of the expression to evaluate.
+        @param columns: a <code>double[]</code> where value v of tuple t is columns[v*lanes.getNumLanes()+t].
+        @param lanes: a <code>LaneEvaluator</code> with a lane for every tuple and room for getNumValues() values, used as scratch space.
+        @param results: a <code>double[]</code> to write the value for every tuple to, NaN where an operation was undefined.
+    */
+    public void evaluateBatch(int index, double[] columns, LaneEvaluator lanes, double[] results) {
+        int pointer = index*programLength;
+        int end = pointer+programLength;
+        lanes.reset();
+        for (; pointer < end; pointer++) {
+            byte code = program[pointer];
+            if (code >= 0) {
+                lanes.push(columns, code);
+            } else {
+                lanes.apply(operations[-code-1]);
+            }
+        }
+        lanes.finish(results);
+    }
+
+    /**
+        Evaluates an expression exactly modulo ModularArithmetic.MODULUS.
+        @param index: an <code>int</code> representing the index of the expression to evaluate.
+        @param values: a <code>long[]</code> representing the residues of the values.
+        @param stack: a <code>long[]</code> of length at least getNumValues(), used as scratch space.
+        @return a <code>long</code> representing the residue of the expression, ModularArithmetic.UNDEFINED if it divides by zero.
+    */
+    public long evaluateModular(int index, long[] values, long[] stack) {
+        int pointer = index*programLength;
+        int end = pointer+programLength;
+        int top = -1;
+        for (; pointer < end; pointer++) {
+            byte code = program[pointer];
+            if (code >= 0) {
+                stack[++top] = values[code];
+            } else {
+                long b = stack[top--];
+                long result = ModularArithmetic.apply(ModularArithmetic.kindOf(operations[-code-1]), stack[top], b);
+                if (result == ModularArithmetic.UNDEFINED) {
+                    return result;
+                }
+                stack[top] = result;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+        Returns the scale used to round to a number of decimal places.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @return a <code>double</code> representing the scale.
+    */
+    public static double getScale(int rounding) {
+        return Math.pow(10, rounding);
+    }
+
+    /**
+        Returns the programs of all expressions back to back. The array is shared and must not be modified.
+        @return a <code>byte[]</code> representing the programs.
+    */
+    byte[] getProgram() {
+        return program;
+    }
+
+    /**
+        Returns the operations the op codes of the programs refer to.
+        @return an <code>Operation[]</code> representing the operations captured at compile time.
+    */
+    Operation[] getOperations() {
+        return operations;
+    }
+
+    /**
+        Returns the number of compiled expressions.
+        @return an <code>int</code> representing the number of compiled expressions.
+    */
+    public int size() {
+        return numExpressions;
+    }
+
+    /**
+        Returns the number of values in the expressions.
+        @return an <code>int</code> representing the number of values in the expressions.
+    */
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /**
+        An evaluator with its own stacks, which are not shared between threads.
+    */
+    private final class Evaluator implements ExpressionEvaluator {
+        private final double[] stack = createStack();
+        private LaneEvaluator lanes;
+
+        @Override
+        public double evaluate(long index, double[] values) {
+            return CompiledExpressionList.this.evaluate((int) index, values, stack);
+        }
+
+        @Override
+        public void evaluateBatch(long index, double[] columns, int batchSize, double[] results) {
+            if (lanes == null || lanes.getNumLanes() != batchSize) {
+                lanes = new LaneEvaluator(numValues, batchSize);
+            }
+            CompiledExpressionList.this.evaluateBatch((int) index, columns, lanes, results);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.github.gkane1234;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+    This class is used to write compressed expression lists to a raw binary file and to open them again by memory-mapping.
+
+    All numbers are little-endian. The file starts with a header:
+
+     offset  size  field
+     0       4     MAGIC ("IAEL")
+     4       4     VERSION
+     8       4     numValues
+     12      4     expressionSize, the bits per compressed expression
+     16      8     numExpressions
+     24      4     numOperations
+     28      2*k   the name of every operation as a char
+     then zero padding up to a multiple of 8 bytes, followed by the packed longs of the compressed expressions.
+
+    Since the data is mapped instead of read, opening a list is almost instant and CompressedExpressionList.get reads straight from the file,
+    and several JVMs opening the same list share one copy in the page cache.
+*/
+public class CompressedExpressionFile {
+
+    /**
+        The first four bytes of every file, "IAEL" for inequivalent algebraic expression list.
+    */
+    public static final int MAGIC = 0x4c454149;
+    /**
+        The version of the format written by this class.
+    */
+    public static final int VERSION = 1;
+
+    private static final int FIXED_HEADER_SIZE = 28;
+
+    private CompressedExpressionFile() {
+        throw new UnsupportedOperationException("This class is not meant to be instantiated.");
+    }
+
+    /**
+        Gets the filename of the compressed expression list with a given number of values.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @return a <code>String</code> representing the filename.
+    */
+    public static String getFilename(int numValues) {
+        return ExpressionList.FILE_PATH+"expressionList_"+numValues+"_compressed.bin";
+    }
+
+    /**
+        Writes a compressed expression list to a file, replacing the file if it exists.
+        @param compressedExpressionList: a <code>CompressedExpressionList</code> to write.
+        @param filename: a <code>String</code> representing the file to write to.
+        @throws IOException if the file could not be written.
+    */
+    public static void write(CompressedExpressionList compressedExpressionList, String filename) throws IOException {
+        int numValues = compressedExpressionList.getNumValues();
+        int expressionSize = ExpressionCompression.REQUIRED_BITS(numValues)[3];
+        long numExpressions = compressedExpressionList.getNumExpressionsLong();
+        long numLongs = ExpressionCompression.getCompressedExpressionListSize(numExpressions, expressionSize);
+        Operation[] operations = Operation.getOperations();
+
+        ByteBuffer header = ByteBuffer.allocate(getDataOffset(operations.length)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(numValues);
+        header.putInt(expressionSize);
+        header.putLong(numExpressions);
+        header.putInt(operations.length);
+        for (Operation operation : operations) {
+            header.putChar(operation.getName());
+        }
+        header.rewind();
+
+        Path path = Paths.get(filename);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(ExpressionList.BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            LongBuffer longBuffer = buffer.asLongBuffer();
+            for (long i = 0; i < numLongs; ) {
+                longBuffer.clear();
+                while (longBuffer.hasRemaining() && i < numLongs) {
+                    longBuffer.put(compressedExpressionList.getPackedLong(i++));
+                }
+                buffer.clear();
+                buffer.limit(longBuffer.position()*Long.BYTES);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+        Opens a compressed expression list by memory-mapping its file.
+        The header must match the current operations, since the compressed operations are indices into them.
+        @param filename: a <code>String</code> representing the file to open.
+        @return a <code>CompressedExpressionList</code> representing the read-only list backed by the file.
+        @throws IOException if the file is missing, is not a compressed expression list, or does not match the current operations.
+    */
+    public static CompressedExpressionList map(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(filename+" is not a compressed expression list");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(filename+" has format version "+version+", expected "+VERSION);
+            }
+            int numValues = header.getInt();
+            int expressionSize = header.getInt();
+            long numExpressions = header.getLong();
+            int numOperations = header.getInt();
+            if (numValues < 1 || expressionSize != ExpressionCompression.REQUIRED_BITS(numValues)[3]) {
+                throw new IOException(filename+" stores "+expressionSize+" bits per expression for "+numValues+" values");
+            }
+
+            ByteBuffer names = ByteBuffer.allocate(2*numOperations).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, names, FIXED_HEADER_SIZE);
+            Operation[] operations = Operation.getOperations();
+            boolean sameOperations = numOperations == operations.length;
+            for (int i = 0; sameOperations && i < numOperations; i++) {
+                sameOperations = names.getChar() == operations[i].getName();
+            }
+            if (!sameOperations) {
+                throw new IOException(filename+" was generated with different operations");
+            }
+
+            long numLongs = ExpressionCompression.getCompressedExpressionListSize(numExpressions, expressionSize);
+            long dataOffset = getDataOffset(numOperations);
+            if (channel.size() < dataOffset+numLongs*Long.BYTES) {
+                throw new IOException(filename+" is truncated");
+            }
+            return new CompressedExpressionList(MappedLongArray.map(channel, dataOffset, numLongs), numExpressions, numValues);
+        }
+    }
+
+    /**
+        Returns the offset of the packed longs, the header rounded up to a multiple of 8 bytes.
+        @param numOperations: an <code>int</code> representing the number of operations in the header.
+        @return an <code>int</code> representing the offset in bytes.
+    */
+    private static int getDataOffset(int numOperations) {
+        return (FIXED_HEADER_SIZE+2*numOperations+7) & ~7;
+    }
+
+    /**
+        Reads from a channel until a buffer is full.
+        @param channel: a <code>FileChannel</code> to read from.
+        @param buffer: a <code>ByteBuffer</code> to fill, which is flipped for reading afterwards.
+        @param position: a <code>long</code> representing the byte offset to read from.
+        @throws IOException if the file ends first.
+    */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+}
@@ -1,42 +1,48 @@
 package com.github.gkane1234;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.ObjectInputStream;
 import java.io.IOException;
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectOutputStream;
 
 /**
     A class that stores a list of compressed expressions.
+    The expressions are packed back to back into a LongArray, which is either a SegmentedLongArray on the heap that expressions can be added to,
+    or a read-only array such as a file mapped by CompressedExpressionFile.
+    Indices are longs, so a list can hold more than 2^31 expressions, for example the lists for 9 or more values.
 */
 public class CompressedExpressionList extends ExpressionList {
     protected final int expressionSize;
-    protected long[] compressedExpressions;
-    protected int numExpressions;
-    protected int numValues;
+    protected LongArray packedExpressions;
+    protected long numCompressedExpressions;
 
     /**
         Constructor for a CompressedExpressionList.
-        @param compressedExpressions: the compressed expressions to use.
+        @param compressedExpressions: the compressed expressions to use, which are copied.
         @param numExpressions: an <code>int</code> representing the number of expressions that are in expressions. (This can differ from the length of expressions)
         @param numValues: an <code>int</code> representing the number of values in the expressions.
     */
     public CompressedExpressionList(long[] compressedExpressions, int numExpressions, int numValues) {
-        super(null, numExpressions, numValues); // null is used because we're using compressed expressions
-        this.compressedExpressions = compressedExpressions;
-        this.numExpressions = numExpressions;
-        this.numValues = numValues;
-        this.expressionSize = ExpressionCompression.REQUIRED_BITS(numValues)[3];
+        this(SegmentedLongArray.of(compressedExpressions), numExpressions, numValues);
     }
     /**
         Constructor for a CompressedExpressionList.
+        The list can only be added to if packedExpressions is a <code>SegmentedLongArray</code>.
+        @param packedExpressions: a <code>LongArray</code> representing the packed compressed expressions.
+        @param numExpressions: a <code>long</code> representing the number of expressions in packedExpressions.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+    */
+    public CompressedExpressionList(LongArray packedExpressions, long numExpressions, int numValues) {
+        super(null, 0, numValues); // null is used because we're using compressed expressions
+        this.packedExpressions = packedExpressions;
+        this.numCompressedExpressions = numExpressions;
+        this.expressionSize = ExpressionCompression.REQUIRED_BITS(numValues)[3];
+    }
+    /**
+        Constructor for an empty CompressedExpressionList with room for all inequivalent expressions.
+        Memory is only allocated as expressions are added, see SegmentedLongArray.
         @param numValues: an <code>int</code> representing the number of values in the expressions.
     */
     public CompressedExpressionList(int numValues) {
-        this(new long[ExpressionCompression.getCompressedExpressionListSize(getMaximumSize(numValues), ExpressionCompression.REQUIRED_BITS(numValues)[3])], 0, numValues);
+        this(new SegmentedLongArray(ExpressionCompression.getCompressedExpressionListSize(getMaximumSizeLong(numValues), ExpressionCompression.REQUIRED_BITS(numValues)[3])), 0, numValues);
     }
     /**
         Constructor for a CompressedExpressionList.
@@ -46,11 +52,11 @@ public class CompressedExpressionList extends ExpressionList {
         this(ExpressionCompression.compressExpressionList(expressionList));
     }
     /**
-        Constructor for a CompressedExpressionList.
+        Constructor for a CompressedExpressionList that shares the packed expressions of another.
         @param compressedExpressionList: a <code>CompressedExpressionList</code> to copy.
     */
     public CompressedExpressionList(CompressedExpressionList compressedExpressionList) {
-        this(compressedExpressionList.getCompressedExpressions(), compressedExpressionList.getNumExpressions(), compressedExpressionList.getNumValues());
+        this(compressedExpressionList.getPackedExpressions(), compressedExpressionList.getNumExpressionsLong(), compressedExpressionList.getNumValues());
     }
 
     @Override
@@ -60,7 +66,7 @@ public class CompressedExpressionList extends ExpressionList {
         @return an <code>Expression[]</code> representing the expressions.
     */
     public Expression[] getExpressions() {
-        return ExpressionCompression.decompressExpressionList(compressedExpressions, numExpressions, numValues, true).getExpressions();
+        return ExpressionCompression.decompressExpressionList(this, true).getExpressions();
     }
 
     @Override
@@ -69,24 +75,99 @@ public class CompressedExpressionList extends ExpressionList {
         This compresses the expression.
     */
     public void forceAdd(Expression expression) {
-        ExpressionCompression.setCompressedExpression(compressedExpressions, numExpressions, expressionSize, ExpressionCompression.compressExpression(expression));
-        numExpressions++;
+        if (!(packedExpressions instanceof SegmentedLongArray)) {
+            throw new UnsupportedOperationException("A mapped CompressedExpressionList is read-only");
+        }
+        SegmentedLongArray segmentedExpressions = (SegmentedLongArray) packedExpressions;
+        segmentedExpressions.ensureLength(ExpressionCompression.getCompressedExpressionListSize(numCompressedExpressions+1, expressionSize));
+        ExpressionCompression.setCompressedExpression(segmentedExpressions, numCompressedExpressions, expressionSize, ExpressionCompression.compressExpression(expression));
+        numCompressedExpressions++;
+    }
+
+    @Override
+    /**
+        Returns the number of expressions in the list.
+        @return an <code>int</code> representing the number of expressions.
+        @throws ArithmeticException if there are more than Integer.MAX_VALUE expressions, see getNumExpressionsLong.
+    */
+    public int getNumExpressions() {
+        return Math.toIntExact(numCompressedExpressions);
+    }
+
+    @Override
+    public long getNumExpressionsLong() {
+        return numCompressedExpressions;
+    }
+
+    @Override
+    public int size() {
+        return getNumExpressions();
     }
 
     /**
-        Gets the compressed expressions from the compressed expression list.
+        Gets the compressed expressions from the compressed expression list, copied into a single array.
         @return a <code>long[]</code> representing the compressed expressions.
+        @throws IllegalStateException if they do not fit in a single array.
     */
     public long[] getCompressedExpressions() {
+        long[] compressedExpressions = new long[Math.toIntExact(ExpressionCompression.getCompressedExpressionListSize(numCompressedExpressions, expressionSize))];
+        for (int i = 0; i < compressedExpressions.length; i++) {
+            compressedExpressions[i] = packedExpressions.get(i);
+        }
         return compressedExpressions;
-    }   
+    }
+
+    /**
+        Gets the longs the compressed expressions are packed into.
+        @return a <code>LongArray</code> representing the packed compressed expressions.
+    */
+    public LongArray getPackedExpressions() {
+        return packedExpressions;
+    }
+
+    /**
+        Gets one of the longs the compressed expressions are packed into.
+        @param index: a <code>long</code> representing the index of the long.
+        @return a <code>long</code> representing the packed bits.
+    */
+    public long getPackedLong(long index) {
+        return packedExpressions.get(index);
+    }
+
+    @Override
+    /**
+        Creates an evaluator that evaluates the packed expressions in place, without decompressing or compiling them.
+        @return an <code>ExpressionEvaluator</code> over this list.
+    */
+    public ExpressionEvaluator newEvaluator() {
+        return new PackedExpressionEvaluator(packedExpressions, numValues);
+    }
+
+    @Override
+    /**
+        Creates an evaluator that decodes the packed expressions one at a time to evaluate them exactly, without compiling the list.
+        @return an <code>ExactEvaluator</code> over this list.
+        @throws UnsupportedOperationException if a current operation is custom, see ExactEvaluator.supportsOperations.
+    */
+    public ExactEvaluator newExactEvaluator() {
+        return new ExactEvaluator(this);
+    }
+
+    @Override
+    /**
+        A compressed list is never grouped: grouping would compile the whole list onto the heap, which keeping it compressed avoids.
+        @return <code>false</code>.
+    */
+    public boolean isGroupedFaster(double[] values, double scale) {
+        return false;
+    }
 
     /**
         Decompresses the compressed expression list.
         @return an <code>ExpressionList</code> representing the decompressed expressions.
     */
     public ExpressionList decompress() {
-        return ExpressionCompression.decompressExpressionList(compressedExpressions, numExpressions, numValues, true);
+        return ExpressionCompression.decompressExpressionList(this, true);
     }
 
     @Override
@@ -96,51 +177,69 @@ public class CompressedExpressionList extends ExpressionList {
         @return an <code>Expression</code> representing the expression.
     */
     public Expression get(int index) {
-        long compressedExpression = ExpressionCompression.getCompressedExpression(compressedExpressions, index, expressionSize);
+        return get((long) index);
+    }
+
+    @Override
+    /**
+        Gets an expression from the compressed expression list.
+        @param index: a <code>long</code> representing the index of the expression to get.
+        @return an <code>Expression</code> representing the expression.
+    */
+    public Expression get(long index) {
+        long compressedExpression = ExpressionCompression.getCompressedExpression(packedExpressions, index, expressionSize);
         return ExpressionCompression.decompressExpression(compressedExpression, numValues);
     }
 
 
     /**
-        Loads a compressed expression list from a file.
+        Opens the compressed expression list with a given number of values by memory-mapping its file. (Defined in CompressedExpressionFile)
         @param numValues: an <code>int</code> representing the number of values in the expressions.
-        @return a <code>CompressedExpressionList</code> representing the compressed expression list.
-        @throws FileNotFoundException if the file is not found.
+        @return a <code>CompressedExpressionList</code> representing the read-only compressed expression list.
+        @throws FileNotFoundException if the file is not found or cannot be used.
     */
     public static CompressedExpressionList loadCompressed(int numValues) throws FileNotFoundException {
         String filename = getCompressedFilename(numValues);
-        return loadCompressed(filename, numValues, ExpressionList.getMaximumSize(numValues),true);
+        return loadCompressed(filename, numValues, true);
     }
 
     /**
-        Loads a compressed expression list from a file.
+        Opens a compressed expression list by memory-mapping its file. (Defined in CompressedExpressionFile)
+        The number of expressions is read from the header of the file.
         @param filename: a <code>String</code> representing the filename of the compressed expression list.
         @param numValues: an <code>int</code> representing the number of values in the expressions.
-        @param numExpressions: an <code>int</code> representing the number of expressions that are in the compressed expression list.
         @param verbose: a <code>boolean</code> representing whether to print verbose output.
-        @return a <code>CompressedExpressionList</code> representing the compressed expression list.
-        @throws FileNotFoundException if the file is not found.
-    */
-    public static CompressedExpressionList loadCompressed(String filename, int numValues, int numExpressions, boolean verbose) throws FileNotFoundException {
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(filename),BUFFER_SIZE);
-            ObjectInputStream ois = new ObjectInputStream(bis)) {
-            long[] compressedExpressions = (long[]) ois.readObject();
-            return new CompressedExpressionList(compressedExpressions, numExpressions, numValues);
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new FileNotFoundException("File not found: " + filename);
+        @return a <code>CompressedExpressionList</code> representing the read-only compressed expression list.
+        @throws FileNotFoundException if the file is not found or cannot be used.
+    */
+    public static CompressedExpressionList loadCompressed(String filename, int numValues, boolean verbose) throws FileNotFoundException {
+        long startTime = System.currentTimeMillis();
+        CompressedExpressionList compressedExpressionList;
+        try {
+            compressedExpressionList = CompressedExpressionFile.map(filename);
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not open "+filename+": "+e.getMessage());
+        }
+        if (compressedExpressionList.getNumValues() != numValues) {
+            throw new FileNotFoundException(filename+" holds expressions with "+compressedExpressionList.getNumValues()+" values, not "+numValues);
+        }
+        if (verbose) {
+            System.out.println("Mapped "+compressedExpressionList.getNumExpressionsLong()+" compressed expressions in "+(System.currentTimeMillis()-startTime)/1000.0+" seconds");
         }
+        return compressedExpressionList;
     }
     /**
-        Saves a compressed expression list to a file.
+        Saves a compressed expression list to a file. (Defined in CompressedExpressionFile)
         @param compressedExpressionList: a <code>CompressedExpressionList</code> to save.
         @param verbose: a <code>boolean</code> representing whether to print verbose output.
     */
     public static void saveCompressed(CompressedExpressionList compressedExpressionList, boolean verbose) {
         String filename = getCompressedFilename(compressedExpressionList.getNumValues());
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(filename),BUFFER_SIZE);
-            ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-                oos.writeObject(compressedExpressionList.getCompressedExpressions());
+        try {
+            if (verbose) {
+                System.out.println("Saving compressed expression set");
+            }
+            CompressedExpressionFile.write(compressedExpressionList, filename);
         } catch (IOException e) {
             e.printStackTrace();
         }
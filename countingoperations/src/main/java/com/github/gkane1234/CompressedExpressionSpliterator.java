@@ -0,0 +1,152 @@
+package com.github.gkane1234;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+    A Spliterator that decompresses a range of a CompressedExpressionList.
+
+    The range is only ever split at multiples of CHUNK_SIZE expressions. CHUNK_SIZE is a multiple of 64, so every chunk
+    starts on a long of the packed expressions and chunks never share a partially read long.
+    StreamSupport.stream(new CompressedExpressionSpliterator(list), true) consumes the chunks on the common ForkJoinPool as they are decoded,
+    and forEachParallel decodes a whole list into any indexed destination, for example a presized array.
+*/
+public class CompressedExpressionSpliterator implements Spliterator<Expression> {
+
+    /**
+        The number of expressions in the smallest chunk a range is split into.
+    */
+    public static final int CHUNK_SIZE = 1<<12;
+
+    private final LongArray packedExpressions;
+    private final int numValues;
+    private final int expressionSize;
+    private long index;
+    private final long end;
+
+    /**
+        Constructor for a CompressedExpressionSpliterator over a whole list.
+        @param compressedExpressionList: a <code>CompressedExpressionList</code> to decompress.
+    */
+    public CompressedExpressionSpliterator(CompressedExpressionList compressedExpressionList) {
+        this(compressedExpressionList.getPackedExpressions(), compressedExpressionList.getNumValues(), 0, compressedExpressionList.getNumExpressionsLong());
+    }
+
+    private CompressedExpressionSpliterator(LongArray packedExpressions, int numValues, long index, long end) {
+        this.packedExpressions = packedExpressions;
+        this.numValues = numValues;
+        this.expressionSize = ExpressionCompression.REQUIRED_BITS(numValues)[3];
+        this.index = index;
+        this.end = end;
+    }
+
+    /**
+        Receives decompressed expressions together with their index in the list.
+    */
+    public interface IndexedConsumer {
+        void accept(long index, Expression expression);
+    }
+
+    /**
+        Returns the index in the list of the next expression this spliterator decompresses.
+        @return a <code>long</code> representing the index.
+    */
+    public long getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Expression> action) {
+        if (index >= end) {
+            return false;
+        }
+        action.accept(decompress(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Expression> action) {
+        for (; index < end; index++) {
+            action.accept(decompress(index));
+        }
+    }
+
+    /**
+        Decompresses every remaining expression of the range.
+        @param action: an <code>IndexedConsumer</code> that receives each expression with its index in the list.
+    */
+    public void forEachRemaining(IndexedConsumer action) {
+        for (; index < end; index++) {
+            action.accept(index, decompress(index));
+        }
+    }
+
+    @Override
+    public Spliterator<Expression> trySplit() {
+        long middle = index+(end-index)/2;
+        middle -= middle%CHUNK_SIZE;
+        if (middle <= index) {
+            return null;
+        }
+        CompressedExpressionSpliterator prefix = new CompressedExpressionSpliterator(packedExpressions, numValues, index, middle);
+        index = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end-index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    private Expression decompress(long i) {
+        return ExpressionCompression.decompressExpression(ExpressionCompression.getCompressedExpression(packedExpressions, i, expressionSize), numValues);
+    }
+
+    /**
+        Decompresses a whole list on a pool, splitting it into chunks that are decoded as the pool's threads become free.
+        @param compressedExpressionList: a <code>CompressedExpressionList</code> to decompress.
+        @param pool: a <code>ForkJoinPool</code> to decompress on.
+        @param action: an <code>IndexedConsumer</code> that receives each expression with its index, from several threads at once.
+    */
+    public static void forEachParallel(CompressedExpressionList compressedExpressionList, ForkJoinPool pool, IndexedConsumer action) {
+        pool.invoke(new DecompressTask(new CompressedExpressionSpliterator(compressedExpressionList), action));
+    }
+
+    /**
+        Splits off chunks for other threads to steal, then decodes what is left.
+    */
+    private static final class DecompressTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient CompressedExpressionSpliterator spliterator;
+        private final transient IndexedConsumer action;
+
+        DecompressTask(CompressedExpressionSpliterator spliterator, IndexedConsumer action) {
+            this.spliterator = spliterator;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            List<DecompressTask> forked = new ArrayList<>();
+            CompressedExpressionSpliterator prefix;
+            while (spliterator.estimateSize() > CHUNK_SIZE && (prefix = (CompressedExpressionSpliterator) spliterator.trySplit()) != null) {
+                DecompressTask task = new DecompressTask(prefix, action);
+                task.fork();
+                forked.add(task);
+            }
+            spliterator.forEachRemaining(action);
+            for (DecompressTask task : forked) {
+                task.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.github.gkane1234;
+
+/**
+    A thread-safe hash map from primitive longs to primitive longs that keeps the smallest value put for each key.
+
+    It is used to claim keys by position: every claimant puts its position for each of its keys, and once all of them are done
+    a key belongs to the claimant with the smallest position, whatever order the threads ran in.
+
+    The map is split into a power of two number of segments, each an open addressing table with linear probing guarded by its own lock,
+    so threads putting different keys rarely wait on each other. The segment is chosen by the high bits of the mixed hash and the slot by the low bits.
+    Keys are never removed.
+*/
+public class ConcurrentLongMinMap {
+    private static final int DEFAULT_NUM_SEGMENTS = 256;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1<<8;
+
+    /**
+        The value get returns for a key that is not in the map.
+    */
+    public static final long ABSENT = Long.MAX_VALUE;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    /**
+        Constructor for a ConcurrentLongMinMap.
+        @param numSegments: an <code>int</code> representing the number of independently locked segments, rounded up to a power of two.
+    */
+    public ConcurrentLongMinMap(int numSegments) {
+        int powerOfTwo = 1;
+        while (powerOfTwo < numSegments) {
+            powerOfTwo <<= 1;
+        }
+        this.segments = new Segment[powerOfTwo];
+        for (int i = 0; i < powerOfTwo; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.segmentShift = 64-Integer.numberOfTrailingZeros(powerOfTwo);
+    }
+
+    /**
+        Default constructor for a ConcurrentLongMinMap.
+    */
+    public ConcurrentLongMinMap() {
+        this(DEFAULT_NUM_SEGMENTS);
+    }
+
+    /**
+        Maps a key to a value if the key is not in the map or maps to a larger value.
+        @param key: a <code>long</code> representing the key.
+        @param value: a <code>long</code> representing the value, smaller than ABSENT.
+        @return a <code>boolean</code> representing whether the key now maps to value.
+    */
+    public boolean putMin(long key, long value) {
+        long hash = mix(key);
+        return segmentFor(hash).putMin(key, value, (int) hash);
+    }
+
+    /**
+        Returns the value a key maps to.
+        @param key: a <code>long</code> representing the key.
+        @return a <code>long</code> representing the smallest value put for the key, ABSENT if it was never put.
+    */
+    public long get(long key) {
+        long hash = mix(key);
+        return segmentFor(hash).get(key, (int) hash);
+    }
+
+    /**
+        Returns the number of keys in the map.
+        @return a <code>long</code> representing the number of keys in the map.
+    */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+        Claims keys in several maps for a claimant, see putMin.
+        @param maps: a <code>ConcurrentLongMinMap[]</code> representing the maps the keys are in.
+        @param mapIndices: an <code>int[]</code> representing the map of each key, an index into maps.
+        @param keys: a <code>long[]</code> representing the keys to claim.
+        @param count: an <code>int</code> representing the number of keys, from the start of mapIndices and keys.
+        @param position: a <code>long</code> representing the position of the claimant.
+        @return an <code>int</code> representing the number of keys the claimant holds right after claiming them.
+    */
+    public static int claimAll(ConcurrentLongMinMap[] maps, int[] mapIndices, long[] keys, int count, long position) {
+        int held = 0;
+        for (int k = 0; k < count; k++) {
+            if (maps[mapIndices[k]].putMin(keys[k], position)) {
+                held++;
+            }
+        }
+        return held;
+    }
+
+    /**
+        Counts the keys in several maps a claimant holds, the ones no claimant with a smaller position has claimed.
+        @param maps: a <code>ConcurrentLongMinMap[]</code> representing the maps the keys are in.
+        @param mapIndices: an <code>int[]</code> representing the map of each key, an index into maps.
+        @param keys: a <code>long[]</code> representing the keys the claimant claimed.
+        @param count: an <code>int</code> representing the number of keys, from the start of mapIndices and keys.
+        @param position: a <code>long</code> representing the position of the claimant.
+        @return an <code>int</code> representing the number of keys the claimant holds.
+    */
+    public static int countHeld(ConcurrentLongMinMap[] maps, int[] mapIndices, long[] keys, int count, long position) {
+        int held = 0;
+        for (int k = 0; k < count; k++) {
+            if (maps[mapIndices[k]].get(keys[k]) == position) {
+                held++;
+            }
+        }
+        return held;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segments.length == 1 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    /**
+        Mixes the bits of a key so that nearby keys are spread over the table. (The finalizer of MurmurHash3)
+        @param key: a <code>long</code> representing the key to mix.
+        @return a <code>long</code> representing the mixed key.
+    */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+        One locked open addressing table. Zero marks an empty slot, so the key zero is tracked separately.
+    */
+    private static final class Segment {
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        private long[] values = new long[INITIAL_SEGMENT_CAPACITY];
+        private int size;
+        private long zeroValue = ABSENT;
+
+        synchronized boolean putMin(long key, long value, int hash) {
+            if (key == 0) {
+                if (zeroValue == ABSENT) {
+                    size++;
+                }
+                zeroValue = Math.min(zeroValue, value);
+                return zeroValue == value;
+            }
+            int mask = keys.length-1;
+            int slot = hash & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    values[slot] = Math.min(values[slot], value);
+                    return values[slot] == value;
+                }
+                slot = (slot+1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size > keys.length >> 1) {
+                rehash();
+            }
+            return true;
+        }
+
+        synchronized long get(long key, int hash) {
+            if (key == 0) {
+                return zeroValue;
+            }
+            int mask = keys.length-1;
+            int slot = hash & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot+1) & mask;
+            }
+            return ABSENT;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length << 1];
+            values = new long[oldKeys.length << 1];
+            int mask = keys.length-1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = (int) mix(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot+1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
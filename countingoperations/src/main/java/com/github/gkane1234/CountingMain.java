@@ -145,10 +145,13 @@ public class CountingMain {
                     values[i] = Double.parseDouble(valueStrings[i]);
                 }
 
-                SolutionList solutions = s.findAllSolutions(values, goal, solutionRange[1]);
+                SolutionList solutions = s.findAllSolutionsIndexed(values, goal, solutionRange[1]);
                 
                 if (solutions.getNumSolutions() == 0) {
-                    System.out.println("No solutions found for these values and goal.");
+                    System.out.println("No solutions found for these values and goal. The nearest values are:");
+                    for (EvaluatedExpression nearest : s.findNearest(values, goal, 5)) {
+                        System.out.println(nearest.display() + " = " + nearest.getValue());
+                    }
                 } else {
                     System.out.println("Found " + solutions.getNumSolutions() + " solutions:");
                     for (EvaluatedExpression solution : solutions.getEvaluatedExpressionList()) {
@@ -273,7 +276,7 @@ public class CountingMain {
         Expression[] expressions = new Expression[numExpressions];
         System.err.println("Testing "+numExpressions+" expressions");
         for (int i = 0; i < numExpressions; i++) {
-            int rIndex = (int)(r.nextDouble()*s.solverSet.getNumExpressions());
+            long rIndex = (long)(r.nextDouble()*s.solverSet.getNumExpressionsLong());
             Expression randomExpression = s.solverSet.get(rIndex);
             long compressedExpression = ExpressionCompression.compressExpression(randomExpression);
             Expression decompressedExpression  = ExpressionCompression.decompressExpression(compressedExpression, numValues);
@@ -298,6 +301,71 @@ public class CountingMain {
         
         
     }
+    /*
+     * Compares evaluating expressions one list of values at a time with evaluating them over lanes of values with LaneEvaluator.
+     * The first comparison scans a list for a block of value tuples, the second evaluates expressions on the truncators of an ExpressionSet.
+     * Both print the time of each path and whether they agree. Run with -Dcountingoperations.lanes=false to time ExpressionSet.add without lanes.
+     */
+    public static void benchmarkLaneEvaluation(int numValues, int numLanes, int repetitions) {
+        ExpressionList expressionList = Solver.createExpressionList(numValues, false, false);
+        Random r = new Random(1);
+        double[][] tuples = new double[numLanes][numValues];
+        for (double[] tuple : tuples) {
+            for (int v = 0; v < numValues; v++) {
+                tuple[v] = r.nextInt(13)+1;
+            }
+        }
+        double[] columns = LaneEvaluator.toColumns(tuples, numValues);
+        ExpressionEvaluator evaluator = expressionList.newEvaluator();
+        int numExpressions = expressionList.getNumExpressions();
+        double[] results = new double[numLanes];
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            double scalarSum = 0;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < numExpressions; i++) {
+                for (double[] tuple : tuples) {
+                    double value = evaluator.evaluate(i, tuple);
+                    scalarSum += Double.isNaN(value) ? 0 : value;
+                }
+            }
+            long scalarTime = System.nanoTime()-startTime;
+            double laneSum = 0;
+            startTime = System.nanoTime();
+            for (int i = 0; i < numExpressions; i++) {
+                evaluator.evaluateBatch(i, columns, numLanes, results);
+                for (double value : results) {
+                    laneSum += Double.isNaN(value) ? 0 : value;
+                }
+            }
+            long laneTime = System.nanoTime()-startTime;
+            System.out.println("List of "+numExpressions+" expressions over "+numLanes+" tuples: scalar "+scalarTime/1_000_000.0+" ms, lanes "+laneTime/1_000_000.0
+                +" ms, speedup "+String.format("%.2f", (double) scalarTime/laneTime)+(scalarSum == laneSum ? "" : ", results differ"));
+        }
 
-
-}
\ No newline at end of file
+        LaneEvaluator lanes = new LaneEvaluator(numValues, numLanes);
+        double scale = CompiledExpressionList.getScale(9);
+        for (int repetition = 0; repetition < repetitions; repetition++) {
+            double scalarSum = 0;
+            long startTime = System.nanoTime();
+            for (int i = 0; i < numExpressions; i++) {
+                Expression expression = expressionList.get(i);
+                for (double[] tuple : tuples) {
+                    double value = expression.evaluateWithValues(tuple, 9);
+                    scalarSum += Double.isNaN(value) ? 0 : value;
+                }
+            }
+            long scalarTime = System.nanoTime()-startTime;
+            double laneSum = 0;
+            startTime = System.nanoTime();
+            for (int i = 0; i < numExpressions; i++) {
+                lanes.evaluate(expressionList.get(i), columns, scale, results);
+                for (double value : results) {
+                    laneSum += Double.isNaN(value) ? 0 : value;
+                }
+            }
+            long laneTime = System.nanoTime()-startTime;
+            System.out.println("Expressions over "+numLanes+" truncators: scalar "+scalarTime/1_000_000.0+" ms, lanes "+laneTime/1_000_000.0
+                +" ms, speedup "+String.format("%.2f", (double) scalarTime/laneTime)+(scalarSum == laneSum ? "" : ", results differ"));
+        }
+    }
+}
@@ -279,7 +279,7 @@ public class CountingOperationsApplet implements SolverUpdateListener {
                 for (int i = 0; i < valueFields.length; i++) {
                     values[i] = Double.parseDouble(valueFields[i].getText().trim());
                 }
-                return solver.findAllSolutions(values, goal, 200);
+                return solver.findAllSolutionsIndexed(values, goal, 200);
             } else {
                 int minValue = Integer.parseInt(minValueField.getText().trim());
                 int maxValue = Integer.parseInt(maxValueField.getText().trim());
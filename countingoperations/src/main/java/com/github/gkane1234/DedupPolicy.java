@@ -0,0 +1,101 @@
+package com.github.gkane1234;
+/**
+    This class is used to represent how an ExpressionSet decides that an expression is inequivalent from its truncator values.
+
+    PER_TRUNCATOR keeps a set of seen values for every truncator and accepts an expression if at least threshold of its values are new.
+
+    FINGERPRINT splits the truncators into numGroups interleaved groups and mixes the values of each group into one 64-bit fingerprint.
+    All fingerprints are kept in a single set of longs, and an expression is accepted if at least threshold of its fingerprints are new.
+    A single group probes the set once per expression. Two groups with a threshold of two keep the protection of PER_TRUNCATOR against
+    a rounding difference on one truncator making a duplicate look new, for two probes instead of one per truncator.
+*/
+public class DedupPolicy {
+
+    private final boolean fingerprint;
+    private final int numGroups;
+    private final int threshold;
+
+    /**
+        Constructor for the DedupPolicy class.
+        @param fingerprint: a <code>boolean</code> representing whether to use fingerprints instead of a set per truncator.
+        @param numGroups: an <code>int</code> representing the number of fingerprints per expression, ignored for PER_TRUNCATOR.
+        @param threshold: an <code>int</code> representing how many truncators or fingerprints must be new to accept an expression.
+    */
+    private DedupPolicy(boolean fingerprint, int numGroups, int threshold) {
+        if (threshold < 1 || (fingerprint && (numGroups < 1 || threshold > numGroups))) {
+            throw new IllegalArgumentException("Invalid dedup policy: "+numGroups+" groups with a threshold of "+threshold);
+        }
+        this.fingerprint = fingerprint;
+        this.numGroups = numGroups;
+        this.threshold = threshold;
+    }
+
+    /**
+        Returns the policy that keeps a set of seen values per truncator.
+        @param threshold: an <code>int</code> representing how many truncator values must be new to accept an expression.
+        @return a <code>DedupPolicy</code> representing the policy.
+    */
+    public static DedupPolicy perTruncator(int threshold) {
+        return new DedupPolicy(false, 0, threshold);
+    }
+
+    /**
+        Returns the policy that keeps fingerprints of groups of truncator values in a single set.
+        @param numGroups: an <code>int</code> representing the number of fingerprints per expression.
+        @param threshold: an <code>int</code> representing how many fingerprints must be new to accept an expression.
+        @return a <code>DedupPolicy</code> representing the policy.
+    */
+    public static DedupPolicy fingerprint(int numGroups, int threshold) {
+        return new DedupPolicy(true, numGroups, threshold);
+    }
+
+    /**
+        Returns the policy the sets used before fingerprints existed, a set per truncator with a threshold of ExpressionList.THREASHOLD.
+        @return a <code>DedupPolicy</code> representing the policy.
+    */
+    public static DedupPolicy getDefault() {
+        return perTruncator(ExpressionList.THREASHOLD);
+    }
+
+    /**
+        Returns whether the policy uses fingerprints.
+        @return a <code>boolean</code> representing whether the policy uses fingerprints.
+    */
+    public boolean usesFingerprints() {
+        return fingerprint;
+    }
+
+    /**
+        Returns the number of fingerprints per expression.
+        @return an <code>int</code> representing the number of fingerprints per expression.
+    */
+    public int getNumGroups() {
+        return numGroups;
+    }
+
+    /**
+        Returns how many truncators or fingerprints must be new to accept an expression.
+        @return an <code>int</code> representing the threshold.
+    */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+        Mixes the bits of a rounded truncator value into a fingerprint.
+        @param fingerprint: a <code>long</code> representing the fingerprint so far.
+        @param value: a <code>float</code> representing the rounded truncator value.
+        @return a <code>long</code> representing the new fingerprint.
+    */
+    public static long mixIn(long fingerprint, float value) {
+        return Long.rotateLeft((fingerprint ^ (Float.floatToIntBits(value) & 0xffffffffL)) * 0x9e3779b97f4a7c15L, 31);
+    }
+
+    @Override
+    public String toString() {
+        if (fingerprint) {
+            return "fingerprint("+numGroups+" groups, threshold "+threshold+")";
+        }
+        return "perTruncator(threshold "+threshold+")";
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+
+/**
+    The values of every expression of a list for one set of values, sorted, so that goal, range and nearest-value queries are binary searches.
+
+    The index is two parallel primitive arrays: the defined values in increasing order, and the index of the expression each value belongs to.
+    Expressions with the same value are in increasing order of index. Building it costs one evaluation of the list and one parallel sort,
+    so it pays off when the same values are asked about with many goals, see Solver.getEvaluatedIndex.
+*/
+public class EvaluatedIndex {
+
+    private final ExpressionList expressionList;
+    private final double[] values;
+    private final double[] sortedResults;
+    private final int[] expressionIndices;
+    private final long numExpressions;
+
+    private EvaluatedIndex(ExpressionList expressionList, double[] values, double[] sortedResults, int[] expressionIndices, long numExpressions) {
+        this.expressionList = expressionList;
+        this.numExpressions = numExpressions;
+        this.values = values;
+        this.sortedResults = sortedResults;
+        this.expressionIndices = expressionIndices;
+    }
+
+    /**
+        Evaluates every expression of a list and sorts the results.
+        @param engine: an <code>EvaluationEngine</code> to evaluate the list on.
+        @param expressionList: an <code>ExpressionList</code> to index.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @return an <code>EvaluatedIndex</code> representing the sorted results.
+    */
+    public static EvaluatedIndex build(EvaluationEngine engine, ExpressionList expressionList, double[] values, int rounding) {
+        double[] results = engine.evaluateValues(expressionList, values, rounding);
+        int numDefined = 0;
+        for (double result : results) {
+            if (!Double.isNaN(result)) {
+                numDefined++;
+            }
+        }
+        double[] sortedResults = new double[numDefined];
+        for (int i = 0, k = 0; i < results.length; i++) {
+            if (!Double.isNaN(results[i])) {
+                sortedResults[k++] = results[i];
+            }
+        }
+        Arrays.parallelSort(sortedResults);
+
+        // every expression goes after the expressions before it with the same value, so equal values stay in order of index
+        int[] expressionIndices = new int[numDefined];
+        int[] filled = new int[numDefined];
+        for (int i = 0; i < results.length; i++) {
+            if (!Double.isNaN(results[i])) {
+                int first = lowerBound(sortedResults, results[i]);
+                expressionIndices[first+filled[first]++] = i;
+            }
+        }
+        return new EvaluatedIndex(expressionList, values.clone(), sortedResults, expressionIndices, results.length);
+    }
+
+    /**
+        Returns whether this index was built for a list and values.
+        @param expressionList: an <code>ExpressionList</code> to compare.
+        @param values: a <code>double[]</code> to compare, in order.
+        @return a <code>boolean</code> representing whether the index answers for them, false if expressions were added to the list since.
+    */
+    public boolean isFor(ExpressionList expressionList, double[] values) {
+        return this.expressionList == expressionList && numExpressions == expressionList.getNumExpressionsLong() && Arrays.equals(this.values, values);
+    }
+
+    /**
+        Returns the number of expressions with a defined value.
+        @return an <code>int</code> representing the size of the index.
+    */
+    public int size() {
+        return sortedResults.length;
+    }
+
+    /**
+        Finds up to maxSolutions expressions that evaluate to a goal, see Solver.equal.
+        When there are more, the ones with the lowest indices are kept, the same ones a scan of the list in order would find first.
+        @param goal: a <code>double</code> representing the goal.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
+    public SolutionList findSolutions(double goal, int maxSolutions) {
+        SolutionList solutions = new SolutionList(values, goal);
+        int low = lowerBound(sortedResults, goal);
+        while (low > 0 && Solver.equal(sortedResults[low-1], goal)) {
+            low--;
+        }
+        int high = low;
+        while (high < sortedResults.length && Solver.equal(sortedResults[high], goal)) {
+            high++;
+        }
+        // values within the tolerance of the goal can differ, so the run is only in order of index for each value and is sorted again
+        long[] byIndex = new long[high-low];
+        for (int k = low; k < high; k++) {
+            byIndex[k-low] = ((long) expressionIndices[k] << 32) | k;
+        }
+        Arrays.sort(byIndex);
+        for (int i = 0; i < byIndex.length && i < maxSolutions; i++) {
+            solutions.addEvaluatedExpression(evaluatedExpression((int) byIndex[i]));
+        }
+        return solutions;
+    }
+
+    /**
+        Counts the expressions that evaluate to a goal, see Solver.equal.
+        @param goal: a <code>double</code> representing the goal.
+        @return an <code>int</code> representing the number of expressions.
+    */
+    public int countSolutions(double goal) {
+        int low = lowerBound(sortedResults, goal);
+        while (low > 0 && Solver.equal(sortedResults[low-1], goal)) {
+            low--;
+        }
+        int high = low;
+        while (high < sortedResults.length && Solver.equal(sortedResults[high], goal)) {
+            high++;
+        }
+        return high-low;
+    }
+
+    /**
+        Finds up to maxResults expressions whose value is in a range, lowest value first.
+        @param low: a <code>double</code> representing the lowest value of the range.
+        @param high: a <code>double</code> representing the highest value of the range.
+        @param maxResults: an <code>int</code> representing the most expressions to return.
+        @return an <code>EvaluatedExpression[]</code> representing the expressions, in increasing order of value.
+    */
+    public EvaluatedExpression[] findInRange(double low, double high, int maxResults) {
+        int first = lowerBound(sortedResults, low);
+        int end = first;
+        while (end < sortedResults.length && end-first < maxResults && sortedResults[end] <= high) {
+            end++;
+        }
+        EvaluatedExpression[] found = new EvaluatedExpression[end-first];
+        for (int k = first; k < end; k++) {
+            found[k-first] = evaluatedExpression(k);
+        }
+        return found;
+    }
+
+    /**
+        Finds the k expressions whose values are nearest to a target, by walking outwards from where the target would be in the index.
+        @param target: a <code>double</code> representing the target.
+        @param k: an <code>int</code> representing the number of expressions to return.
+        @return an <code>EvaluatedExpression[]</code> representing the expressions, nearest first.
+    */
+    public EvaluatedExpression[] findNearest(double target, int k) {
+        int right = lowerBound(sortedResults, target);
+        int left = right-1;
+        EvaluatedExpression[] nearest = new EvaluatedExpression[Math.min(k, sortedResults.length)];
+        for (int n = 0; n < nearest.length; n++) {
+            boolean takeLeft = right >= sortedResults.length
+                || (left >= 0 && target-sortedResults[left] <= sortedResults[right]-target);
+            nearest[n] = evaluatedExpression(takeLeft ? left-- : right++);
+        }
+        return nearest;
+    }
+
+    private EvaluatedExpression evaluatedExpression(int k) {
+        return new EvaluatedExpression(expressionList.get(expressionIndices[k]), values, sortedResults[k]);
+    }
+
+    /**
+        Returns the first position of a sorted array whose value is at least a key.
+    */
+    private static int lowerBound(double[] sorted, double key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low+high) >>> 1;
+            if (sorted[middle] < key) {
+                low = middle+1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
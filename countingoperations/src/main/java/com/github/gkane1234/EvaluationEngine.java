@@ -0,0 +1,733 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+    A long-lived engine that runs queries over expression lists on a work-stealing pool.
+
+    The pool is created once and reused by every query, so a query costs no thread creation.
+    A query over a list is split in half until each task has at most getChunkSize() expressions,
+    and idle threads steal tasks from busy ones, so a slow part of the list does not leave the other threads waiting.
+    Every task creates its own ExpressionEvaluator, so the evaluators never share scratch space.
+
+    The threads of the pool are daemon threads, so an engine that is not shut down does not keep the JVM alive.
+*/
+public class EvaluationEngine {
+
+    /**
+        The default number of expressions a query is split into.
+    */
+    public static final int DEFAULT_CHUNK_SIZE = 1<<12;
+
+    private static EvaluationEngine shared;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+        Constructor for an EvaluationEngine with a thread for every available processor.
+    */
+    public EvaluationEngine() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+        Constructor for an EvaluationEngine.
+        @param parallelism: an <code>int</code> representing the number of threads of the pool.
+        @param chunkSize: an <code>int</code> representing the most expressions a single task evaluates.
+    */
+    public EvaluationEngine(int parallelism, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: "+chunkSize);
+        }
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+        Returns the engine shared by the static query methods of ExpressionList, creating it the first time it is needed.
+        @return an <code>EvaluationEngine</code> with a thread for every available processor.
+    */
+    public static synchronized EvaluationEngine getShared() {
+        if (shared == null) {
+            shared = new EvaluationEngine();
+        }
+        return shared;
+    }
+
+    /**
+        Returns the number of threads of the pool.
+        @return an <code>int</code> representing the parallelism.
+    */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+        Returns the most expressions a single task evaluates.
+        @return an <code>int</code> representing the chunk size.
+    */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+        Runs an action over [0,size), split into chunks of at most getChunkSize() that are run on the pool.
+        Returns once every chunk has run.
+        @param size: a <code>long</code> representing the size of the range.
+        @param action: a <code>ChunkAction</code> representing the action to run on each chunk.
+    */
+    public void forEachChunk(long size, ChunkAction action) {
+        forEachChunk(size, action, start -> false);
+    }
+
+    /**
+        Runs an action over [0,size), split into chunks of at most getChunkSize() that are run on the pool,
+        skipping every part of the range that is no longer needed.
+        Before a task splits or runs it checks skip with the start of its range, and if it returns true the task and all of its
+        subranges return at once, so a search can cancel the rest of the range cooperatively. Returns once every task has returned.
+        @param size: a <code>long</code> representing the size of the range.
+        @param action: a <code>ChunkAction</code> representing the action to run on each chunk.
+        @param skip: a <code>LongPredicate</code> that is true for the start of a range that no longer needs to run.
+    */
+    public void forEachChunk(long size, ChunkAction action, LongPredicate skip) {
+        if (size <= 0) {
+            return;
+        }
+        pool.invoke(new ChunkTask(action, skip, 0, size, chunkSize));
+    }
+
+    /**
+        Decompresses every expression of a compressed list on the pool, in chunks that are decoded as its threads become free.
+        @param compressedExpressionList: a <code>CompressedExpressionList</code> to decompress.
+        @param action: an <code>IndexedConsumer</code> that receives each expression with its index, from several threads at once.
+    */
+    public void forEachExpression(CompressedExpressionList compressedExpressionList, CompressedExpressionSpliterator.IndexedConsumer action) {
+        CompressedExpressionSpliterator.forEachParallel(compressedExpressionList, pool, action);
+    }
+
+    /**
+        Evaluates every expression of a list.
+        @param expressionList: an <code>ExpressionList</code> to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param verbose: a <code>boolean</code> representing whether to print progress.
+        @return an <code>EvaluatedExpressionList</code> representing the evaluated expressions.
+    */
+    public EvaluatedExpressionList evaluate(ExpressionList expressionList, double[] values, int rounding, boolean verbose) {
+        int numExpressions = expressionList.getNumExpressions();
+        EvaluatedExpression[] evaluatedExpressions = new EvaluatedExpression[numExpressions];
+        expressionList.newEvaluator(); // compile once before the tasks start
+        final double scale = CompiledExpressionList.getScale(rounding);
+        Progress progress = new Progress(numExpressions, verbose);
+
+        forEachChunk(numExpressions, (start, end) -> {
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            for (int i = (int) start; i < end; i++) {
+                double value = evaluator.evaluate(i, values, scale);
+                evaluatedExpressions[i] = new EvaluatedExpression(expressionList.get(i), values, value);
+            }
+            progress.add(end-start);
+        });
+        return new EvaluatedExpressionList(evaluatedExpressions);
+    }
+
+    /**
+        Evaluates every expression of a list without creating an EvaluatedExpression for each.
+        The list is evaluated grouped by shape or one program at a time, whichever ExpressionList.isGroupedFaster found to be faster.
+        @param expressionList: an <code>ExpressionList</code> to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @return a <code>double[]</code> representing the value of every expression by index, NaN where an operation was undefined.
+    */
+    public double[] evaluateValues(ExpressionList expressionList, double[] values, int rounding) {
+        int numExpressions = expressionList.getNumExpressions();
+        double[] results = new double[numExpressions];
+        final double scale = CompiledExpressionList.getScale(rounding);
+        if (expressionList.isGroupedFaster(values, scale)) {
+            ShapeGroupedList groupedList = expressionList.group();
+            forEachChunk(groupedList.getNumGroups(), (start, end) ->
+                groupedList.evaluate(values, scale, results, (int) start, (int) end, groupedList.createScratch()));
+        } else {
+            forEachChunk(numExpressions, (start, end) -> {
+                ExpressionEvaluator evaluator = expressionList.newEvaluator();
+                for (int i = (int) start; i < end; i++) {
+                    results[i] = evaluator.evaluate(i, values, scale);
+                }
+            });
+        }
+        return results;
+    }
+
+    /**
+        Finds the integers of a range that some expression of a list evaluates to, streaming every value into a concurrent bitmap
+        so that neither the expressions nor their values are held at once.
+        A value is an integer when it is equal to its nearest integer within the tolerance of Solver.equal.
+        @param expressionList: an <code>ExpressionList</code> to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param low: an <code>int</code> representing the lowest integer of the range.
+        @param high: an <code>int</code> representing the highest integer of the range.
+        @param keepWitnesses: a <code>boolean</code> representing whether to keep the lowest index of an expression for every integer.
+        @return a <code>ReachableIntegers</code> representing the integers that can be made.
+    */
+    public ReachableIntegers findReachableIntegers(ExpressionList expressionList, double[] values, int rounding, int low, int high, boolean keepWitnesses) {
+        ReachableIntegers reachable = new ReachableIntegers(low, high, keepWitnesses);
+        final double scale = CompiledExpressionList.getScale(rounding);
+        ShapeGroupedList.ValueConsumer consumer = (index, value) -> {
+            long nearest = Math.round(value);
+            if (nearest >= low && nearest <= high && Solver.equal(value, nearest)) {
+                reachable.add((int) nearest, index);
+            }
+        };
+        forEachValue(expressionList, values, scale, () -> consumer);
+        return reachable;
+    }
+
+    /**
+        Finds the k expressions of a list whose values are nearest to a target, for example when no expression evaluates to a goal.
+        Every thread of the pool keeps its own bounded heap of the nearest expressions it has seen, which are merged at the end,
+        so the memory used depends on k and the number of threads and nothing is allocated per expression.
+        Expressions at the same distance are taken in order of index, so the result does not depend on how the list was split.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param target: a <code>double</code> representing the target.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param k: an <code>int</code> representing the number of expressions to find.
+        @return an <code>EvaluatedExpression[]</code> representing the expressions found, nearest first.
+    */
+    public EvaluatedExpression[] findNearest(ExpressionList expressionList, double[] values, double target, int rounding, int k) {
+        if (k <= 0) {
+            return new EvaluatedExpression[0];
+        }
+        final double scale = CompiledExpressionList.getScale(rounding);
+        Queue<NearestHeap> heaps = new ConcurrentLinkedQueue<>();
+        ThreadLocal<NearestHeap> heap = ThreadLocal.withInitial(() -> {
+            NearestHeap created = new NearestHeap(k);
+            heaps.add(created);
+            return created;
+        });
+        forEachValue(expressionList, values, scale, () -> {
+            NearestHeap workerHeap = heap.get();
+            return (index, value) -> {
+                if (!Double.isNaN(value)) {
+                    workerHeap.offer(Math.abs(value-target), index, value);
+                }
+            };
+        });
+
+        NearestHeap merged = new NearestHeap(k);
+        for (NearestHeap workerHeap : heaps) {
+            merged.merge(workerHeap);
+        }
+        long[] indices = new long[merged.size()];
+        double[] results = new double[merged.size()];
+        int count = merged.drainSorted(indices, results);
+        EvaluatedExpression[] nearest = new EvaluatedExpression[count];
+        for (int i = 0; i < count; i++) {
+            nearest[i] = new EvaluatedExpression(expressionList.get(indices[i]), values, results[i]);
+        }
+        return nearest;
+    }
+
+    /**
+        Evaluates every expression of a list and passes its rounded value to a consumer, without holding the values of the whole list.
+        The list is evaluated grouped by shape or one program at a time, whichever ExpressionList.isGroupedFaster found to be faster.
+        Every chunk gets its consumer from consumers when it starts, so a consumer is only ever called from one thread at a time.
+    */
+    private void forEachValue(ExpressionList expressionList, double[] values, double scale, Supplier<ShapeGroupedList.ValueConsumer> consumers) {
+        if (expressionList.isGroupedFaster(values, scale)) {
+            ShapeGroupedList groupedList = expressionList.group();
+            forEachChunk(groupedList.getNumGroups(), (start, end) ->
+                groupedList.evaluate(values, scale, (int) start, (int) end, groupedList.createScratch(), consumers.get()));
+        } else {
+            forEachChunk(expressionList.getNumExpressionsLong(), (start, end) -> {
+                ExpressionEvaluator evaluator = expressionList.newEvaluator();
+                ShapeGroupedList.ValueConsumer consumer = consumers.get();
+                for (long i = start; i < end; i++) {
+                    consumer.accept(i, evaluator.evaluate(i, values, scale));
+                }
+            });
+        }
+    }
+
+    /**
+        Finds up to maxSolutions expressions of a list that evaluate to a goal.
+        Once maxSolutions are found every task stops, and the tasks that have not started return without evaluating.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param goal: a <code>double</code> representing the goal.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @param verbose: a <code>boolean</code> representing whether to print progress.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
+    public SolutionList findSolutions(ExpressionList expressionList, double[] values, double goal, int rounding, int maxSolutions, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        SolutionList solutions = new SolutionList(values, goal);
+        long numExpressions = expressionList.getNumExpressionsLong();
+        expressionList.newEvaluator(); // compile once before the tasks start
+        final double scale = CompiledExpressionList.getScale(rounding);
+        AtomicInteger solutionsFound = new AtomicInteger(0);
+        Progress progress = new Progress(numExpressions, verbose);
+
+        forEachChunk(numExpressions, (start, end) -> {
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            for (long i = start; i < end && solutionsFound.get() < maxSolutions; i++) {
+                double value = evaluator.evaluate(i, values, scale);
+                if (Solver.equal(value, goal)) {
+                    synchronized (solutions) {
+                        if (solutionsFound.get() < maxSolutions) {
+                            solutions.addEvaluatedExpression(new EvaluatedExpression(expressionList.get(i), values, value));
+                            solutionsFound.incrementAndGet();
+                        }
+                    }
+                }
+            }
+            progress.add(end-start);
+        }, start -> solutionsFound.get() >= maxSolutions);
+
+        if (verbose) {
+            System.out.println("Found "+solutions.getNumSolutions()+" solutions in "+(System.currentTimeMillis()-startTime)/1000.0+" seconds");
+        }
+        return solutions;
+    }
+
+    /**
+        Finds up to maxSolutions[g] expressions of a list that evaluate to goals[g] for every goal, evaluating every expression once for all the goals.
+        The goals are sorted once, and the value of every expression is looked up by binary search, so a scan costs about the same for 100 goals as for one.
+        An expression is a solution for every goal its value is equal to, see Solver.equal.
+        Once every goal has its maxSolutions the tasks that have not started return without evaluating.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param goals: a <code>double[]</code> representing the goals.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxSolutions: an <code>int[]</code> representing the most solutions to find for each goal.
+        @return a <code>SolutionList[]</code> representing the solutions found for each goal, in the order of goals.
+    */
+    public SolutionList[] findSolutions(ExpressionList expressionList, double[] values, double[] goals, int rounding, int[] maxSolutions) {
+        int numGoals = goals.length;
+        if (maxSolutions.length != numGoals) {
+            throw new IllegalArgumentException("There are "+numGoals+" goals but "+maxSolutions.length+" solution caps");
+        }
+        SolutionList[] solutions = new SolutionList[numGoals];
+        AtomicIntegerArray solutionsFound = new AtomicIntegerArray(numGoals);
+        AtomicInteger fullGoals = new AtomicInteger(0);
+        for (int g = 0; g < numGoals; g++) {
+            solutions[g] = new SolutionList(values, goals[g]);
+            if (maxSolutions[g] <= 0) {
+                fullGoals.incrementAndGet();
+            }
+        }
+        // the goals in increasing order, with the index of each in goals
+        Integer[] order = new Integer[numGoals];
+        for (int g = 0; g < numGoals; g++) {
+            order[g] = g;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(goals[x], goals[y]));
+        int[] goalOrder = new int[numGoals];
+        double[] sortedGoals = new double[numGoals];
+        for (int k = 0; k < numGoals; k++) {
+            goalOrder[k] = order[k];
+            sortedGoals[k] = goals[goalOrder[k]];
+        }
+        expressionList.newEvaluator(); // compile once before the tasks start
+        final double scale = CompiledExpressionList.getScale(rounding);
+
+        forEachChunk(expressionList.getNumExpressionsLong(), (start, end) -> {
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            for (long i = start; i < end && fullGoals.get() < numGoals; i++) {
+                double value = evaluator.evaluate(i, values, scale);
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                int position = Arrays.binarySearch(sortedGoals, value);
+                if (position < 0) {
+                    position = -position-1;
+                }
+                // every goal equal to the value is next to where it would be inserted
+                for (int k = position-1; k >= 0 && Solver.equal(value, sortedGoals[k]); k--) {
+                    addSolution(expressionList, i, values, value, goalOrder[k], solutions, solutionsFound, fullGoals, maxSolutions);
+                }
+                for (int k = position; k < numGoals && Solver.equal(value, sortedGoals[k]); k++) {
+                    addSolution(expressionList, i, values, value, goalOrder[k], solutions, solutionsFound, fullGoals, maxSolutions);
+                }
+            }
+        }, start -> fullGoals.get() >= numGoals);
+        return solutions;
+    }
+
+    /**
+        Adds a solution to one of several solution lists unless it already has its cap, counting the lists that reach their caps.
+    */
+    private static void addSolution(ExpressionList expressionList, long index, double[] values, double value, int list, SolutionList[] solutions, AtomicIntegerArray solutionsFound, AtomicInteger fullLists, int[] maxSolutions) {
+        if (solutionsFound.get(list) >= maxSolutions[list]) {
+            return;
+        }
+        synchronized (solutions[list]) {
+            if (solutionsFound.get(list) < maxSolutions[list]) {
+                solutions[list].addEvaluatedExpression(new EvaluatedExpression(expressionList.get(index), values, value));
+                if (solutionsFound.incrementAndGet(list) == maxSolutions[list]) {
+                    fullLists.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+        Finds the expression with the lowest index in a list that evaluates to a goal, searching chunks in parallel.
+        The lowest index found so far is shared by every task: a task stops once it passes it and a task that starts after it
+        returns without evaluating, so as soon as a solution is found only the chunks before it are still evaluated.
+        The result is the same as a sequential scan from the start of the list.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param goal: a <code>double</code> representing the goal.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @return an <code>EvaluatedExpression</code> representing the first solution, null if there is none.
+    */
+    public EvaluatedExpression findFirstSolution(ExpressionList expressionList, double[] values, double goal, int rounding) {
+        long numExpressions = expressionList.getNumExpressionsLong();
+        expressionList.newEvaluator(); // compile once before the tasks start
+        final double scale = CompiledExpressionList.getScale(rounding);
+        AtomicLong firstSolution = new AtomicLong(Long.MAX_VALUE);
+
+        forEachChunk(numExpressions, (start, end) -> {
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            for (long i = start; i < end && i < firstSolution.get(); i++) {
+                if (Solver.equal(evaluator.evaluate(i, values, scale), goal)) {
+                    firstSolution.accumulateAndGet(i, Math::min);
+                    return;
+                }
+            }
+        }, start -> start >= firstSolution.get());
+
+        long index = firstSolution.get();
+        if (index == Long.MAX_VALUE) {
+            return null;
+        }
+        return new EvaluatedExpression(expressionList.get(index), values, goal);
+    }
+
+    /**
+        Finds up to maxSolutions expressions of a list that evaluate to a goal for every tuple of a block of value tuples, in one scan of the list.
+        Every expression is evaluated for the whole block at once with ExpressionEvaluator.evaluateBatch, so it is decoded and dispatched
+        once per block instead of once per tuple. Once every tuple has maxSolutions the tasks that have not started return without evaluating.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param valueTuples: a <code>double[][]</code> representing the values of every tuple.
+        @param goal: a <code>double</code> representing the goal.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find for each tuple.
+        @return a <code>SolutionList[]</code> representing the solutions found for each tuple.
+    */
+    public SolutionList[] findSolutions(ExpressionList expressionList, double[][] valueTuples, double goal, int rounding, int maxSolutions) {
+        double[] goals = new double[valueTuples.length];
+        int[] caps = new int[valueTuples.length];
+        Arrays.fill(goals, goal);
+        Arrays.fill(caps, maxSolutions);
+        return findSolutions(expressionList, valueTuples, goals, rounding, caps);
+    }
+
+    /**
+        Answers a block of independent queries, each with its own values, goal and cap, in one scan of the list.
+        Every expression is evaluated for all the queries at once with ExpressionEvaluator.evaluateBatch, so a list that is read from memory once
+        answers the whole block. Once every query has its maxSolutions the tasks that have not started return without evaluating.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param valueTuples: a <code>double[][]</code> representing the values of every query.
+        @param goals: a <code>double[]</code> representing the goal of every query.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxSolutions: an <code>int[]</code> representing the most solutions to find for every query.
+        @return a <code>SolutionList[]</code> representing the solutions found for every query.
+    */
+    public SolutionList[] findSolutions(ExpressionList expressionList, double[][] valueTuples, double[] goals, int rounding, int[] maxSolutions) {
+        int batchSize = valueTuples.length;
+        if (goals.length != batchSize || maxSolutions.length != batchSize) {
+            throw new IllegalArgumentException("Every query needs values, a goal and a cap");
+        }
+        SolutionList[] solutions = new SolutionList[batchSize];
+        AtomicIntegerArray solutionsFound = new AtomicIntegerArray(batchSize);
+        AtomicInteger fullTuples = new AtomicInteger(0);
+        for (int t = 0; t < batchSize; t++) {
+            solutions[t] = new SolutionList(valueTuples[t], goals[t]);
+            if (maxSolutions[t] <= 0) {
+                fullTuples.incrementAndGet();
+            }
+        }
+        if (fullTuples.get() >= batchSize) {
+            return solutions;
+        }
+        double[] columns = LaneEvaluator.toColumns(valueTuples, expressionList.getNumValues());
+        expressionList.newEvaluator(); // compile once before the tasks start
+        final double scale = CompiledExpressionList.getScale(rounding);
+
+        forEachChunk(expressionList.getNumExpressionsLong(), (start, end) -> {
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            double[] results = new double[batchSize];
+            for (long i = start; i < end && fullTuples.get() < batchSize; i++) {
+                evaluator.evaluateBatch(i, columns, batchSize, results);
+                for (int t = 0; t < batchSize; t++) {
+                    double value = round(results[t], scale);
+                    if (Solver.equal(value, goals[t])) {
+                        addSolution(expressionList, i, valueTuples[t], value, t, solutions, solutionsFound, fullTuples, maxSolutions);
+                    }
+                }
+            }
+        }, start -> fullTuples.get() >= batchSize);
+        return solutions;
+    }
+
+    /**
+        Finds the expression with the lowest index in a list that evaluates to a goal for every tuple of a block of value tuples, in one scan of the list.
+        A task that starts after the first solution of every tuple returns without evaluating.
+        The result for each tuple is the same as findFirstSolution with its values.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param valueTuples: a <code>double[][]</code> representing the values of every tuple.
+        @param goal: a <code>double</code> representing the goal.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @return an <code>EvaluatedExpression[]</code> representing the first solution for each tuple, null where there is none.
+    */
+    public EvaluatedExpression[] findFirstSolutions(ExpressionList expressionList, double[][] valueTuples, double goal, int rounding) {
+        int batchSize = valueTuples.length;
+        EvaluatedExpression[] firstSolutions = new EvaluatedExpression[batchSize];
+        if (batchSize == 0) {
+            return firstSolutions;
+        }
+        double[] columns = LaneEvaluator.toColumns(valueTuples, expressionList.getNumValues());
+        expressionList.newEvaluator(); // compile once before the tasks start
+        final double scale = CompiledExpressionList.getScale(rounding);
+        AtomicLongArray firstSolution = new AtomicLongArray(batchSize);
+        for (int t = 0; t < batchSize; t++) {
+            firstSolution.set(t, Long.MAX_VALUE);
+        }
+
+        forEachChunk(expressionList.getNumExpressionsLong(), (start, end) -> {
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            double[] results = new double[batchSize];
+            for (long i = start; i < end; i++) {
+                evaluator.evaluateBatch(i, columns, batchSize, results);
+                for (int t = 0; t < batchSize; t++) {
+                    if (i < firstSolution.get(t) && Solver.equal(round(results[t], scale), goal)) {
+                        firstSolution.accumulateAndGet(t, i, Math::min);
+                    }
+                }
+            }
+        }, start -> {
+            for (int t = 0; t < batchSize; t++) {
+                if (firstSolution.get(t) > start) {
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        for (int t = 0; t < batchSize; t++) {
+            long index = firstSolution.get(t);
+            if (index != Long.MAX_VALUE) {
+                firstSolutions[t] = new EvaluatedExpression(expressionList.get(index), valueTuples[t], goal);
+            }
+        }
+        return firstSolutions;
+    }
+
+    /**
+        Finds up to maxSolutions expressions of a list that evaluate exactly to an integer goal for every tuple of a block of integer value tuples,
+        in one scan of the list. Every expression is evaluated for the whole block at once with an ExactEvaluator, so there is no rounding and no tolerance.
+        Once every tuple has maxSolutions the tasks that have not started return without evaluating.
+        @param expressionList: an <code>ExpressionList</code> to search, with only intrinsic operations.
+        @param valueTuples: a <code>long[][]</code> representing the values of every tuple.
+        @param goal: a <code>long</code> representing the goal.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find for each tuple.
+        @return a <code>SolutionList[]</code> representing the solutions found for each tuple.
+    */
+    public SolutionList[] findSolutionsExact(ExpressionList expressionList, long[][] valueTuples, long goal, int maxSolutions) {
+        int batchSize = valueTuples.length;
+        double[][] doubleTuples = toDoubles(valueTuples);
+        SolutionList[] solutions = new SolutionList[batchSize];
+        for (int t = 0; t < batchSize; t++) {
+            solutions[t] = new SolutionList(doubleTuples[t], goal);
+        }
+        if (batchSize == 0 || maxSolutions <= 0) {
+            return solutions;
+        }
+        long[] columns = ExactEvaluator.toColumns(valueTuples, expressionList.getNumValues());
+        expressionList.newExactEvaluator(); // compile once before the tasks start, if the list is compiled
+        AtomicIntegerArray solutionsFound = new AtomicIntegerArray(batchSize);
+        AtomicInteger fullTuples = new AtomicInteger(0);
+
+        forEachChunk(expressionList.getNumExpressionsLong(), (start, end) -> {
+            ExactEvaluator evaluator = expressionList.newExactEvaluator();
+            boolean[] matches = new boolean[batchSize];
+            for (long i = start; i < end && fullTuples.get() < batchSize; i++) {
+                evaluator.evaluatesTo(i, valueTuples, columns, goal, matches);
+                for (int t = 0; t < batchSize; t++) {
+                    if (matches[t] && solutionsFound.get(t) < maxSolutions) {
+                        synchronized (solutions[t]) {
+                            if (solutionsFound.get(t) < maxSolutions) {
+                                solutions[t].addEvaluatedExpression(new EvaluatedExpression(expressionList.get(i), doubleTuples[t], goal));
+                                if (solutionsFound.incrementAndGet(t) == maxSolutions) {
+                                    fullTuples.incrementAndGet();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }, start -> fullTuples.get() >= batchSize);
+        return solutions;
+    }
+
+    /**
+        Finds the expression with the lowest index in a list that evaluates exactly to an integer goal for every tuple of a block of integer value tuples,
+        in one scan of the list. A task that starts after the first solution of every tuple returns without evaluating.
+        @param expressionList: an <code>ExpressionList</code> to search, with only intrinsic operations.
+        @param valueTuples: a <code>long[][]</code> representing the values of every tuple.
+        @param goal: a <code>long</code> representing the goal.
+        @return an <code>EvaluatedExpression[]</code> representing the first solution for each tuple, null where there is none.
+    */
+    public EvaluatedExpression[] findFirstSolutionsExact(ExpressionList expressionList, long[][] valueTuples, long goal) {
+        int batchSize = valueTuples.length;
+        EvaluatedExpression[] firstSolutions = new EvaluatedExpression[batchSize];
+        if (batchSize == 0) {
+            return firstSolutions;
+        }
+        long[] columns = ExactEvaluator.toColumns(valueTuples, expressionList.getNumValues());
+        expressionList.newExactEvaluator(); // compile once before the tasks start, if the list is compiled
+        AtomicLongArray firstSolution = new AtomicLongArray(batchSize);
+        for (int t = 0; t < batchSize; t++) {
+            firstSolution.set(t, Long.MAX_VALUE);
+        }
+
+        forEachChunk(expressionList.getNumExpressionsLong(), (start, end) -> {
+            ExactEvaluator evaluator = expressionList.newExactEvaluator();
+            boolean[] matches = new boolean[batchSize];
+            for (long i = start; i < end; i++) {
+                evaluator.evaluatesTo(i, valueTuples, columns, goal, matches);
+                for (int t = 0; t < batchSize; t++) {
+                    if (matches[t] && i < firstSolution.get(t)) {
+                        firstSolution.accumulateAndGet(t, i, Math::min);
+                    }
+                }
+            }
+        }, start -> {
+            for (int t = 0; t < batchSize; t++) {
+                if (firstSolution.get(t) > start) {
+                    return false;
+                }
+            }
+            return true;
+        });
+
+        double[][] doubleTuples = toDoubles(valueTuples);
+        for (int t = 0; t < batchSize; t++) {
+            long index = firstSolution.get(t);
+            if (index != Long.MAX_VALUE) {
+                firstSolutions[t] = new EvaluatedExpression(expressionList.get(index), doubleTuples[t], goal);
+            }
+        }
+        return firstSolutions;
+    }
+
+    private static double[][] toDoubles(long[][] valueTuples) {
+        double[][] doubleTuples = new double[valueTuples.length][];
+        for (int t = 0; t < valueTuples.length; t++) {
+            doubleTuples[t] = new double[valueTuples[t].length];
+            for (int v = 0; v < valueTuples[t].length; v++) {
+                doubleTuples[t][v] = valueTuples[t][v];
+            }
+        }
+        return doubleTuples;
+    }
+
+    private static double round(double value, double scale) {
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        return Math.round(value * scale) / scale;
+    }
+
+    /**
+        Shuts down the pool. Queries cannot be run afterwards.
+        @throws IllegalStateException if this is the shared engine, which every solver made without an engine of its own runs on.
+    */
+    public void shutdown() {
+        synchronized (EvaluationEngine.class) {
+            if (this == shared) {
+                throw new IllegalStateException("The shared EvaluationEngine cannot be shut down");
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+        An action run on a chunk [start,end) of a range.
+    */
+    public interface ChunkAction {
+        void run(long start, long end);
+    }
+
+    /**
+        Splits a range in half until each task has at most chunkSize elements, unless the range is skipped.
+    */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient ChunkAction action;
+        private final transient LongPredicate skip;
+        private final long start;
+        private final long end;
+        private final int chunkSize;
+
+        ChunkTask(ChunkAction action, LongPredicate skip, long start, long end, int chunkSize) {
+            this.action = action;
+            this.skip = skip;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (skip.test(start)) {
+                return;
+            }
+            if (end-start <= chunkSize) {
+                action.run(start, end);
+            } else {
+                long middle = start+(end-start)/2;
+                invokeAll(new ChunkTask(action, skip, start, middle, chunkSize), new ChunkTask(action, skip, middle, end, chunkSize));
+            }
+        }
+    }
+
+    /**
+        Prints every tenth of a query that is evaluated, when verbose.
+    */
+    private static final class Progress {
+        private final AtomicLong evaluated = new AtomicLong();
+        private final long decile;
+        private final boolean verbose;
+
+        Progress(long total, boolean verbose) {
+            this.decile = Math.max(total/10, 1);
+            this.verbose = verbose;
+        }
+
+        void add(long count) {
+            if (!verbose) {
+                return;
+            }
+            long after = evaluated.addAndGet(count);
+            if ((after-count)/decile != after/decile) {
+                System.out.println("Evaluated "+after+" expressions");
+            }
+        }
+    }
+}
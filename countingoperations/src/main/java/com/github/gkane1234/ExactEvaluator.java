@@ -0,0 +1,348 @@
+package com.github.gkane1234;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+    Evaluates the expressions of a compiled or compressed list exactly on integer values, so that an integer goal is matched without rounding or tolerance.
+
+    Every entry of the stack is a fraction of two longs. Fractions are not reduced, and two fractions with the same denominator are added
+    without multiplying it, so with integer values and no division every denominator stays 1. Dividing by a fraction whose numerator is 0
+    is undefined, the same rule as Operation. If any step overflows a long the expression is evaluated again with BigInteger fractions,
+    so the result is exact for any values.
+
+    Expressions are read from the program of a compiled list, or for a compressed list every expression is decoded into a program of its own
+    when it is evaluated, so the list is never compiled and indices are longs.
+
+    Only the intrinsic operations can be evaluated exactly, see Operation.getKind. An ExactEvaluator keeps its own stacks, so it is not thread-safe.
+*/
+public class ExactEvaluator {
+
+    private final byte[] program;
+    private final PackedExpressionEvaluator packedEvaluator;
+    private final int programLength;
+    private final int numValues;
+    private final int[] kinds;
+    private final long[] numerators;
+    private final long[] denominators;
+    private long[] laneNumerators;
+    private long[] laneDenominators;
+    private boolean[] laneUndefined;
+    private BigInteger[] bigNumerators;
+    private BigInteger[] bigDenominators;
+
+    /**
+        Constructor for an ExactEvaluator.
+        @param compiledList: a <code>CompiledExpressionList</code> whose expressions are evaluated.
+        @throws UnsupportedOperationException if the list was compiled with a custom operation.
+    */
+    public ExactEvaluator(CompiledExpressionList compiledList) {
+        this(compiledList.getProgram(), null, compiledList.getNumValues(), compiledList.getOperations());
+    }
+
+    /**
+        Constructor for an ExactEvaluator that decodes the expressions of a compressed list one at a time, without compiling it.
+        The current operations from <code>Operation.getOperations()</code> are captured when it is created.
+        @param compressedList: a <code>CompressedExpressionList</code> whose expressions are evaluated.
+        @throws UnsupportedOperationException if a current operation is custom.
+    */
+    public ExactEvaluator(CompressedExpressionList compressedList) {
+        this(new byte[Math.max(2*compressedList.getNumValues()-1, 1)], new PackedExpressionEvaluator(compressedList.getPackedExpressions(), compressedList.getNumValues()),
+            compressedList.getNumValues(), Operation.getOperations());
+    }
+
+    private ExactEvaluator(byte[] program, PackedExpressionEvaluator packedEvaluator, int numValues, Operation[] operations) {
+        if (!supportsOperations(operations)) {
+            throw new UnsupportedOperationException("Custom operations cannot be evaluated exactly");
+        }
+        this.program = program;
+        this.packedEvaluator = packedEvaluator;
+        this.numValues = numValues;
+        this.programLength = 2*numValues-1;
+        this.kinds = new int[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            kinds[i] = operations[i].getKind();
+        }
+        this.numerators = new long[Math.max(numValues, 1)];
+        this.denominators = new long[Math.max(numValues, 1)];
+    }
+
+    /**
+        Checks whether every operation of a set can be evaluated exactly.
+        @param operations: an <code>Operation[]</code> to check.
+        @return a <code>boolean</code> representing whether none of the operations is custom.
+    */
+    public static boolean supportsOperations(Operation[] operations) {
+        for (Operation operation : operations) {
+            if (operation.getKind() == Operation.CUSTOM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+        Checks whether a number is an integer that a double represents exactly.
+        @param value: a <code>double</code> to check.
+        @return a <code>boolean</code> representing whether the value can be used as an exact value or goal.
+    */
+    public static boolean isIntegral(double value) {
+        return value == Math.rint(value) && Math.abs(value) <= 0x1p53;
+    }
+
+    /**
+        Converts integer values to the longs they are evaluated with.
+        @param values: a <code>double[]</code> of values that are all integral, see isIntegral.
+        @return a <code>long[]</code> representing the values.
+        @throws IllegalArgumentException if a value is not integral.
+    */
+    public static long[] toLongs(double[] values) {
+        long[] longValues = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (!isIntegral(values[i])) {
+                throw new IllegalArgumentException("Only integer values can be evaluated exactly, not "+values[i]);
+            }
+            longValues[i] = (long) values[i];
+        }
+        return longValues;
+    }
+
+    /**
+        Checks exactly whether an expression evaluates to an integer goal.
+        @param index: a <code>long</code> representing the index of the expression in the list.
+        @param values: a <code>long[]</code> representing the values of the expression.
+        @param goal: a <code>long</code> representing the goal.
+        @return a <code>boolean</code> representing whether the expression is defined and equal to the goal.
+    */
+    public boolean evaluatesTo(long index, long[] values, long goal) {
+        boolean defined;
+        try {
+            defined = evaluateLong(index, values);
+        } catch (ArithmeticException e) {
+            return evaluatesToBig(index, values, goal);
+        }
+        return defined && isGoal(numerators[0], denominators[0], goal);
+    }
+
+    /**
+        Checks exactly whether an expression evaluates to an integer goal for every tuple of a block, reading the program once for the whole block.
+        The tuples are evaluated as lanes, see LaneEvaluator. If any lane overflows a long, every tuple is checked on its own with evaluatesTo.
+        @param index: a <code>long</code> representing the index of the expression in the list.
+        @param valueTuples: a <code>long[][]</code> representing the values of every tuple.
+        @param columns: a <code>long[]</code> representing the same values column-wise, value v of tuple t at v*valueTuples.length+t, see toColumns.
+        @param goal: a <code>long</code> representing the goal.
+        @param matches: a <code>boolean[]</code> to write whether the expression is defined and equal to the goal for every tuple to.
+    */
+    public void evaluatesTo(long index, long[][] valueTuples, long[] columns, long goal, boolean[] matches) {
+        int numLanes = valueTuples.length;
+        if (laneNumerators == null || laneNumerators.length != Math.max(numValues, 1)*numLanes) {
+            laneNumerators = new long[Math.max(numValues, 1)*numLanes];
+            laneDenominators = new long[laneNumerators.length];
+            laneUndefined = new boolean[numLanes];
+        }
+        try {
+            evaluateLanes(index, columns, numLanes);
+        } catch (ArithmeticException e) {
+            for (int t = 0; t < numLanes; t++) {
+                matches[t] = evaluatesTo(index, valueTuples[t], goal);
+            }
+            return;
+        }
+        for (int t = 0; t < numLanes; t++) {
+            matches[t] = !laneUndefined[t] && isGoal(laneNumerators[t], laneDenominators[t], goal);
+        }
+    }
+
+    /**
+        Finds the program of an expression, decoding it first for a compressed list.
+        @param index: a <code>long</code> representing the index of the expression in the list.
+        @return an <code>int</code> representing where the program of the expression starts in program.
+    */
+    private int programStart(long index) {
+        if (packedEvaluator != null) {
+            packedEvaluator.decodeProgram(index, program);
+            return 0;
+        }
+        return Math.toIntExact(index)*programLength;
+    }
+
+    private static boolean isGoal(long numerator, long denominator, long goal) {
+        try {
+            return numerator == Math.multiplyExact(goal, denominator);
+        } catch (ArithmeticException e) {
+            return false; // larger than any long, so it cannot be the numerator
+        }
+    }
+
+    /**
+        Lays tuples of values out column-wise, the layout evaluatesTo reads a block in.
+        @param valueTuples: a <code>long[][]</code> representing the values of every tuple.
+        @param numValues: an <code>int</code> representing the number of values in each tuple.
+        @return a <code>long[]</code> where value v of tuple t is at v*valueTuples.length+t.
+    */
+    public static long[] toColumns(long[][] valueTuples, int numValues) {
+        int numLanes = valueTuples.length;
+        long[] columns = new long[numValues*numLanes];
+        for (int t = 0; t < numLanes; t++) {
+            for (int v = 0; v < numValues; v++) {
+                columns[v*numLanes+t] = valueTuples[t][v];
+            }
+        }
+        return columns;
+    }
+
+    /**
+        Evaluates an expression on every lane with long fractions, leaving the results in the first column of the lane stacks.
+        A lane whose expression divides by zero is marked undefined, and its fractions after that are never read.
+        @throws ArithmeticException if a step of any lane overflows a long.
+    */
+    private void evaluateLanes(long index, long[] columns, int numLanes) {
+        long[] n = laneNumerators;
+        long[] d = laneDenominators;
+        Arrays.fill(laneUndefined, false);
+        int top = -1;
+        for (int pointer = programStart(index), end = pointer+programLength; pointer < end; pointer++) {
+            byte code = program[pointer];
+            if (code >= 0) {
+                int destination = (++top)*numLanes;
+                System.arraycopy(columns, code*numLanes, n, destination, numLanes);
+                Arrays.fill(d, destination, destination+numLanes, 1);
+                continue;
+            }
+            top--;
+            int first = top*numLanes;
+            int second = first+numLanes;
+            switch (kinds[-code-1]) {
+                case Operation.ADD:
+                    for (int t = 0; t < numLanes; t++) {
+                        if (d[first+t] == d[second+t]) {
+                            n[first+t] = Math.addExact(n[first+t], n[second+t]);
+                        } else {
+                            n[first+t] = Math.addExact(Math.multiplyExact(n[first+t], d[second+t]), Math.multiplyExact(n[second+t], d[first+t]));
+                            d[first+t] = Math.multiplyExact(d[first+t], d[second+t]);
+                        }
+                    }
+                    break;
+                case Operation.SUBTRACT:
+                    for (int t = 0; t < numLanes; t++) {
+                        if (d[first+t] == d[second+t]) {
+                            n[first+t] = Math.subtractExact(n[first+t], n[second+t]);
+                        } else {
+                            n[first+t] = Math.subtractExact(Math.multiplyExact(n[first+t], d[second+t]), Math.multiplyExact(n[second+t], d[first+t]));
+                            d[first+t] = Math.multiplyExact(d[first+t], d[second+t]);
+                        }
+                    }
+                    break;
+                case Operation.MULTIPLY:
+                    for (int t = 0; t < numLanes; t++) {
+                        n[first+t] = Math.multiplyExact(n[first+t], n[second+t]);
+                        d[first+t] = Math.multiplyExact(d[first+t], d[second+t]);
+                    }
+                    break;
+                default:
+                    for (int t = 0; t < numLanes; t++) {
+                        long b = n[second+t];
+                        laneUndefined[t] |= b == 0;
+                        n[first+t] = Math.multiplyExact(n[first+t], d[second+t]);
+                        d[first+t] = Math.multiplyExact(d[first+t], b);
+                    }
+            }
+        }
+    }
+
+    /**
+        Evaluates an expression with long fractions, leaving the result in numerators[0]/denominators[0].
+        @return a <code>boolean</code> representing whether the expression is defined.
+        @throws ArithmeticException if a step overflows a long.
+    */
+    private boolean evaluateLong(long index, long[] values) {
+        int top = -1;
+        for (int pointer = programStart(index), end = pointer+programLength; pointer < end; pointer++) {
+            byte code = program[pointer];
+            if (code >= 0) {
+                numerators[++top] = values[code];
+                denominators[top] = 1;
+                continue;
+            }
+            top--;
+            long a = numerators[top];
+            long aDenominator = denominators[top];
+            long b = numerators[top+1];
+            long bDenominator = denominators[top+1];
+            switch (kinds[-code-1]) {
+                case Operation.ADD:
+                    if (aDenominator == bDenominator) {
+                        numerators[top] = Math.addExact(a, b);
+                    } else {
+                        numerators[top] = Math.addExact(Math.multiplyExact(a, bDenominator), Math.multiplyExact(b, aDenominator));
+                        denominators[top] = Math.multiplyExact(aDenominator, bDenominator);
+                    }
+                    break;
+                case Operation.SUBTRACT:
+                    if (aDenominator == bDenominator) {
+                        numerators[top] = Math.subtractExact(a, b);
+                    } else {
+                        numerators[top] = Math.subtractExact(Math.multiplyExact(a, bDenominator), Math.multiplyExact(b, aDenominator));
+                        denominators[top] = Math.multiplyExact(aDenominator, bDenominator);
+                    }
+                    break;
+                case Operation.MULTIPLY:
+                    numerators[top] = Math.multiplyExact(a, b);
+                    denominators[top] = Math.multiplyExact(aDenominator, bDenominator);
+                    break;
+                default:
+                    if (b == 0) {
+                        return false;
+                    }
+                    numerators[top] = Math.multiplyExact(a, bDenominator);
+                    denominators[top] = Math.multiplyExact(aDenominator, b);
+            }
+        }
+        return true;
+    }
+
+    /**
+        The same as evaluatesTo with BigInteger fractions, for an expression that overflows a long.
+    */
+    private boolean evaluatesToBig(long index, long[] values, long goal) {
+        if (bigNumerators == null) {
+            bigNumerators = new BigInteger[numerators.length];
+            bigDenominators = new BigInteger[denominators.length];
+        }
+        int top = -1;
+        for (int pointer = programStart(index), end = pointer+programLength; pointer < end; pointer++) {
+            byte code = program[pointer];
+            if (code >= 0) {
+                bigNumerators[++top] = BigInteger.valueOf(values[code]);
+                bigDenominators[top] = BigInteger.ONE;
+                continue;
+            }
+            top--;
+            BigInteger a = bigNumerators[top];
+            BigInteger aDenominator = bigDenominators[top];
+            BigInteger b = bigNumerators[top+1];
+            BigInteger bDenominator = bigDenominators[top+1];
+            switch (kinds[-code-1]) {
+                case Operation.ADD:
+                    bigNumerators[top] = a.multiply(bDenominator).add(b.multiply(aDenominator));
+                    bigDenominators[top] = aDenominator.multiply(bDenominator);
+                    break;
+                case Operation.SUBTRACT:
+                    bigNumerators[top] = a.multiply(bDenominator).subtract(b.multiply(aDenominator));
+                    bigDenominators[top] = aDenominator.multiply(bDenominator);
+                    break;
+                case Operation.MULTIPLY:
+                    bigNumerators[top] = a.multiply(b);
+                    bigDenominators[top] = aDenominator.multiply(bDenominator);
+                    break;
+                default:
+                    if (b.signum() == 0) {
+                        return false;
+                    }
+                    bigNumerators[top] = a.multiply(bDenominator);
+                    bigDenominators[top] = aDenominator.multiply(b);
+            }
+        }
+        return bigNumerators[0].equals(BigInteger.valueOf(goal).multiply(bigDenominators[0]));
+    }
+}
@@ -188,7 +188,7 @@ public class Expression implements Serializable{
      *@param opCode: the operation to combine the expressions.
      */
 
-    private static Expression combineExpressions(Expression expr1, Expression expr2, byte opCode) {
+    public static Expression combineExpressions(Expression expr1, Expression expr2, byte opCode) {
         
         byte[] newValueOrder = combine(expr1.valueOrder,expr2.valueOrder);
         byte[] newOperations = combineWithExtraSpot(expr1.operations,expr2.operations);
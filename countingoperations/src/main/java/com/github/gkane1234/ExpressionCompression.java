@@ -1,8 +1,6 @@
 package com.github.gkane1234;
 
 import java.util.Arrays;
-import java.util.ArrayList;
-import java.util.List;
 
 
 /**
@@ -39,11 +37,12 @@ public class ExpressionCompression {
     /**
         Calculates the required bits for the value order of an expression to be compressed.
         The value order is saved as a permutation number which represents a specific permutation of the values, hence the factorial.
+        The largest permutation number is numValues!-1, so that is the number that must fit.
         @param numValues: an <code>int</code> representing the number of values in the expression.
         @return an <code>int</code> representing the required bits for the value order.
     */
     public static int getRequiredBitsValueOrder(int numValues) {
-        return (int) (Math.floor(Math.log(factorial(numValues))/Math.log(2)));
+        return Math.max(64-Long.numberOfLeadingZeros(PackedCodeTables.factorial(numValues)-1), 1);
     }
     /**
         Calculates the required bits for the operations of an expression to be compressed.
@@ -68,43 +67,45 @@ public class ExpressionCompression {
         }
         int numValues = toCompress.getNumValues();
         int requiredBitsTotal= REQUIRED_BITS(numValues)[3];
+        long numExpressions = toCompress.getNumExpressionsLong();
 
-        long[] compressedExpressions = new long[getCompressedExpressionListSize(toCompress.getNumExpressions(), requiredBitsTotal)];
-
-        int currentLong = 0;
-        int currentBit = 0;
-
-        
-        for (int i = 0; i < toCompress.getNumExpressions(); i++) {
-            long compressedExpression = compressExpression(toCompress.get(i));
-            compressedExpressions[currentLong] |= (compressedExpression << currentBit);
-            if (64<requiredBitsTotal+currentBit) {
-                currentBit = requiredBitsTotal + currentBit - 64;
-                currentLong++;
-                compressedExpressions[currentLong] = compressedExpression >>> (requiredBitsTotal-currentBit);
-            }
-            else{
-                currentBit += requiredBitsTotal;
-                if (currentBit==64) {
-                    currentBit=0;
-                    currentLong++;
-                }
-            }
+        SegmentedLongArray compressedExpressions = new SegmentedLongArray(getCompressedExpressionListSize(numExpressions, requiredBitsTotal));
+        for (long i = 0; i < numExpressions; i++) {
+            setCompressedExpression(compressedExpressions, i, requiredBitsTotal, compressExpression(toCompress.get(i)));
         }
-        return new CompressedExpressionList(compressedExpressions, toCompress.getNumExpressions(), numValues);
+        return new CompressedExpressionList(compressedExpressions, numExpressions, numValues);
         
     }
     public static String toBinary(long value) {
         return String.format("%64s", Long.toBinaryString(value)).replace(' ', '0');
     }
     /**
-        Decompresses a compressed expression list into an expression list.
+        Decompresses a compressed expression list into an expression list on the shared EvaluationEngine.
         @param compressedExpressionList: a <code>CompressedExpressionList</code> to decompress.
         @param verbose: a <code>boolean</code> representing whether to print verbose output.
         @return an <code>ExpressionList</code> representing the decompressed expression list.
     */
     public static ExpressionList decompressExpressionList (CompressedExpressionList compressedExpressionList, boolean verbose) {
-        return decompressExpressionList(compressedExpressionList.getCompressedExpressions(), compressedExpressionList.getNumExpressions(), compressedExpressionList.getNumValues(), verbose);
+        return decompressExpressionList(compressedExpressionList, EvaluationEngine.getShared(), verbose);
+    }
+    /**
+        Decompresses a compressed expression list into an expression list.
+        The list is split into chunks that are decoded in parallel on the pool of an engine straight into a presized array,
+        see CompressedExpressionSpliterator.
+        @param compressedExpressionList: a <code>CompressedExpressionList</code> to decompress.
+        @param engine: an <code>EvaluationEngine</code> whose pool decodes the chunks.
+        @param verbose: a <code>boolean</code> representing whether to print verbose output.
+        @return an <code>ExpressionList</code> representing the decompressed expression list.
+    */
+    public static ExpressionList decompressExpressionList (CompressedExpressionList compressedExpressionList, EvaluationEngine engine, boolean verbose) {
+        long startTime = System.currentTimeMillis();
+        int numExpressions = compressedExpressionList.getNumExpressions();
+        Expression[] expressions = new Expression[numExpressions];
+        engine.forEachExpression(compressedExpressionList, (index, expression) -> expressions[(int) index] = expression);
+        if (verbose) {
+            System.out.println("Decompressed expression set in "+(System.currentTimeMillis()-startTime)/1000.0+" seconds");
+        }
+        return new ExpressionList(expressions, numExpressions, compressedExpressionList.getNumValues());
     }
     /**
         Decompresses a compressed expression list into an expression list.
@@ -115,45 +116,10 @@ public class ExpressionCompression {
         @return an <code>ExpressionList</code> representing the decompressed expression list.
     */
     public static ExpressionList decompressExpressionList (long[] compressedExpressions, int numCompressedExpressions, int numValues, boolean verbose) {
-        long startTime = System.currentTimeMillis();
-
-
         if (verbose) {
-
             System.err.println("Decompressing expression set with "+numCompressedExpressions+" expressions");
         }
-        // the n=1 case is handled separately.
-        if (numValues==1) {
-            return new ExpressionList(new Expression[]{decompressExpression(compressedExpressions[0], numValues)}, 1, numValues);
-        }
-        
-        int[] requiredBits= REQUIRED_BITS(numValues);
-        //used for verbose output
-        int decile = 0;
-        if (verbose) {
-            decile = Math.max(1, numCompressedExpressions/10); // needs to be at least 1 or we divide by 0
-        }
-
-        List<Expression> decompressedExpressions = new ArrayList<>();
-        
-        for (int i=0; i<numCompressedExpressions; i++) {
-            if (verbose && i%decile==0) {
-                System.err.println("Decompressed "+i+"/"+numCompressedExpressions+" expressions");
-            }
-            long currentCompressedExpression = getCompressedExpression(compressedExpressions, i, requiredBits[3]);
-            decompressedExpressions.add(decompressExpression(currentCompressedExpression, numValues));
-        }
-        Expression[] decompressedExpressionsArray = new Expression[decompressedExpressions.size()];
-        long endTime = System.currentTimeMillis();
-        if (verbose) {
-            System.out.println("Decompressed expression set in "+(endTime-startTime)/1000.0+" seconds");
-        }
-        return new ExpressionList(decompressedExpressions.toArray(decompressedExpressionsArray),numCompressedExpressions, numValues);
-
-            
-
-
-
+        return decompressExpressionList(new CompressedExpressionList(compressedExpressions, numCompressedExpressions, numValues), verbose);
     }
     /**
         Gets a compressed expression from a compressed expression list.
@@ -163,9 +129,9 @@ public class ExpressionCompression {
         @return a <code>long</code> representing the compressed expression.
     */
     public static long getCompressedExpression(long[] compressedExpressions, int index, int expressionSize) {
-        int bitIndex = index*expressionSize;
-        int longIndex = bitIndex/64;
-        int bitOffset = bitIndex%64;
+        long bitIndex = (long) index*expressionSize;
+        int longIndex = (int) (bitIndex >>> 6);
+        int bitOffset = (int) (bitIndex & 63);
         long compressedExpression = 0;
         compressedExpression |= (compressedExpressions[longIndex] >>> bitOffset);
         if (64<expressionSize+bitOffset) {
@@ -177,6 +143,24 @@ public class ExpressionCompression {
         }
         return compressedExpression;
     }
+    /**
+        Gets a compressed expression from packed expressions that are not on the heap.
+        @param packedExpressions: a <code>LongArray</code> representing the packed compressed expressions.
+        @param index: a <code>long</code> representing the index of the compressed expression to get.
+        @param expressionSize: an <code>int</code> representing the size of the expression in bits.
+        @return a <code>long</code> representing the compressed expression.
+    */
+    public static long getCompressedExpression(LongArray packedExpressions, long index, int expressionSize) {
+        long bitIndex = index*expressionSize;
+        long longIndex = bitIndex >>> 6;
+        int bitOffset = (int) (bitIndex & 63);
+        long compressedExpression = packedExpressions.get(longIndex) >>> bitOffset;
+        if (64<expressionSize+bitOffset) {
+            int bitsUsed = 64-bitOffset;
+            compressedExpression |= packedExpressions.get(longIndex+1) << bitsUsed;
+        }
+        return compressedExpression & ((1L<<expressionSize)-1);
+    }
     /**
         Sets a compressed expression in a compressed expression list.
         @param compressedExpressions: a <code>long[]</code> representing the compressed expression list.
@@ -185,9 +169,9 @@ public class ExpressionCompression {
         @param value: a <code>long</code> representing the value to set.
     */
     public static void setCompressedExpression(long[] compressedExpressions, int index, int expressionSize, long value) {
-        int bitIndex = index*expressionSize;
-        int longIndex = bitIndex/64;
-        int bitOffset = bitIndex%64;
+        long bitIndex = (long) index*expressionSize;
+        int longIndex = (int) (bitIndex >>> 6);
+        int bitOffset = (int) (bitIndex & 63);
         //System.err.println("Setting compressed expression at index "+index+" with value "+toBinary(value)+" and bit offset "+bitOffset+" and long index "+longIndex);
         compressedExpressions[longIndex] |= (value << bitOffset);
         if (64<expressionSize+bitOffset) {
@@ -196,13 +180,40 @@ public class ExpressionCompression {
             compressedExpressions[longIndex+1] |= (value >>> bitsUsed);
         }
     }
+    /**
+        Sets a compressed expression in packed expressions on the heap, for lists too large to be indexed by an int.
+        @param compressedExpressions: a <code>SegmentedLongArray</code> representing the packed compressed expressions.
+        @param index: a <code>long</code> representing the index of the compressed expression to set.
+        @param expressionSize: an <code>int</code> representing the size of the expression in bits.
+        @param value: a <code>long</code> representing the value to set.
+    */
+    public static void setCompressedExpression(SegmentedLongArray compressedExpressions, long index, int expressionSize, long value) {
+        long bitIndex = index*expressionSize;
+        long longIndex = bitIndex >>> 6;
+        int bitOffset = (int) (bitIndex & 63);
+        compressedExpressions.or(longIndex, value << bitOffset);
+        if (64<expressionSize+bitOffset) {
+            compressedExpressions.or(longIndex+1, value >>> (64-bitOffset));
+        }
+    }
     /**
         Gets the size that the long array representing the expression list must be to store all the expressions.
         @param numExpressions: an <code>int</code> representing the number of expressions in the compressed expression list.
         @param expressionSize: an <code>int</code> representing the size of the expression in bits.
         @return an <code>int</code> representing the size of the compressed expression list.
+        @throws ArithmeticException if the size does not fit in an int.
     */
     public static int getCompressedExpressionListSize(int numExpressions, int expressionSize) {
+        return Math.toIntExact(getCompressedExpressionListSize((long) numExpressions, expressionSize));
+    }
+
+    /**
+        Gets the number of longs needed to store a number of expressions that may not fit in an int.
+        @param numExpressions: a <code>long</code> representing the number of expressions in the compressed expression list.
+        @param expressionSize: an <code>int</code> representing the size of the expression in bits.
+        @return a <code>long</code> representing the size of the compressed expression list.
+    */
+    public static long getCompressedExpressionListSize(long numExpressions, int expressionSize) {
         // we add 63 to the number of bits to include an extra long if the number of bits is not a factor of 64
         return (numExpressions*expressionSize+63)/64;
     }
@@ -231,18 +242,18 @@ public class ExpressionCompression {
      * all together:
      * 101 010101 00100 or 2724 in decimal
      * 
-     * Approx bits required:
+     * Bits required:
      *          val     ops     order       required bits
      * n=1 --> 1 bit    0        0          1
-     * n=2 --> 1 bit    2 bits   0 bit      3
-     * n=3 --> 3 bits   4 bits   2 bits     9
-     * n=4 --> 5 bits   6 bits   4 bits     15
-     * n=5 --> 7 bits   8 bits   6 bits     21
-     * n=6 --> 9 bits   10 bits  8 bits     27
-     * n=7 --> 12 bits  12 bits  10 bits    34
-     * n=8 --> 15 bits  14 bits  12 bits    41
-     * n=9 --> 18 bits  16 bits  14 bits    48
-     * n=10--> 21 bits  18 bits  16 bits    55
+     * n=2 --> 1 bit    2 bits   0 bits     3
+     * n=3 --> 3 bits   4 bits   1 bit      8
+     * n=4 --> 5 bits   6 bits   3 bits     14
+     * n=5 --> 7 bits   8 bits   5 bits     20
+     * n=6 --> 10 bits  10 bits  7 bits     27
+     * n=7 --> 13 bits  12 bits  9 bits     34
+     * n=8 --> 16 bits  14 bits  11 bits    41
+     * n=9 --> 19 bits  16 bits  13 bits    48
+     * n=10--> 22 bits  18 bits  15 bits    55
      *
      */
     public static long compressExpression (Expression toCompress) {
@@ -301,6 +312,7 @@ public class ExpressionCompression {
     }
     /**
         Converts an integer representation into the corresponding order array.
+        The order is read from PackedCodeTables.getOrderTable.
         @param value: a <code>long</code> representing the order.
         @param length: an <code>int</code> representing the length of the order.
         @return a <code>boolean[]</code> representing the order.
@@ -310,18 +322,11 @@ public class ExpressionCompression {
         if (length==0) {
             return new boolean[]{true,true,false};
         }
+        int orderMask = PackedCodeTables.decodeOrder(value, (length+5)/2);
         boolean[] order = new boolean[length+4];
-        order[0]= true; 
-        order[1]= true;
-        order[length+3]= false;
-        int numberOfTrues = 0;
-        for (int i = 0; i < length; i++) {
-            order[i+2] = ((value >> i) & 1) == 1;
-            if (order[i+2]) {
-                numberOfTrues++;
-            }
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((orderMask >>> i) & 1) == 1;
         }
-        order[length+2] = numberOfTrues!=(length+1)/2;
         return order;
     }
     /**
@@ -356,83 +361,23 @@ public class ExpressionCompression {
     /**
         Converts a value order array into long representation.
         This is done using a permutation to number mapping found at https://stackoverflow.com/questions/1506078/fast-permutation-number-permutation-mapping-algorithms
-        The representation is
+        The representation is the Lehmer code of the value order read as a number in the factorial number system, see PackedCodeTables.encodeValueOrder.
         @param valueOrder: a <code>byte[]</code> representing the value order.
         @return a <code>long</code> representing the value order.
     */
     public static long valueOrderToLong(byte[] valueOrder) {
-        long value = 0;
-        int[] simplifiedValueOrder = new int[valueOrder.length-1];
-        boolean[] seen = new boolean[valueOrder.length];
-
-        for (int i =0;i<valueOrder.length-1;i++) {
-            int offset= 0;
-            for (int j = 0; j < valueOrder[i]; j++) {
-                if (seen[j]) {
-                    offset++;
-                }
-            }
-            simplifiedValueOrder[i]=valueOrder[i]-offset;
-            seen[valueOrder[i]]=true;
-        }
-        for (int i = simplifiedValueOrder.length-1; i >= 0; i--) {
-            value += simplifiedValueOrder[i] * factorial(simplifiedValueOrder.length-i);
-        }
-        return value;
+        return PackedCodeTables.encodeValueOrder(valueOrder);
     }
     /**
         Converts a long representation into the corresponding value order array.
-        This is done using a permutation to number mapping found at https://stackoverflow.com/questions/1506078/fast-permutation-number-permutation-mapping-algorithms
+        The value order is read from the precomputed tables of PackedCodeTables.
         @param value: a <code>long</code> representing the value order.
         @param length: an <code>int</code> representing the length of the value order.
         @return a <code>byte[]</code> representing the value order.
     */
     public static byte[] longToValueOrder(long value, int length) {
-        
-        int[] permutation = new int[length];
-        boolean[] seen = new boolean[length];
-        int base = 2;
-
-        for (int i = 0; i < length-1; i++) { //calculate the first n-1 values, since n=th is always 0
-            
-            permutation[length-i-2] = (int) (value % base); 
-            value /= base;
-            base++;
-        }
-
         byte[] valueOrder = new byte[length];
-        for (int i = 0 ; i < length-1; i++) {
-            int offset = 0;
-            while (permutation[i]>0||seen[offset]) {
-                if (!seen[offset]) {
-                    permutation[i]--;
-                }
-                offset++;
-            }
-            permutation[i] = offset;
-
-            seen[permutation[i]] = true;
-            valueOrder[i]=(byte) permutation[i];
-        } 
-        
-        byte i = 0 ; //the last element is the last remaining
-        while (seen[i]) {
-            i+=1;
-        }
-        valueOrder[length-1]=i;
+        PackedCodeTables.decodeValueOrder(value, length, valueOrder, 0);
         return valueOrder;
     }
-
-    /**
-        Calculates the factorial of a number.
-        @param n: an <code>int</code> representing the number to calculate the factorial of.
-        @return an <code>int</code> representing the factorial of the number.
-    */
-    private static int factorial(int n) {
-        int value = 1;
-        for (int i = 2; i <= n; i++) {
-            value *= i;
-        }
-        return value;
-    }
 }
@@ -2,10 +2,15 @@ package com.github.gkane1234;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Arrays;
 import gnu.trove.iterator.TByteIterator;
+import gnu.trove.list.array.TLongArrayList;
 import gnu.trove.set.hash.TByteHashSet;
 import java.io.FileNotFoundException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 /*
     A class that creates all inequivalent expressions with a given number of values and operations,
     using a dynamic programming approach.
@@ -18,8 +23,15 @@ public class ExpressionDynamic {
     private boolean verbose;
     private boolean useDB;
     private boolean useExisting;
+    private int numThreads;
+    private DedupPolicy dedupPolicy = DedupPolicy.getDefault();
+    private boolean modular;
 
-    private int counter;
+    private static final int PRODUCT_TILE_SIZE = 1<<12;
+    private static final int RANGE_TILE_SIZE = 1<<12;
+
+    private final AtomicLong counter = new AtomicLong();
+    private ForkJoinPool pool;
     /**
         Initializes an ExpressionDynamic class with a given number of values and rounding.
         @param numValues: an <code>int</code> representing the number of values in the expressions.
@@ -29,7 +41,20 @@ public class ExpressionDynamic {
         @param verbose: a <code>boolean</code> representing whether to print verbose output.
     */
     public ExpressionDynamic( int numValues, int rounding, int numTruncators,Operation[] ops, boolean verbose, boolean useDB, boolean useExisting) {
-        
+        this(numValues, rounding, numTruncators, ops, verbose, useDB, useExisting, 1);
+    }
+    /**
+        Initializes an ExpressionDynamic class that generates on several threads.
+        The product of every split is cut into tiles that are run on a ForkJoinPool, deduping through a concurrent ExpressionSet.
+        Generation with the database, and adding to a list too large for an array, is always done on one thread, since RocksFloatHashSet.add is not atomic.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round the result to.
+        @param numTruncators: an <code>int</code> representing the number of truncators to use. (Defined in ExpressionSet)
+        @param ops: an <code>Operation[]</code> representing the operations to use. (Defined in Operation)
+        @param verbose: a <code>boolean</code> representing whether to print verbose output.
+        @param numThreads: an <code>int</code> representing the number of threads to generate with.
+    */
+    public ExpressionDynamic( int numValues, int rounding, int numTruncators,Operation[] ops, boolean verbose, boolean useDB, boolean useExisting, int numThreads) {
 
         if (ops != null) {
             Operation.changeOperations(ops);
@@ -40,6 +65,7 @@ public class ExpressionDynamic {
         this.verbose = verbose;
         this.useDB = useDB;
         this.useExisting = useExisting;
+        this.numThreads = useDB ? 1 : Math.max(numThreads, 1);
     }
 
 
@@ -47,6 +73,28 @@ public class ExpressionDynamic {
         this( 4,5, 3,null, false,true,true);
     }
 
+    /**
+        Sets how the generated sets decide if an expression is inequivalent. (Defined in DedupPolicy)
+        This does not apply to the database, which always keeps a set per truncator.
+        @param dedupPolicy: a <code>DedupPolicy</code> representing the policy to use.
+        @return this <code>ExpressionDynamic</code>.
+    */
+    public ExpressionDynamic setDedupPolicy(DedupPolicy dedupPolicy) {
+        this.dedupPolicy = dedupPolicy;
+        return this;
+    }
+
+    /**
+        Sets whether the generated sets decide if an expression is inequivalent exactly with modular arithmetic. (Defined in ModularExpressionSet)
+        Modular sets ignore the rounding, truncators and dedup policy, and do not apply to the database, which is also used for lists of more than ExpressionList.MAX_CAPACITY expressions.
+        @param modular: a <code>boolean</code> representing whether to use modular arithmetic.
+        @return this <code>ExpressionDynamic</code>.
+    */
+    public ExpressionDynamic setModular(boolean modular) {
+        this.modular = modular;
+        return this;
+    }
+
     private ExpressionList tryToLoadExpressionList(int numValues, int rounding, int numTruncators, boolean useDB, boolean useExisting) {
         if (useExisting) {
 
@@ -59,10 +107,13 @@ public class ExpressionDynamic {
             } catch (FileNotFoundException e) {
             }
         }
-        if (useDB) {
+        if (useDB || ExpressionList.getMaximumSizeLong(numValues) > ExpressionList.MAX_CAPACITY) {
+            // a list too large for an array is kept compressed, deduped by the truncators of the database
             return new ExpressionSetDB(numValues, rounding, numTruncators);
+        } else if (modular) {
+            return new ModularExpressionSet(numValues, numThreads>1);
         } else {
-            return new ExpressionSet(numValues, rounding, numTruncators);
+            return new ExpressionSet(numValues, rounding, numTruncators, numThreads>1, dedupPolicy);
         }
 
     }
@@ -78,10 +129,25 @@ public class ExpressionDynamic {
         {0} with {1,2,3}, {1} with {0,2,3}, {2} with {0,1,3}, {3} with {0,1,2} then
         {0,1} with {2,3}, {0,2} with {1,3}, {0,3} with {1,2}
 
-        Then we add all of these expressions to the expression set, which removed duplicates using expressionSet.add()
+        Then we add all of these expressions to the expression set, which removes duplicates by their values on its truncators.
+        Those values are propagated from the values of the two smaller lists, see addPropagatedProductOfExpressionLists.
         @return an <code>ExpressionSet</code> representing the expression set.
     */
     public ExpressionList getExpressionList() {
+        if (numThreads>1) {
+            pool = new ForkJoinPool(numThreads);
+        }
+        try {
+            return generateExpressionLists();
+        } finally {
+            if (pool!=null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    private ExpressionList generateExpressionLists() {
         
         // Initialize expression lists
 
@@ -91,7 +157,7 @@ public class ExpressionDynamic {
         
         //load the first expression set if possible
         ExpressionList firstExpressionList = tryToLoadExpressionList(1, rounding, numTruncators, useDB,useExisting);
-        if (firstExpressionList.getNumExpressions() == 0) {
+        if (firstExpressionList.getNumExpressionsLong() == 0) {
             firstExpressionList.forceAdd(new Expression(new byte[]{0},new byte[]{},new boolean[] {true})); //Base case
         }
 
@@ -101,9 +167,9 @@ public class ExpressionDynamic {
             
             boolean createNew = !useExisting||(currentNumValues==numValues);
             ExpressionList currentExpressionList = tryToLoadExpressionList(currentNumValues, rounding, numTruncators, useDB,!createNew);
-            if (currentExpressionList.getNumExpressions() == 0) {
+            if (currentExpressionList.getNumExpressionsLong() == 0) {
                 System.out.println("Generating expressions for "+currentNumValues+" values");
-                System.out.println("Number of expressions: "+String.format("%,d",expressionLists.get(currentNumValues-2).getNumExpressions()));
+                System.out.println("Number of expressions: "+String.format("%,d",expressionLists.get(currentNumValues-2).getNumExpressionsLong()));
                 //currentExpressionSet.startAdding();
                 int start = (currentNumValues-1);
                 int end = (currentNumValues>>1); //since the two groups commute, we only need to consider half of the combinations
@@ -113,21 +179,17 @@ public class ExpressionDynamic {
 
                 for (int i = start; i > end; i--) {
                     System.out.println("Generating combinations for "+currentNumValues+" values, group size of "+i);
-                    counter=0;
-                    ExpressionList leftExpressionList;
-                    ExpressionList rightExpressionList;
-
-                    if (useDB) {
-                        leftExpressionList = ExpressionCompression.decompressExpressionList((CompressedExpressionList) expressionLists.get(i - 1),verbose);
-                        rightExpressionList = ExpressionCompression.decompressExpressionList((CompressedExpressionList) expressionLists.get(currentNumValues - i - 1),verbose);
-                    } else {
-                        leftExpressionList = expressionLists.get(i - 1);
-                        rightExpressionList = expressionLists.get(currentNumValues - i - 1);
-                    }
+                    counter.set(0);
+                    ExpressionList leftExpressionList = expressionLists.get(i - 1);
+                    ExpressionList rightExpressionList = expressionLists.get(currentNumValues - i - 1);
 
                     TByteHashSet[] combinations = generateCombinations(currentNumValues, i);
 
                     for (TByteHashSet combination: combinations) {
+                        //when both groups are the same size every split appears twice, once as {0,..} with {..} and once the other way around
+                        if (2*i==currentNumValues && !combination.contains((byte) 0)) {
+                            continue;
+                        }
                         TByteHashSet remainder = new TByteHashSet();
                         for (byte k = 0; k < currentNumValues; k++) {
 
@@ -137,15 +199,18 @@ public class ExpressionDynamic {
                             }
                         }
 
-                        addProductOfExpressionLists(
+                        addPropagatedProductOfExpressionLists(
                             currentExpressionList,
-                            leftExpressionList.changeValueOrder(toArray(combination)),
-                            rightExpressionList.changeValueOrder(toArray(remainder))
+                            leftExpressionList,
+                            toSortedArray(combination),
+                            rightExpressionList,
+                            toSortedArray(remainder)
                         );
-                           
-                        
                     }
                 }
+                if (currentExpressionList.getNumExpressionsLong()!=ExpressionList.getMaximumSizeLong(currentNumValues)) {
+                    throw new IllegalStateException("Generated "+currentExpressionList.getNumExpressionsLong()+" expressions for "+currentNumValues+" values but Counter expects "+ExpressionList.getMaximumSizeLong(currentNumValues));
+                }
             }
 
                 //currentExpressionSet.doneAdding();
@@ -154,7 +219,7 @@ public class ExpressionDynamic {
                 } else {
                     System.out.println("Successfully loaded expressions for "+currentNumValues+" values");
                 }
-                System.out.println("Number of expressions: "+String.format("%,d",currentExpressionList.getNumExpressions()));
+                System.out.println("Number of expressions: "+String.format("%,d",currentExpressionList.getNumExpressionsLong()));
                 
 
                 currentExpressionList.cleanup();
@@ -178,6 +243,569 @@ public class ExpressionDynamic {
         }
         return arr;
     }
+    /**
+        Converts a TByteHashSet to a byte array in ascending order.
+        @param set: a <code>TByteHashSet</code> representing the set to convert.
+        @return a <code>byte[]</code> representing the converted set.
+    */
+    private static byte[] toSortedArray(TByteHashSet set) {
+        byte[] arr = toArray(set);
+        Arrays.sort(arr);
+        return arr;
+    }
+    /**
+        Evaluates every expression of a list on each truncator restricted to a subset of the values, without rounding.
+        These are the truncator values of the list after changing its value order to the subset.
+        @param expressionList: an <code>ExpressionList</code> representing the list to evaluate.
+        @param valueOrder: a <code>byte[]</code> representing the subset of the values the list is placed on.
+        @param truncators: a <code>double[][]</code> representing the truncators of the set being generated.
+        @return a <code>SegmentedLongArray</code> holding the bits of the values (see Double.doubleToRawLongBits), where the value of expression e on truncator t is at index e*truncators.length+t.
+    */
+    private SegmentedLongArray getTruncatorValues(ExpressionList expressionList, byte[] valueOrder, double[][] truncators) {
+        CompiledExpressionList compiledList = expressionList.compile();
+        SegmentedLongArray truncatorValues = new SegmentedLongArray(Math.multiplyExact((long) compiledList.size(), truncators.length));
+        truncatorValues.allocate();
+        forEachRange(compiledList.size(), (start, end) -> fillTruncatorValues(compiledList, valueOrder, truncators, truncatorValues, start, end));
+        return truncatorValues;
+    }
+    /**
+        Fills the truncator values of a range of expressions, see getTruncatorValues.
+        @param compiledList: a <code>CompiledExpressionList</code> representing the list to evaluate.
+        @param valueOrder: a <code>byte[]</code> representing the subset of the values the list is placed on.
+        @param truncators: a <code>double[][]</code> representing the truncators of the set being generated.
+        @param truncatorValues: a <code>SegmentedLongArray</code> representing the array to fill, with every segment allocated.
+        @param start: an <code>int</code> representing the first expression to evaluate.
+        @param end: an <code>int</code> representing the expression after the last one to evaluate.
+    */
+    private static void fillTruncatorValues(CompiledExpressionList compiledList, byte[] valueOrder, double[][] truncators, SegmentedLongArray truncatorValues, int start, int end) {
+        int numTruncators = truncators.length;
+        double[] stack = compiledList.createStack();
+        double[] subsetValues = new double[valueOrder.length];
+        for (int t = 0; t < numTruncators; t++) {
+            for (int k = 0; k < valueOrder.length; k++) {
+                subsetValues[k] = truncators[t][valueOrder[k]];
+            }
+            for (int e = start; e < end; e++) {
+                truncatorValues.set((long) e*numTruncators+t, Double.doubleToRawLongBits(compiledList.evaluate(e, subsetValues, stack)));
+            }
+        }
+    }
+    /**
+        Evaluates every expression of a list at each point restricted to a subset of the values, modulo ModularArithmetic.MODULUS.
+        The inverses of the residues are computed once here, so that dividing by an expression in the product costs one multiplication.
+        @param expressionList: an <code>ExpressionList</code> representing the list to evaluate.
+        @param valueOrder: a <code>byte[]</code> representing the subset of the values the list is placed on.
+        @param points: a <code>long[][]</code> representing the points of the set being generated.
+        @return a <code>SegmentedLongArray[]</code> holding the residues and then their inverses, where expression e at point p is at index e*points.length+p.
+    */
+    private SegmentedLongArray[] getResidues(ExpressionList expressionList, byte[] valueOrder, long[][] points) {
+        CompiledExpressionList compiledList = expressionList.compile();
+        long length = Math.multiplyExact((long) compiledList.size(), points.length);
+        SegmentedLongArray residues = new SegmentedLongArray(length);
+        SegmentedLongArray inverses = new SegmentedLongArray(length);
+        residues.allocate();
+        inverses.allocate();
+        forEachRange(compiledList.size(), (start, end) -> fillResidues(compiledList, valueOrder, points, residues, inverses, start, end));
+        return new SegmentedLongArray[] {residues, inverses};
+    }
+    /**
+        Fills the residues and inverses of a range of expressions, see getResidues.
+        @param compiledList: a <code>CompiledExpressionList</code> representing the list to evaluate.
+        @param valueOrder: a <code>byte[]</code> representing the subset of the values the list is placed on.
+        @param points: a <code>long[][]</code> representing the points of the set being generated.
+        @param residues: a <code>SegmentedLongArray</code> representing the residues to fill, with every segment allocated.
+        @param inverses: a <code>SegmentedLongArray</code> representing the inverses to fill, with every segment allocated.
+        @param start: an <code>int</code> representing the first expression to evaluate.
+        @param end: an <code>int</code> representing the expression after the last one to evaluate.
+    */
+    private static void fillResidues(CompiledExpressionList compiledList, byte[] valueOrder, long[][] points, SegmentedLongArray residues, SegmentedLongArray inverses, int start, int end) {
+        int numPoints = points.length;
+        long[] stack = new long[Math.max(compiledList.getNumValues(), 1)];
+        long[] subsetValues = new long[valueOrder.length];
+        for (int p = 0; p < numPoints; p++) {
+            for (int k = 0; k < valueOrder.length; k++) {
+                subsetValues[k] = points[p][valueOrder[k]];
+            }
+            for (int e = start; e < end; e++) {
+                long residue = compiledList.evaluateModular(e, subsetValues, stack);
+                residues.set((long) e*numPoints+p, residue);
+                inverses.set((long) e*numPoints+p, ModularArithmetic.inverse(residue));
+            }
+        }
+    }
+    /**
+        Runs an action over [0,size), split into tiles of at most RANGE_TILE_SIZE on the pool when generating on several threads.
+        @param size: an <code>int</code> representing the size of the range.
+        @param action: a <code>RangeAction</code> representing the action to run on each tile.
+    */
+    private void forEachRange(int size, RangeAction action) {
+        forEachRange(size, RANGE_TILE_SIZE, action);
+    }
+    /**
+        Runs an action over [0,size), split into tiles of at most tileSize on the pool when generating on several threads.
+        @param size: an <code>int</code> representing the size of the range.
+        @param tileSize: an <code>int</code> representing the most elements in a tile.
+        @param action: a <code>RangeAction</code> representing the action to run on each tile.
+    */
+    private void forEachRange(int size, int tileSize, RangeAction action) {
+        if (pool==null) {
+            action.run(0, size);
+        } else {
+            pool.invoke(new RangeTask(action, 0, size, tileSize));
+        }
+    }
+    /**
+        Combines two expression lists placed on disjoint subsets of the values, in the same order as addProductOfExpressionLists.
+
+        The value of (e1 op e2) on a truncator is just op applied to the values of e1 and e2 on that truncator,
+        so the truncator values of both lists are computed once and each candidate costs one operation per truncator
+        instead of a full evaluation. The same holds for the residues of a ModularExpressionSet.
+        Expressions are only created for the candidates that the set accepts.
+
+        When generating on several threads the product is cut into tiles of ranges of both lists. Every candidate has a position,
+        its place in the order a single thread goes through the product, and the tiles claim their candidates at their positions.
+        Once every tile is done the candidates that still hold their claims are accepted and added in order of position,
+        so the list is the same as the one a single thread makes, whatever order the tiles ran in.
+        @param expressionSet: an <code>ExpressionList</code> representing the set the candidates are deduped by and the accepted expressions are added to,
+        either a <code>ModularExpressionSet</code> or a <code>TruncatorFilter</code>.
+        @param expressionList1: an <code>ExpressionList</code> representing the first list to combine.
+        @param valueOrder1: a <code>byte[]</code> representing the values the first list is placed on.
+        @param expressionList2: an <code>ExpressionList</code> representing the second list to combine.
+        @param valueOrder2: a <code>byte[]</code> representing the values the second list is placed on.
+    */
+    private void addPropagatedProductOfExpressionLists(ExpressionList expressionSet, ExpressionList expressionList1, byte[] valueOrder1, ExpressionList expressionList2, byte[] valueOrder2) {
+        Product product;
+        boolean ordered = pool!=null && !(expressionSet instanceof ExpressionSetDB); // the database is only added to from one thread
+        if (expressionSet instanceof ModularExpressionSet) {
+            ModularExpressionSet modularSet = (ModularExpressionSet) expressionSet;
+            long[][] points = modularSet.getPoints();
+            product = new ModularProduct(modularSet, ordered,
+                expressionList1, valueOrder1, getResidues(expressionList1, valueOrder1, points),
+                expressionList2, valueOrder2, getResidues(expressionList2, valueOrder2, points));
+        } else {
+            TruncatorFilter filter = (TruncatorFilter) expressionSet;
+            double[][] truncators = filter.getTruncators();
+            product = new TruncatorProduct(filter, expressionSet, ordered,
+                expressionList1, valueOrder1, getTruncatorValues(expressionList1, valueOrder1, truncators),
+                expressionList2, valueOrder2, getTruncatorValues(expressionList2, valueOrder2, truncators));
+        }
+        if (!ordered) {
+            product.addRange(0, expressionList1.getNumExpressions(), 0, expressionList2.getNumExpressions());
+        } else {
+            pool.invoke(new ProductTask(product, 0, expressionList1.getNumExpressions(), 0, expressionList2.getNumExpressions()));
+            List<Tile> tiles = product.tiles;
+            forEachRange(tiles.size(), 1, (start, end) -> {
+                for (int t = start; t < end; t++) {
+                    product.resolve(tiles.get(t));
+                }
+            });
+        }
+        product.addAcceptedTiles();
+    }
+    /**
+        Computes the truncator values of (a op b) from the truncator values of a and b.
+        @param candidate: a <code>double[]</code> used to hold the truncator values of the candidate.
+        @param operation: an <code>Operation</code> representing the operation combining a and b.
+        @param truncatorValues1: a <code>LongArray</code> holding the bits of the truncator values of a.
+        @param offset1: a <code>long</code> representing where the truncator values of a start.
+        @param truncatorValues2: a <code>LongArray</code> holding the bits of the truncator values of b.
+        @param offset2: a <code>long</code> representing where the truncator values of b start.
+    */
+    private static void combineTruncatorValues(double[] candidate, Operation operation, LongArray truncatorValues1, long offset1, LongArray truncatorValues2, long offset2) {
+        for (int t = 0; t < candidate.length; t++) {
+            double a = Double.longBitsToDouble(truncatorValues1.get(offset1+t));
+            double b = Double.longBitsToDouble(truncatorValues2.get(offset2+t));
+            candidate[t] = (Double.isNaN(a) || Double.isNaN(b)) ? Double.NaN : operation.apply(a, b);
+        }
+    }
+    /**
+        Computes the residues of (a op b) from the residues of a and b.
+        @param candidate: a <code>long[]</code> used to hold the residues of the candidate.
+        @param kind: an <code>int</code> representing the modular kind of the operation combining a and b.
+        @param residues1: a <code>LongArray</code> holding the residues of a.
+        @param offset1: a <code>long</code> representing where the residues of a start.
+        @param residues2: a <code>LongArray</code> holding the residues of b.
+        @param inverses2: a <code>LongArray</code> holding the inverses of the residues of b.
+        @param offset2: a <code>long</code> representing where the residues of b start.
+    */
+    private static void combineResidues(long[] candidate, int kind, LongArray residues1, long offset1, LongArray residues2, LongArray inverses2, long offset2) {
+        for (int p = 0; p < candidate.length; p++) {
+            candidate[p] = ModularArithmetic.apply(kind, residues1.get(offset1+p), residues2.get(offset2+p), inverses2.get(offset2+p));
+        }
+    }
+    /**
+        The candidates of a tile of a product: on one thread the expressions it accepted,
+        on several threads first the positions of the candidates that kept their claims and then the expressions that were accepted.
+    */
+    private static final class Tile {
+        final List<Expression> accepted = new ArrayList<>();
+        final TLongArrayList acceptedPositions = new TLongArrayList();
+        final TLongArrayList claimed = new TLongArrayList();
+    }
+
+    /**
+        The product of two lists placed on disjoint subsets of the values, together with the values the set dedups them by.
+    */
+    private abstract class Product {
+        protected final ExpressionList expressionSet;
+        protected final ExpressionList expressionList1;
+        protected final byte[] valueOrder1;
+        protected final ExpressionList expressionList2;
+        protected final byte[] valueOrder2;
+        protected final boolean ordered;
+        protected final int numOperations;
+        private long firstPosition;
+
+        final List<Tile> tiles = new ArrayList<>();
+
+        Product(ExpressionList expressionSet, boolean ordered, ExpressionList expressionList1, byte[] valueOrder1, ExpressionList expressionList2, byte[] valueOrder2) {
+            this.expressionSet = expressionSet;
+            this.ordered = ordered;
+            this.expressionList1 = expressionList1;
+            this.valueOrder1 = valueOrder1;
+            this.expressionList2 = expressionList2;
+            this.valueOrder2 = valueOrder2;
+            this.numOperations = Operation.getOperations().length;
+        }
+
+        /**
+            Reserves a position for every candidate of the product, two for each pair and operation.
+        */
+        protected void reservePositions() {
+            long numCandidates = Math.multiplyExact(Math.multiplyExact((long) expressionList1.getNumExpressions(), expressionList2.getNumExpressions()), 2L*numOperations);
+            this.firstPosition = reserve(numCandidates);
+        }
+
+        /**
+            Returns the position of the candidate (i op j), or (j op i) if swapped, in the order a single thread goes through the product.
+        */
+        long position(int i, int j, byte opCode, boolean swapped) {
+            return firstPosition+((((long) i*expressionList2.getNumExpressions()+j)*numOperations+opCode)<<1)+(swapped ? 1 : 0);
+        }
+
+        /**
+            Keeps a candidate that was accepted, or on several threads claimed, by the set.
+        */
+        void keep(Tile tile, int i, int j, byte opCode, boolean swapped) {
+            if (ordered) {
+                tile.claimed.add(position(i, j, opCode, swapped));
+            } else {
+                tile.accepted.add(combine(i, j, opCode, swapped));
+            }
+        }
+
+        /**
+            Keeps the candidates of a tile. Tiles call this once when they finish, so the list is only locked once per tile.
+        */
+        void finish(Tile tile) {
+            synchronized (tiles) {
+                tiles.add(tile);
+            }
+        }
+
+        /**
+            Accepts the claimed candidates of a tile that still hold their claims, once every tile of the product has claimed its candidates.
+        */
+        void resolve(Tile tile) {
+            long size2 = expressionList2.getNumExpressions();
+            for (int k = 0; k < tile.claimed.size(); k++) {
+                long position = tile.claimed.get(k);
+                long index = position-firstPosition;
+                boolean swapped = (index & 1) != 0;
+                index >>>= 1;
+                byte opCode = (byte) (index % numOperations);
+                index /= numOperations;
+                int j = (int) (index % size2);
+                int i = (int) (index / size2);
+                if (holds(i, j, opCode, swapped, position)) {
+                    tile.accepted.add(combine(i, j, opCode, swapped));
+                    tile.acceptedPositions.add(position);
+                }
+            }
+        }
+
+        /**
+            Adds the accepted expressions of every tile to the set without checking them.
+            On several threads the tiles are merged in order of position, so the list is the one a single thread makes.
+        */
+        void addAcceptedTiles() {
+            if (!ordered) {
+                for (Tile tile : tiles) {
+                    for (Expression expression : tile.accepted) {
+                        forceAdd(expression);
+                    }
+                }
+            } else {
+                // every tile is already in order of position
+                PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) -> Long.compare(tiles.get(a[0]).acceptedPositions.get(a[1]), tiles.get(b[0]).acceptedPositions.get(b[1])));
+                for (int t = 0; t < tiles.size(); t++) {
+                    if (!tiles.get(t).accepted.isEmpty()) {
+                        cursors.add(new int[] {t, 0});
+                    }
+                }
+                while (!cursors.isEmpty()) {
+                    int[] cursor = cursors.poll();
+                    Tile tile = tiles.get(cursor[0]);
+                    forceAdd(tile.accepted.get(cursor[1]));
+                    if (++cursor[1] < tile.accepted.size()) {
+                        cursors.add(cursor);
+                    }
+                }
+            }
+            tiles.clear();
+        }
+
+        private void forceAdd(Expression expression) {
+            expressionSet.forceAdd(expression);
+            if (counter.incrementAndGet() % 100000 == 0) {
+                System.out.println("Added "+counter.get()+" expressions");
+            }
+        }
+
+        /**
+            Reserves positions in the set, see ExpressionSet.reservePositions.
+        */
+        abstract long reserve(long count);
+
+        /**
+            Adds, or on several threads claims, the candidates made from expressions [start1,end1) of the first list and [start2,end2) of the second list.
+        */
+        abstract void addRange(int start1, int end1, int start2, int end2);
+
+        /**
+            Checks whether a claimed candidate still holds its claim.
+        */
+        abstract boolean holds(int i, int j, byte opCode, boolean swapped, long position);
+
+        /**
+            Creates the expression (i op j), or (j op i) if swapped, from expression i of the first list and expression j of the second list.
+        */
+        Expression combine(int i, int j, byte opCode, boolean swapped) {
+            Expression expression1 = expressionList1.get(i).changeValueOrder(valueOrder1);
+            Expression expression2 = expressionList2.get(j).changeValueOrder(valueOrder2);
+            return swapped ? Expression.combineExpressions(expression2, expression1, opCode) : Expression.combineExpressions(expression1, expression2, opCode);
+        }
+    }
+
+    /**
+        A product deduped by the truncator values of a TruncatorFilter, or on several threads claimed in an ExpressionSet.
+    */
+    private final class TruncatorProduct extends Product {
+        private final TruncatorFilter filter;
+        private final ExpressionSet orderedSet;
+        private final LongArray truncatorValues1;
+        private final LongArray truncatorValues2;
+
+        TruncatorProduct(TruncatorFilter filter, ExpressionList expressionSet, boolean ordered, ExpressionList expressionList1, byte[] valueOrder1, LongArray truncatorValues1, ExpressionList expressionList2, byte[] valueOrder2, LongArray truncatorValues2) {
+            super(expressionSet, ordered, expressionList1, valueOrder1, expressionList2, valueOrder2);
+            this.filter = filter;
+            this.orderedSet = ordered ? (ExpressionSet) filter : null;
+            this.truncatorValues1 = truncatorValues1;
+            this.truncatorValues2 = truncatorValues2;
+            if (ordered) {
+                reservePositions();
+            }
+        }
+
+        @Override
+        long reserve(long count) {
+            return orderedSet.reservePositions(count);
+        }
+
+        @Override
+        void addRange(int start1, int end1, int start2, int end2) {
+            int numTruncators = filter.getTruncators().length;
+            double[] candidate = new double[numTruncators];
+            Operation[] operations = Operation.getOperations();
+            Tile tile = new Tile();
+
+            for (int i = start1; i < end1; i++) {
+                long offset1 = (long) i*numTruncators;
+                for (int j = start2; j < end2; j++) {
+                    long offset2 = (long) j*numTruncators;
+                    for (byte opCode = 0; opCode < operations.length; opCode++) {
+                        Operation operation = operations[opCode];
+                        combineTruncatorValues(candidate, operation, truncatorValues1, offset1, truncatorValues2, offset2);
+                        if (check(candidate, i, j, opCode, false)) {
+                            keep(tile, i, j, opCode, false);
+                        }
+                        if (!operation.isCommutative()) {
+                            combineTruncatorValues(candidate, operation, truncatorValues2, offset2, truncatorValues1, offset1);
+                            if (check(candidate, i, j, opCode, true)) {
+                                keep(tile, i, j, opCode, true);
+                            }
+                        }
+                    }
+                }
+            }
+            finish(tile);
+        }
+
+        private boolean check(double[] candidate, int i, int j, byte opCode, boolean swapped) {
+            return ordered ? orderedSet.claimTruncatorValues(candidate, position(i, j, opCode, swapped)) : filter.addTruncatorValues(candidate);
+        }
+
+        @Override
+        boolean holds(int i, int j, byte opCode, boolean swapped, long position) {
+            int numTruncators = filter.getTruncators().length;
+            double[] candidate = new double[numTruncators];
+            Operation operation = Operation.getOperations()[opCode];
+            if (swapped) {
+                combineTruncatorValues(candidate, operation, truncatorValues2, (long) j*numTruncators, truncatorValues1, (long) i*numTruncators);
+            } else {
+                combineTruncatorValues(candidate, operation, truncatorValues1, (long) i*numTruncators, truncatorValues2, (long) j*numTruncators);
+            }
+            return orderedSet.holdsTruncatorValues(candidate, position);
+        }
+    }
+
+    /**
+        A product deduped by the residues of a ModularExpressionSet.
+    */
+    private final class ModularProduct extends Product {
+        private final ModularExpressionSet modularSet;
+        private final LongArray residues1;
+        private final LongArray inverses1;
+        private final LongArray residues2;
+        private final LongArray inverses2;
+        private final int[] kinds;
+
+        ModularProduct(ModularExpressionSet modularSet, boolean ordered, ExpressionList expressionList1, byte[] valueOrder1, LongArray[] residues1, ExpressionList expressionList2, byte[] valueOrder2, LongArray[] residues2) {
+            super(modularSet, ordered, expressionList1, valueOrder1, expressionList2, valueOrder2);
+            this.modularSet = modularSet;
+            this.residues1 = residues1[0];
+            this.inverses1 = residues1[1];
+            this.residues2 = residues2[0];
+            this.inverses2 = residues2[1];
+            Operation[] operations = Operation.getOperations();
+            this.kinds = new int[operations.length];
+            for (int k = 0; k < operations.length; k++) {
+                this.kinds[k] = ModularArithmetic.kindOf(operations[k]);
+            }
+            if (ordered) {
+                reservePositions();
+            }
+        }
+
+        @Override
+        long reserve(long count) {
+            return modularSet.reservePositions(count);
+        }
+
+        @Override
+        void addRange(int start1, int end1, int start2, int end2) {
+            int numPoints = modularSet.getPoints().length;
+            long[] candidate = new long[numPoints];
+            Operation[] operations = Operation.getOperations();
+            Tile tile = new Tile();
+
+            for (int i = start1; i < end1; i++) {
+                long offset1 = (long) i*numPoints;
+                for (int j = start2; j < end2; j++) {
+                    long offset2 = (long) j*numPoints;
+                    for (byte opCode = 0; opCode < operations.length; opCode++) {
+                        combineResidues(candidate, kinds[opCode], residues1, offset1, residues2, inverses2, offset2);
+                        if (check(candidate, i, j, opCode, false)) {
+                            keep(tile, i, j, opCode, false);
+                        }
+                        if (!operations[opCode].isCommutative()) {
+                            combineResidues(candidate, kinds[opCode], residues2, offset2, residues1, inverses1, offset1);
+                            if (check(candidate, i, j, opCode, true)) {
+                                keep(tile, i, j, opCode, true);
+                            }
+                        }
+                    }
+                }
+            }
+            finish(tile);
+        }
+
+        private boolean check(long[] candidate, int i, int j, byte opCode, boolean swapped) {
+            return ordered ? modularSet.claimResidues(candidate, position(i, j, opCode, swapped)) : modularSet.addResidues(candidate);
+        }
+
+        @Override
+        boolean holds(int i, int j, byte opCode, boolean swapped, long position) {
+            int numPoints = modularSet.getPoints().length;
+            long[] candidate = new long[numPoints];
+            if (swapped) {
+                combineResidues(candidate, kinds[opCode], residues2, (long) j*numPoints, residues1, inverses1, (long) i*numPoints);
+            } else {
+                combineResidues(candidate, kinds[opCode], residues1, (long) i*numPoints, residues2, inverses2, (long) j*numPoints);
+            }
+            return modularSet.holdsResidues(candidate, position);
+        }
+    }
+
+    /**
+        Splits the product of two lists in half along its longer side until each tile has at most PRODUCT_TILE_SIZE pairs.
+    */
+    private static final class ProductTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Product product;
+        private final int start1;
+        private final int end1;
+        private final int start2;
+        private final int end2;
+
+        ProductTask(Product product, int start1, int end1, int start2, int end2) {
+            this.product = product;
+            this.start1 = start1;
+            this.end1 = end1;
+            this.start2 = start2;
+            this.end2 = end2;
+        }
+
+        @Override
+        protected void compute() {
+            int length1 = end1-start1;
+            int length2 = end2-start2;
+            if ((long) length1*length2 <= PRODUCT_TILE_SIZE || (length1 <= 1 && length2 <= 1)) {
+                product.addRange(start1, end1, start2, end2);
+            } else if (length1 >= length2) {
+                int middle = start1+length1/2;
+                invokeAll(new ProductTask(product, start1, middle, start2, end2), new ProductTask(product, middle, end1, start2, end2));
+            } else {
+                int middle = start2+length2/2;
+                invokeAll(new ProductTask(product, start1, end1, start2, middle), new ProductTask(product, start1, end1, middle, end2));
+            }
+        }
+    }
+
+    /**
+        An action on a range of expressions [start,end).
+    */
+    private interface RangeAction {
+        void run(int start, int end);
+    }
+
+    /**
+        Splits a range of expressions in half until each tile has at most tileSize expressions.
+    */
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient RangeAction action;
+        private final int start;
+        private final int end;
+        private final int tileSize;
+
+        RangeTask(RangeAction action, int start, int end, int tileSize) {
+            this.action = action;
+            this.start = start;
+            this.end = end;
+            this.tileSize = tileSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (end-start <= tileSize) {
+                action.run(start, end);
+            } else {
+                int middle = start+(end-start)/2;
+                invokeAll(new RangeTask(action, start, middle, tileSize), new RangeTask(action, middle, end, tileSize));
+            }
+        }
+    }
     /**
         Combines two expression sets by constructing a mathematical product of the two sets and all possible operations including non-commutative reordering.
 
@@ -197,9 +825,8 @@ public class ExpressionDynamic {
                 for (int k = 0; k< combinedExpressions.length; k++) {
                     boolean added = expressionSet.add(combinedExpressions[k]);
                     if (added) {
-                        counter++;
-                        if (counter  % 100000 == 0) {
-                            System.out.println("Added "+counter+" expressions");
+                        if (counter.incrementAndGet() % 100000 == 0) {
+                            System.out.println("Added "+counter.get()+" expressions");
                         }
                     }
                 }
@@ -0,0 +1,48 @@
+package com.github.gkane1234;
+/**
+    An interface for evaluating the expressions of a list by index without creating Expression objects.
+    An evaluator keeps its own scratch space, so it is not thread-safe: every thread scanning a list gets its own from ExpressionList.newEvaluator.
+*/
+public interface ExpressionEvaluator {
+    /**
+        Evaluates an expression without rounding.
+        @param index: a <code>long</code> representing the index of the expression in the list.
+        @param values: a <code>double[]</code> representing the values of the expression.
+        @return a <code>double</code> representing the value of the expression, NaN if an operation was undefined.
+    */
+    double evaluate(long index, double[] values);
+
+    /**
+        Evaluates an expression and rounds it the same way <code>Expression.evaluateWithValues</code> does.
+        @param index: a <code>long</code> representing the index of the expression in the list.
+        @param values: a <code>double[]</code> representing the values of the expression.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places to round to, see CompiledExpressionList.getScale.
+        @return a <code>double</code> representing the rounded value of the expression, NaN if an operation was undefined.
+    */
+    default double evaluate(long index, double[] values, double scale) {
+        double value = evaluate(index, values);
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        return Math.round(value * scale) / scale;
+    }
+
+    /**
+        Evaluates an expression without rounding for a block of value tuples at once.
+        The values are stored column-wise, so that value v of tuple t is columns[v*batchSize+t].
+        Evaluators that decode or dispatch per expression override this to do so once for the whole block.
+        @param index: a <code>long</code> representing the index of the expression in the list.
+        @param columns: a <code>double[]</code> of length numValues*batchSize representing the values of every tuple.
+        @param batchSize: an <code>int</code> representing the number of tuples.
+        @param results: a <code>double[]</code> to write the value for every tuple to, NaN where an operation was undefined.
+    */
+    default void evaluateBatch(long index, double[] columns, int batchSize, double[] results) {
+        double[] values = new double[columns.length/batchSize];
+        for (int t = 0; t < batchSize; t++) {
+            for (int v = 0; v < values.length; v++) {
+                values[v] = columns[v*batchSize+t];
+            }
+            results[t] = evaluate(index, values);
+        }
+    }
+}
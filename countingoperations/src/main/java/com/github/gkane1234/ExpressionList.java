@@ -14,7 +14,6 @@ import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -37,6 +36,21 @@ public class ExpressionList implements Serializable{
 
     protected static final int DEFAULT_NUM_THREADS = 24;
 
+    /**
+        The most expressions a list can hold, the largest array the JVM can allocate.
+        Larger lists have to be kept compressed, see CompressedExpressionList.
+    */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE-8;
+    private static final int INITIAL_GROWING_CAPACITY = 1<<20;
+    /**
+        The most expressions isGroupedFaster evaluates each way to decide.
+    */
+    public static final int TIMING_SAMPLE_SIZE = 1<<16;
+
+    private transient CompiledExpressionList compiled;
+    private transient ShapeGroupedList grouped;
+    private transient Boolean groupedFaster;
+
     /**
         Constructor for an ExpressionList.
         @param expressions: expressions that have already been found to be inequivalent.
@@ -61,9 +75,41 @@ public class ExpressionList implements Serializable{
         Returns the maximum number of expressions that can be in the set.
         @param numValues: an <code>int</code> representing the number of values in the expressions.
         @return an <code>int</code> representing the maximum number of expressions that can be in the set.
+        @throws ArithmeticException if the number does not fit in an int, which happens from 9 values, see getMaximumSizeLong.
     */
     public static int getMaximumSize(int numValues) {
-        return Counter.run(numValues).intValue();
+        return Math.toIntExact(getMaximumSizeLong(numValues));
+    }
+    /**
+        Returns the maximum number of expressions that can be in the set, for lists too large to be indexed by an int.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @return a <code>long</code> representing the maximum number of expressions that can be in the set.
+    */
+    public static long getMaximumSizeLong(int numValues) {
+        return Counter.run(numValues).longValueExact();
+    }
+    /**
+        Returns the capacity a set that collects the expressions with a given number of values starts with.
+        A set whose maximum size fits in an array starts at that size, a larger one starts small and grows as expressions are added.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @return an <code>int</code> representing the initial capacity.
+    */
+    protected static int getInitialCapacity(int numValues) {
+        long maximumSize = getMaximumSizeLong(numValues);
+        return maximumSize <= MAX_CAPACITY ? (int) maximumSize : INITIAL_GROWING_CAPACITY;
+    }
+    /**
+        Makes room for one more expression, doubling the array if it is full.
+        @throws IllegalStateException if the list already holds MAX_CAPACITY expressions.
+    */
+    protected void ensureCapacity() {
+        if (this.numExpressions < this.expressions.length) {
+            return;
+        }
+        if (this.expressions.length >= MAX_CAPACITY) {
+            throw new IllegalStateException("ExpressionList is full, lists of more than "+MAX_CAPACITY+" expressions have to be compressed");
+        }
+        this.expressions = Arrays.copyOf(this.expressions, (int) Math.min(2L*Math.max(this.expressions.length, 1), MAX_CAPACITY));
     }
     /**
         Returns the number of values in the expressions.
@@ -80,6 +126,14 @@ public class ExpressionList implements Serializable{
     public Expression get(int index) {
         return this.expressions[index];
     }
+    /**
+        Returns the expression at a given index, for lists too large to be indexed by an int.
+        @param index: a <code>long</code> representing the index of the expression to return.
+        @return an <code>Expression</code> representing the expression at the given index.
+    */
+    public Expression get(long index) {
+        return get(Math.toIntExact(index));
+    }
     /**
         Returns the number of expressions in the set.
         @return an <code>int</code> representing the number of expressions in the set.
@@ -97,8 +151,114 @@ public class ExpressionList implements Serializable{
     public int getNumExpressions() {
         return this.numExpressions;
     }
+    /**
+        Returns the number of expressions in the set, for lists too large to be indexed by an int.
+        @return a <code>long</code> representing the number of expressions in the set.
+    */
+    public long getNumExpressionsLong() {
+        return getNumExpressions();
+    }
+    /**
+        Returns the compiled form of this list, compiling it the first time it is needed.
+        The list is compiled again if expressions were added since the last compilation.
+        @return a <code>CompiledExpressionList</code> representing the compiled list.
+    */
+    public synchronized CompiledExpressionList compile() {
+        if (this.compiled==null||this.compiled.size()!=this.getNumExpressions()) {
+            this.compiled=CompiledExpressionList.compile(this);
+        }
+        return this.compiled;
+    }
     
 
+    /**
+        Creates an evaluator for one thread to evaluate the expressions of this list by index.
+        The expressions of this list are evaluated through its compiled form, see compile.
+        @return an <code>ExpressionEvaluator</code> over this list.
+    */
+    public ExpressionEvaluator newEvaluator() {
+        return compile().newEvaluator();
+    }
+
+    /**
+        Returns the operations the operation codes of the expressions refer to, without compiling the list:
+        the operations captured by the last compilation, or the current ones if the list was never compiled.
+        @return an <code>Operation[]</code> representing the operations of the list.
+    */
+    public synchronized Operation[] getOperations() {
+        return this.compiled!=null ? this.compiled.getOperations() : Operation.getOperations();
+    }
+
+    /**
+        Creates an evaluator for one thread to evaluate the expressions of this list exactly on integer values.
+        @return an <code>ExactEvaluator</code> over the compiled form of this list.
+        @throws UnsupportedOperationException if the list uses a custom operation, see ExactEvaluator.supportsOperations.
+    */
+    public ExactEvaluator newExactEvaluator() {
+        return new ExactEvaluator(compile());
+    }
+
+    /**
+        Returns the expressions of this list grouped by shape, grouping them the first time it is needed.
+        The list is grouped again if expressions were added since the last grouping.
+        @return a <code>ShapeGroupedList</code> representing the grouped list.
+        @throws IllegalArgumentException if the shapes of the list do not fit in a long, see ShapeGroupedList.group.
+    */
+    public synchronized ShapeGroupedList group() {
+        if (this.grouped==null||this.grouped.size()!=this.getNumExpressions()) {
+            this.grouped=ShapeGroupedList.group(compile());
+        }
+        return this.grouped;
+    }
+
+    /**
+        Returns whether evaluating every expression of this list is faster grouped by shape than one program at a time.
+        The first time it is asked both are timed on a single thread with the given values, a few times each, and the faster is remembered.
+        Only the first groups, up to TIMING_SAMPLE_SIZE expressions, are timed, so the decision costs little even for a large list.
+        @param values: a <code>double[]</code> representing the values to time with.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places the list is evaluated with, see CompiledExpressionList.getScale.
+        @return a <code>boolean</code> representing whether group() should be used to evaluate the whole list.
+    */
+    public synchronized boolean isGroupedFaster(double[] values, double scale) {
+        if (this.groupedFaster==null) {
+            this.groupedFaster=timeGrouped(values, scale);
+        }
+        return this.groupedFaster;
+    }
+
+    private boolean timeGrouped(double[] values, double scale) {
+        ShapeGroupedList groupedList;
+        try {
+            groupedList = group();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        final int rounds = 3;
+        // whole groups are timed, so the groups are as large as they are in the full list
+        int numGroups = groupedList.getNumGroupsWithin(TIMING_SAMPLE_SIZE);
+        int sampleSize = groupedList.getGroupStart(numGroups);
+        double[] sink = new double[1];
+        double[] scratch = groupedList.createScratch();
+        ExpressionEvaluator evaluator = newEvaluator();
+        long compiledTime = Long.MAX_VALUE;
+        long groupedTime = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long startTime = System.nanoTime();
+            for (int i = 0; i < sampleSize; i++) {
+                sink[0] += evaluator.evaluate(i, values, scale);
+            }
+            compiledTime = Math.min(compiledTime, System.nanoTime()-startTime);
+            startTime = System.nanoTime();
+            groupedList.evaluate(values, scale, 0, numGroups, scratch, (index, value) -> sink[0] += value);
+            groupedTime = Math.min(groupedTime, System.nanoTime()-startTime);
+        }
+        if (groupedTime >= compiledTime) {
+            this.grouped = null; // the grouped list is only kept if it is used
+            return false;
+        }
+        return true;
+    }
+
     /**
         Returns a string representation of the set.
         @return a <code>String</code> representing the set.
@@ -129,22 +289,17 @@ public class ExpressionList implements Serializable{
         @return a <code>boolean</code> representing whether the expression was added.
     */
     public boolean add(Expression expression) {
-        if (this.numExpressions==this.expressions.length) {
-            throw new IllegalStateException("ExpressionList is full");
-        }
-        expressions[this.numExpressions++]=expression;
+        forceAdd(expression);
         return true;
     }
 
     /**
         Adds an expression to the set without checking if it is equivalent to any of the expressions already in the list.
-        For expressionLists this is exactly the same as add.
+        For expressionLists this is exactly the same as add. The list grows if it is full, see ensureCapacity.
         @param expression: an <code>Expression</code> to add to the set.
     */
     public void forceAdd(Expression expression) {
-        if (this.numExpressions==this.expressions.length) {
-            throw new IllegalStateException("ExpressionList is full");
-        }
+        ensureCapacity();
         expressions[this.numExpressions++]=expression;
     }
 
@@ -194,53 +349,51 @@ public class ExpressionList implements Serializable{
         }
     }
 
+    /**
+        Compresses an expression list and saves it to a file. (Defined in CompressedExpressionFile)
+        @param expressionList: an <code>ExpressionList</code> to save.
+        @param verbose: a <code>boolean</code> representing whether to print progress.
+    */
     public static void saveCompressed(ExpressionList expressionList, boolean verbose) {
-        final int BUFFER_SIZE = 1024*1024;
         if (verbose) {
             System.err.println("Compressing expression set");
         }
-        CompressedExpressionList compressedExpressions = ExpressionCompression.compressExpressionList(expressionList);
-        String filename = getCompressedFilename(expressionList.numValues);
-        try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(filename),BUFFER_SIZE);
-            ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-                if (verbose) {
-                    System.out.println("Saving compressed expression set");
-                }
-                oos.writeObject(compressedExpressions);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        CompressedExpressionList.saveCompressed(ExpressionCompression.compressExpressionList(expressionList), verbose);
     }
 
-    public static ExpressionList loadCompressed(String filename, int numValues,int numExpressions, boolean verbose) throws FileNotFoundException {
-        long startTime = System.currentTimeMillis();
+    /**
+        Loads a compressed expression list from a file and decompresses it.
+        The number of expressions is read from the header of the file.
+        @param filename: a <code>String</code> representing the filename of the compressed expression list.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param verbose: a <code>boolean</code> representing whether to print progress.
+        @return an <code>ExpressionList</code> representing the decompressed list.
+        @throws FileNotFoundException if the file is not found or cannot be used.
+    */
+    public static ExpressionList loadCompressed(String filename, int numValues, boolean verbose) throws FileNotFoundException {
         if (verbose) {  
             System.err.println(filename);
         }
-
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(filename),BUFFER_SIZE);
-            ObjectInputStream ois = new ObjectInputStream(bis)) {
-            long[] compressedExpressions = (long[]) ois.readObject();
-            long endTime = System.currentTimeMillis();
-            if (verbose) {
-                System.out.println("Loaded compressed expression set in "+(endTime-startTime)/1000.0+" seconds");
-            }
-            return ExpressionCompression.decompressExpressionList(compressedExpressions,numExpressions,numValues,verbose);
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            throw new FileNotFoundException("File not found: " + filename);
-        }
-
-
+        return ExpressionCompression.decompressExpressionList(CompressedExpressionList.loadCompressed(filename, numValues, verbose), verbose);
     }
+    /**
+        Loads the compressed expression list with a given number of values and decompresses it.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @return an <code>ExpressionList</code> representing the decompressed list.
+        @throws FileNotFoundException if the file is not found or cannot be used.
+    */
     public static ExpressionList loadCompressed(int numValues) throws FileNotFoundException {
         String filename = getCompressedFilename(numValues);
-        return loadCompressed(filename, numValues, getMaximumSize(numValues), true);
+        return loadCompressed(filename, numValues, true);
     }
 
+    /**
+        Gets the filename of the compressed expression list with a given number of values.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @return a <code>String</code> representing the filename.
+    */
     public static String getCompressedFilename(int numValues) {
-        return FILE_PATH+"expressionList_"+numValues+"_"+getMaximumSize(numValues)+"_compressed.ser";
+        return CompressedExpressionFile.getFilename(numValues);
     }
     /**
         Loads the expression list from a file which contains all algebraically inequivalent expressions with a given number of values.
@@ -317,8 +470,20 @@ public class ExpressionList implements Serializable{
     }
 
 
+    /**
+        Evaluates every expression of a list on an executor, split evenly between numThreads tasks.
+        The executor belongs to the caller and is not shut down. See EvaluationEngine for a shared work-stealing pool.
+        @param expressionList: an <code>ExpressionList</code> to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param executor: an <code>ExecutorService</code> to run the tasks on.
+        @param numThreads: an <code>int</code> representing the number of tasks.
+        @return an <code>EvaluatedExpressionList</code> representing the evaluated expressions.
+    */
     public static EvaluatedExpressionList evaluate(ExpressionList expressionList, double[] values, int rounding, ExecutorService executor, int numThreads) {
         EvaluatedExpression[] evaluatedExpressions = new EvaluatedExpression[expressionList.getNumExpressions()];
+        expressionList.newEvaluator(); // compile once before the threads start
+        final double scale = CompiledExpressionList.getScale(rounding);
         List<Future<Void>> futures = new ArrayList<>();
         AtomicInteger evaluatedExpressionsCount = new AtomicInteger(0);
 
@@ -326,13 +491,13 @@ public class ExpressionList implements Serializable{
         for (int t = 0; t < numThreads; t++) {
             final int start = t * chunkSize;
             final int end = Math.min(start + chunkSize, expressionList.getNumExpressions());
-            final int decile = expressionList.getNumExpressions()/10;
+            final int decile = Math.max(expressionList.getNumExpressions()/10, 1);
             futures.add(executor.submit(() -> {
+                ExpressionEvaluator evaluator = expressionList.newEvaluator();
                 for (int i = start; i < end; i++) {
-                    double value = expressionList.get(i).evaluateWithValues(values, rounding);
+                    double value = evaluator.evaluate(i, values, scale);
                     evaluatedExpressions[i] = new EvaluatedExpression(expressionList.get(i), values, value);
-                    evaluatedExpressionsCount.incrementAndGet();
-                    if (evaluatedExpressionsCount.get()%decile==0) {
+                    if (evaluatedExpressionsCount.incrementAndGet()%decile==0) {
                         System.out.println("Evaluated "+evaluatedExpressionsCount.get()+" expressions");
                     }
                 }
@@ -349,27 +514,44 @@ public class ExpressionList implements Serializable{
             }
         }
 
-        executor.shutdown();
         return new EvaluatedExpressionList(evaluatedExpressions);
     }
         
-    
+    /**
+        Evaluates every expression of a list on the shared EvaluationEngine.
+        @param expressionList: an <code>ExpressionList</code> to evaluate.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @return an <code>EvaluatedExpressionList</code> representing the evaluated expressions.
+    */
     public static EvaluatedExpressionList evaluate(ExpressionList expressionList, double[] values, int rounding) {
-
-        ExecutorService executor = Executors.newFixedThreadPool(DEFAULT_NUM_THREADS);
-        return evaluate(expressionList, values, rounding, executor, DEFAULT_NUM_THREADS);
-        
+        return EvaluationEngine.getShared().evaluate(expressionList, values, rounding, false);
     }
 
+    /**
+        Finds up to maxSolutions expressions of a list that evaluate to a goal on an executor, split evenly between numThreads tasks.
+        The executor belongs to the caller and is not shut down. See EvaluationEngine for a shared work-stealing pool.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param goal: a <code>double</code> representing the goal.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @param verbose: a <code>boolean</code> representing whether to print progress.
+        @param executor: an <code>ExecutorService</code> to run the tasks on.
+        @param numThreads: an <code>int</code> representing the number of tasks.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
     public static SolutionList findSolutions(ExpressionList expressionList, double[] values, double goal, int rounding, int maxSolutions, boolean verbose, ExecutorService executor, int numThreads) {
         long startTime = System.currentTimeMillis();
         SolutionList solutions = new SolutionList(values,goal);
+        expressionList.newEvaluator(); // compile once before the threads start
+        final double scale = CompiledExpressionList.getScale(rounding);
         
         List<Future<Void>> futures = new ArrayList<>();
         
         final Object lock = new Object(); // For thread-safe list access
         AtomicInteger solutionsFound = new AtomicInteger(0);
-        final int decile = expressionList.getNumExpressions()/10;
+        final int decile = Math.max(expressionList.getNumExpressions()/10, 1);
 
         AtomicInteger evaluatedExpressionsCount = new AtomicInteger(0);
 
@@ -379,9 +561,10 @@ public class ExpressionList implements Serializable{
             final int end = Math.min(start + chunkSize, expressionList.getNumExpressions());
             
             futures.add(executor.submit(() -> {
+                ExpressionEvaluator evaluator = expressionList.newEvaluator();
                 for (int i = start; i < end && solutionsFound.get() < maxSolutions; i++) {
                     
-                    double value = expressionList.get(i).evaluateWithValues(values, rounding);
+                    double value = evaluator.evaluate(i, values, scale);
                     if (verbose) {
                         evaluatedExpressionsCount.incrementAndGet();
                         if (evaluatedExpressionsCount.get()%decile==0) {
@@ -412,7 +595,6 @@ public class ExpressionList implements Serializable{
             }
         }
 
-        executor.shutdown();
         long endTime = System.currentTimeMillis();
         if (verbose) {
             System.out.println("Found "+solutions.getNumSolutions()+" solutions in "+(endTime-startTime)/1000.0+" seconds");
@@ -420,19 +602,18 @@ public class ExpressionList implements Serializable{
         return solutions;
     }
 
+    /**
+        Finds up to maxSolutions expressions of a list that evaluate to a goal on the shared EvaluationEngine.
+        @param expressionList: an <code>ExpressionList</code> to search.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param goal: a <code>double</code> representing the goal.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @param verbose: a <code>boolean</code> representing whether to print progress.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
     public static SolutionList findSolutions(ExpressionList expressionList, double[] values, double goal, int rounding, int maxSolutions, boolean verbose) {
-        long startTime = System.currentTimeMillis();
-        if (verbose) {
-            System.out.println("Creating thread pool");
-        }
-        
-        ExecutorService executor = Executors.newFixedThreadPool(DEFAULT_NUM_THREADS);
-        if (verbose) {
-            System.out.println("Thread pool created in "+(System.currentTimeMillis()-startTime)+" milliseconds");
-            System.out.println("Finding solutions");
-        }
-        
-        return findSolutions(expressionList, values, goal, rounding, maxSolutions, verbose, executor, DEFAULT_NUM_THREADS);
+        return EvaluationEngine.getShared().findSolutions(expressionList, values, goal, rounding, maxSolutions, verbose);
     }
 
 }
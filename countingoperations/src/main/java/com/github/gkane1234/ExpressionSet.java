@@ -2,6 +2,7 @@ package com.github.gkane1234;
 import java.util.Random;
 
 import gnu.trove.set.hash.TFloatHashSet;
+import gnu.trove.set.hash.TLongHashSet;
 
 
 /*
@@ -9,15 +10,23 @@ import gnu.trove.set.hash.TFloatHashSet;
 
     To be added to the set, an expression is found if it is not equivalent to any of the expressions already in the set,
     by using a number of tester lists of values, each list being called a truncator.
+    How the values on the truncators decide this is set by a DedupPolicy.
 
 */
-public class ExpressionSet extends ExpressionList{
+public class ExpressionSet extends ExpressionList implements TruncatorFilter{
     private static final long serialVersionUID = 1L;
 
     protected int rounding;
+    private double scale;
     private TFloatHashSet[] seen;
+    private TLongHashSet seenFingerprints;
+    private ConcurrentLongMinMap[] claims;
+    private long nextPosition;
+    private DedupPolicy policy = DedupPolicy.getDefault();
     protected double[][] truncators;
     protected int numTruncators;
+    private transient LaneEvaluator truncatorLanes;
+    private transient double[] truncatorColumns;
 
     /**
         Constructor for an ExpressionSet.
@@ -32,6 +41,42 @@ public class ExpressionSet extends ExpressionList{
     public ExpressionSet(Expression[] expressions, int numExpressions, int numValues) {
         this(expressions, numExpressions, numValues, 0, 0);
     }
+    /**
+        Constructor for an ExpressionSet.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param numTruncators: an <code>int</code> representing the number of truncators to use.
+        @param concurrent: a <code>boolean</code> representing whether candidates are claimed by position from several threads at once, see claimTruncatorValues.
+    */
+    public ExpressionSet(int numValues, int rounding, int numTruncators, boolean concurrent) {
+        this(numValues, rounding, numTruncators, concurrent, DedupPolicy.getDefault());
+    }
+    /**
+        Constructor for an ExpressionSet.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param numTruncators: an <code>int</code> representing the number of truncators to use.
+        @param concurrent: a <code>boolean</code> representing whether candidates are claimed by position from several threads at once, see claimTruncatorValues.
+        @param policy: a <code>DedupPolicy</code> representing how the truncator values decide if an expression is inequivalent.
+    */
+    public ExpressionSet(int numValues, int rounding, int numTruncators, boolean concurrent, DedupPolicy policy) {
+        this(new Expression[] {}, 0, numValues, rounding, numTruncators);
+        if (policy.usesFingerprints() && policy.getNumGroups() > numTruncators) {
+            throw new IllegalArgumentException("Cannot make "+policy.getNumGroups()+" fingerprints from "+numTruncators+" truncators");
+        }
+        this.policy = policy;
+        if (concurrent) {
+            // all fingerprints share one map, truncator values get a map per truncator
+            this.claims = new ConcurrentLongMinMap[policy.usesFingerprints() ? 1 : numTruncators];
+            for (int i = 0; i < this.claims.length; i++) {
+                this.claims[i] = new ConcurrentLongMinMap();
+            }
+            this.seen = null;
+        } else if (policy.usesFingerprints()) {
+            this.seen = null;
+            this.seenFingerprints = new TLongHashSet();
+        }
+    }
     /**
         Constructor for an ExpressionSet.
         @param expressions: expressions that have already been found to be inequivalent.
@@ -44,7 +89,7 @@ public class ExpressionSet extends ExpressionList{
     public ExpressionSet(Expression[] expressions,int numExpressions,int numValues, int rounding, int numTruncators) {
 
         if (expressions!=null&&expressions.length==0) {
-            this.expressions=new Expression[getMaximumSize(numValues)];
+            this.expressions=new Expression[getInitialCapacity(numValues)];
             this.numExpressions=0;
         } else {
             this.expressions=expressions;
@@ -53,6 +98,7 @@ public class ExpressionSet extends ExpressionList{
         
         this.numValues = numValues;
         this.rounding = rounding;
+        this.scale = CompiledExpressionList.getScale(rounding);
 
         this.seen = new TFloatHashSet[numTruncators];
         //this.seen = new TCustomHashSet[numTruncators];
@@ -82,8 +128,12 @@ public class ExpressionSet extends ExpressionList{
     */
     public void clearSeen() {
         this.seen=null;
+        this.seenFingerprints=null;
+        this.claims=null;
         this.truncators=null;
         this.numTruncators=0;
+        this.truncatorLanes=null;
+        this.truncatorColumns=null;
 
     }
     
@@ -94,20 +144,184 @@ public class ExpressionSet extends ExpressionList{
         @return a <code>boolean</code> representing whether the expression was added to the set.
     */
     public boolean add(Expression expression) {
-        int uniqueTruncators = 0;
-        for (int i = 0; i < this.numTruncators; i++) {
-            double value = expression.evaluateWithValues(this.truncators[i],this.rounding);
-            if (!Double.isNaN(value) && seen[i].add((float)value)) {
-                uniqueTruncators++;  
+        double[] truncatorValues = new double[this.numTruncators];
+        if (LaneEvaluator.isEnabled() && this.numTruncators > 0) {
+            // every truncator is a lane, so the expression is walked once for all of them
+            if (this.truncatorLanes == null) {
+                this.truncatorLanes = new LaneEvaluator(this.numValues, this.numTruncators);
+                this.truncatorColumns = LaneEvaluator.toColumns(this.truncators, this.numValues);
+            }
+            this.truncatorLanes.evaluate(expression, this.truncatorColumns, this.scale, truncatorValues);
+        } else {
+            for (int i = 0; i < this.numTruncators; i++) {
+                truncatorValues[i] = expression.evaluateWithValues(this.truncators[i],this.rounding);
             }
         }
-        boolean toAdd = uniqueTruncators>=THREASHOLD; //if the expression is unique for at least THREASHOLD truncators, add it, this is to prevent false positives
+        boolean toAdd = addValues(truncatorValues, true);
         if (toAdd) {
-            expressions[this.numExpressions++]=expression;
+            forceAdd(expression);
         }
         return toAdd;
     }
 
+    @Override
+    public double[][] getTruncators() {
+        return this.truncators;
+    }
+
+    /**
+        Records the values of a candidate expression on each truncator, without adding an expression to the set.
+        If this returns true the caller is expected to add the candidate with forceAdd.
+        On a concurrent set this must not run at the same time as claimTruncatorValues.
+        @param truncatorValues: a <code>double[]</code> representing the unrounded value of the candidate on each truncator.
+        @return a <code>boolean</code> representing whether the candidate is inequivalent to the expressions already in the set.
+    */
+    @Override
+    public boolean addTruncatorValues(double[] truncatorValues) {
+        return addValues(truncatorValues, false);
+    }
+
+    /**
+        Reserves a range of positions for candidates to be claimed at, after every position reserved before.
+        @param count: a <code>long</code> representing the number of positions to reserve.
+        @return a <code>long</code> representing the first position of the range.
+    */
+    public synchronized long reservePositions(long count) {
+        long first = this.nextPosition;
+        this.nextPosition = Math.addExact(first, count);
+        return first;
+    }
+
+    /**
+        Claims the truncator values of a candidate at a position, on a concurrent set, without adding an expression to the set.
+        A truncator value or fingerprint is new for the candidate with the smallest position that has it, so once every candidate of a batch is claimed,
+        holdsTruncatorValues gives the same answer addTruncatorValues would have given for the candidates one at a time in order of position,
+        whatever order the threads claimed them in.
+        @param truncatorValues: a <code>double[]</code> representing the unrounded value of the candidate on each truncator.
+        @param position: a <code>long</code> representing the position of the candidate, from reservePositions.
+        @return a <code>boolean</code> representing whether the candidate can still be inequivalent, false if a candidate with a smaller position already took too many of its values.
+    */
+    public boolean claimTruncatorValues(double[] truncatorValues, long position) {
+        return claimValues(truncatorValues, false, position, true);
+    }
+
+    /**
+        Checks whether a candidate claimed with claimTruncatorValues is inequivalent, once every candidate with a smaller position is claimed.
+        @param truncatorValues: a <code>double[]</code> representing the unrounded value of the candidate on each truncator.
+        @param position: a <code>long</code> representing the position the candidate was claimed at.
+        @return a <code>boolean</code> representing whether the candidate is inequivalent to every candidate with a smaller position.
+    */
+    public boolean holdsTruncatorValues(double[] truncatorValues, long position) {
+        return claimValues(truncatorValues, false, position, false);
+    }
+
+    /**
+        Returns the policy used to decide if an expression is inequivalent.
+        @return a <code>DedupPolicy</code> representing the policy.
+    */
+    public DedupPolicy getDedupPolicy() {
+        return this.policy;
+    }
+
+    /**
+        Records the values of an expression on each truncator and decides if it is inequivalent according to the policy.
+        NaN values are never counted as new, and a fingerprint with a NaN value in its group is skipped.
+        @param truncatorValues: a <code>double[]</code> representing the value of the expression on each truncator.
+        @param rounded: a <code>boolean</code> representing whether the values have already been rounded.
+        @return a <code>boolean</code> representing whether the expression is inequivalent.
+    */
+    private boolean addValues(double[] truncatorValues, boolean rounded) {
+        if (this.claims!=null) {
+            synchronized (this) {
+                return claimValues(truncatorValues, rounded, reservePositions(1), true);
+            }
+        }
+        int unique = 0;
+        if (this.policy.usesFingerprints()) {
+            int numGroups = this.policy.getNumGroups();
+            for (int group = 0; group < numGroups; group++) {
+                long fingerprint = group+1;
+                boolean defined = true;
+                for (int i = group; i < this.numTruncators; i += numGroups) {
+                    double value = truncatorValues[i];
+                    if (Double.isNaN(value)) {
+                        defined = false;
+                        break;
+                    }
+                    fingerprint = DedupPolicy.mixIn(fingerprint, toSeenValue(value, rounded));
+                }
+                if (defined && this.seenFingerprints.add(fingerprint)) {
+                    unique++;
+                }
+            }
+        } else {
+            for (int i = 0; i < this.numTruncators; i++) {
+                double value = truncatorValues[i];
+                if (!Double.isNaN(value) && this.seen[i].add(toSeenValue(value, rounded))) {
+                    unique++;
+                }
+            }
+        }
+        return unique>=this.policy.getThreshold(); //this is to prevent false positives from a rounding difference on a single truncator
+    }
+
+    /**
+        Claims the values of an expression at a position on a concurrent set, or counts the ones it holds, and decides if it is inequivalent according to the policy.
+        The keys are the same as in addValues, a fingerprint per group or a rounded value per truncator, skipping the undefined ones.
+        @param truncatorValues: a <code>double[]</code> representing the value of the expression on each truncator.
+        @param rounded: a <code>boolean</code> representing whether the values have already been rounded.
+        @param position: a <code>long</code> representing the position of the expression.
+        @param claim: a <code>boolean</code> representing whether to claim the keys, or only count the ones held.
+        @return a <code>boolean</code> representing whether at least the threshold of keys are held.
+    */
+    private boolean claimValues(double[] truncatorValues, boolean rounded, long position, boolean claim) {
+        int[] mapIndices;
+        long[] keys;
+        int count = 0;
+        if (this.policy.usesFingerprints()) {
+            int numGroups = this.policy.getNumGroups();
+            mapIndices = new int[numGroups];
+            keys = new long[numGroups];
+            for (int group = 0; group < numGroups; group++) {
+                long fingerprint = group+1;
+                boolean defined = true;
+                for (int i = group; i < this.numTruncators; i += numGroups) {
+                    double value = truncatorValues[i];
+                    if (Double.isNaN(value)) {
+                        defined = false;
+                        break;
+                    }
+                    fingerprint = DedupPolicy.mixIn(fingerprint, toSeenValue(value, rounded));
+                }
+                if (defined) {
+                    keys[count++] = fingerprint;
+                }
+            }
+        } else {
+            mapIndices = new int[this.numTruncators];
+            keys = new long[this.numTruncators];
+            for (int i = 0; i < this.numTruncators; i++) {
+                double value = truncatorValues[i];
+                if (!Double.isNaN(value)) {
+                    mapIndices[count] = i;
+                    keys[count++] = Float.floatToIntBits(toSeenValue(value, rounded));
+                }
+            }
+        }
+        int held = claim ? ConcurrentLongMinMap.claimAll(this.claims, mapIndices, keys, count, position)
+            : ConcurrentLongMinMap.countHeld(this.claims, mapIndices, keys, count, position);
+        return held>=this.policy.getThreshold();
+    }
+
+    /**
+        Rounds a truncator value and converts it to the float that is stored.
+        @param value: a <code>double</code> representing the truncator value.
+        @param rounded: a <code>boolean</code> representing whether the value has already been rounded.
+        @return a <code>float</code> representing the value to store.
+    */
+    private float toSeenValue(double value, boolean rounded) {
+        return rounded ? (float)value : (float)(Math.round(value*this.scale)/this.scale);
+    }
 
     @Override
     public void cleanup() {
@@ -16,9 +16,10 @@ import java.util.Random;
     This class only deals with compressed expressions.
 
 */
-public class ExpressionSetDB extends CompressedExpressionList{
+public class ExpressionSetDB extends CompressedExpressionList implements TruncatorFilter{
     private RocksFloatHashSet[] seen;
     private int rounding;
+    private double scale;
     private int numTruncators;
     private double[][] truncators;
 
@@ -29,7 +30,7 @@ public class ExpressionSetDB extends CompressedExpressionList{
         @param numTruncators: an <code>int</code> representing the number of truncators to use.
     */
     public ExpressionSetDB(int numValues, int rounding, int numTruncators) {
-        this(new long[ExpressionCompression.getCompressedExpressionListSize(getMaximumSize(numValues),ExpressionCompression.REQUIRED_BITS(numValues)[3])],0,numValues,rounding,numTruncators);
+        this(new SegmentedLongArray(ExpressionCompression.getCompressedExpressionListSize(getMaximumSizeLong(numValues),ExpressionCompression.REQUIRED_BITS(numValues)[3])),0,numValues,rounding,numTruncators);
     }
     /**
         Constructor for an ExpressionSetDB.
@@ -40,9 +41,21 @@ public class ExpressionSetDB extends CompressedExpressionList{
         @param numTruncators: an <code>int</code> representing the number of truncators to use.
     */
     public ExpressionSetDB(long[] compressedExpressions, int numExpressions, int numValues, int rounding, int numTruncators) {
+        this(SegmentedLongArray.of(compressedExpressions), numExpressions, numValues, rounding, numTruncators);
+    }
+    /**
+        Constructor for an ExpressionSetDB.
+        @param compressedExpressions: a <code>SegmentedLongArray</code> representing the packed compressed expressions to use.
+        @param numExpressions: a <code>long</code> representing the number of expressions that are in compressedExpressions.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param numTruncators: an <code>int</code> representing the number of truncators to use.
+    */
+    public ExpressionSetDB(SegmentedLongArray compressedExpressions, long numExpressions, int numValues, int rounding, int numTruncators) {
         super(compressedExpressions, numExpressions, numValues);
         
         this.rounding = rounding;
+        this.scale = CompiledExpressionList.getScale(rounding);
 
         this.seen = new RocksFloatHashSet[numTruncators];
 
@@ -125,9 +138,31 @@ public class ExpressionSetDB extends CompressedExpressionList{
         }
         boolean toAdd = uniqueTruncators>=THREASHOLD; //if the expression is unique for at least THREASHOLD truncators, add it, this is to prevent false positives
         if (toAdd) {
-            ExpressionCompression.setCompressedExpression(compressedExpressions, numExpressions, expressionSize, ExpressionCompression.compressExpression(expression));
-            numExpressions++;
+            forceAdd(expression);
         }
         return toAdd;
     }
+
+    @Override
+    public double[][] getTruncators() {
+        return this.truncators;
+    }
+
+    /**
+        Records the values of a candidate expression on each truncator, without adding an expression to the set.
+        If this returns true the caller is expected to add the candidate with forceAdd.
+        @param truncatorValues: a <code>double[]</code> representing the unrounded value of the candidate on each truncator.
+        @return a <code>boolean</code> representing whether the candidate is inequivalent to the expressions already in the set.
+    */
+    @Override
+    public boolean addTruncatorValues(double[] truncatorValues) {
+        int uniqueTruncators = 0;
+        for (int i = 0; i < this.numTruncators; i++) {
+            double value = truncatorValues[i];
+            if (!Double.isNaN(value) && seen[i].add((float)(Math.round(value*this.scale)/this.scale))) {
+                uniqueTruncators++;
+            }
+        }
+        return uniqueTruncators>=THREASHOLD;
+    }
 }
@@ -0,0 +1,94 @@
+package com.github.gkane1234;
+
+/**
+    Helpers for searching for a goal at the root of an expression (x op y), shared by the solvers that combine the values of two subsets.
+
+    Instead of combining every x with every y, the y that makes (x op y) hit the goal is solved for and looked up by its key,
+    the bits of the value rounded to a number of decimal places.
+*/
+final class GoalInversion {
+
+    private GoalInversion() {
+        throw new UnsupportedOperationException("This class is not meant to be instantiated.");
+    }
+
+    /**
+        Checks whether neededOperand can solve for an operand of an operation.
+        @param operation: an <code>Operation</code> to check.
+        @return a <code>boolean</code> representing whether the operation is one of the intrinsic +,-,* and /.
+    */
+    static boolean isInvertible(Operation operation) {
+        return operation.getKind() != Operation.CUSTOM;
+    }
+
+    /**
+        Solves (known op x = goal) or (x op known = goal) for x.
+        @param kind: an <code>int</code> representing the kind of the operation, see Operation.getKind.
+        @param known: a <code>double</code> representing the known operand.
+        @param goal: a <code>double</code> representing the goal.
+        @param knownFirst: a <code>boolean</code> representing whether the known operand is the first operand.
+        @return a <code>double</code> representing x, NaN if there is none and infinity if every x works.
+    */
+    static double neededOperand(int kind, double known, double goal, boolean knownFirst) {
+        switch (kind) {
+            case Operation.ADD:
+                return goal-known;
+            case Operation.SUBTRACT:
+                return knownFirst ? known-goal : goal+known;
+            case Operation.MULTIPLY:
+                if (known == 0) {
+                    return goal == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+                }
+                return goal/known;
+            default:
+                if (knownFirst) {
+                    if (goal == 0) {
+                        return known == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+                    }
+                    return known/goal;
+                }
+                return known == 0 ? Double.NaN : goal*known;
+        }
+    }
+
+    /**
+        Returns the key a value is looked up by, the bits of the value rounded to the number of decimal places.
+        Values too large to round are used as they are.
+        @param value: a <code>double</code> representing the value.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places, see CompiledExpressionList.getScale.
+        @return a <code>long</code> representing the key.
+    */
+    static long key(double value, double scale) {
+        double scaled = value*scale;
+        if (isRoundable(scaled)) {
+            value = Math.rint(scaled)/scale;
+        }
+        return Double.doubleToLongBits(value+0.0);
+    }
+
+    /**
+        Returns the key of the value one rounding step away from a target, so that a value that rounds just past the target is still found.
+        @param target: a <code>double</code> representing the target.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places.
+        @param delta: an <code>int</code> representing the number of rounding steps away from the target.
+        @return a <code>long</code> representing the key.
+    */
+    static long neighbourKey(double target, double scale, int delta) {
+        return key((Math.rint(target*scale)+delta)/scale, scale);
+    }
+
+    /**
+        Checks whether a target has neighbours, that is whether it is small enough to be rounded.
+        A target without neighbours is only looked up by its own key.
+        @param target: a <code>double</code> representing the target.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places.
+        @return a <code>boolean</code> representing whether neighbourKey gives distinct keys for the target.
+    */
+    static boolean hasNeighbours(double target, double scale) {
+        return isRoundable(target*scale);
+    }
+
+    private static boolean isRoundable(double scaled) {
+        return Math.abs(scaled) < 0x1p52;
+    }
+}
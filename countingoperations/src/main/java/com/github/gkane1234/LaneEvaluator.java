@@ -0,0 +1,188 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+
+/**
+    Evaluates one expression over many lanes at once, where a lane is one list of values: a truncator of an ExpressionSet
+    or a tuple of values of a range scan.
+
+    The values and the stack are stored column-wise, value v of lane t at columns[v*numLanes+t], so every step of an expression is
+    one loop over the lanes with no branch in it, which the JIT unrolls and compiles to SIMD instructions on CPUs that have them.
+    Division by zero is NaN in Operation, which would be a branch per lane, so a division only divides and records the smallest divisor
+    of every lane in a mask, and a lane whose mask reached 0 is NaN at the end. Any other NaN carries through +,-,* and / on its own.
+    Custom operations are applied lane by lane through Operation.apply.
+
+    Lane evaluation can be turned off with -Dcountingoperations.lanes=false, in which case ExpressionSet falls back to evaluating
+    every truncator with Expression.evaluateWithValues. A LaneEvaluator keeps its own stack, so it is not thread-safe.
+*/
+public class LaneEvaluator {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("countingoperations.lanes", "true"));
+
+    private final int numLanes;
+    private final double[] stack;
+    private final double[] smallestDivisor;
+    private int top;
+
+    /**
+        Constructor for a LaneEvaluator.
+        @param numValues: an <code>int</code> representing the most values of the expressions it evaluates.
+        @param numLanes: an <code>int</code> representing the number of lanes.
+    */
+    public LaneEvaluator(int numValues, int numLanes) {
+        this.numLanes = numLanes;
+        this.stack = new double[Math.max(numValues, 1)*numLanes];
+        this.smallestDivisor = new double[numLanes];
+        reset();
+    }
+
+    /**
+        Returns whether lane evaluation is turned on, see the countingoperations.lanes system property.
+        @return a <code>boolean</code> representing whether lane evaluation is used.
+    */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+        Returns the number of lanes.
+        @return an <code>int</code> representing the number of lanes.
+    */
+    public int getNumLanes() {
+        return numLanes;
+    }
+
+    /**
+        Lays lists of values out column-wise, the layout the lanes are read in.
+        @param lanes: a <code>double[][]</code> representing the values of every lane.
+        @param numValues: an <code>int</code> representing the number of values in each lane.
+        @return a <code>double[]</code> where value v of lane t is at v*lanes.length+t.
+    */
+    public static double[] toColumns(double[][] lanes, int numValues) {
+        int numLanes = lanes.length;
+        double[] columns = new double[numValues*numLanes];
+        for (int t = 0; t < numLanes; t++) {
+            for (int v = 0; v < numValues; v++) {
+                columns[v*numLanes+t] = lanes[t][v];
+            }
+        }
+        return columns;
+    }
+
+    /**
+        Evaluates an expression on every lane and rounds it the same way <code>Expression.evaluateWithValues</code> does.
+        @param expression: an <code>Expression</code> to evaluate.
+        @param columns: a <code>double[]</code> representing the values of every lane, column-wise.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places to round to, see CompiledExpressionList.getScale.
+        @param results: a <code>double[]</code> to write the value on every lane to, NaN where an operation was undefined.
+    */
+    public void evaluate(Expression expression, double[] columns, double scale, double[] results) {
+        evaluate(expression, columns, results);
+        for (int t = 0; t < numLanes; t++) {
+            if (!Double.isNaN(results[t])) {
+                results[t] = Math.round(results[t] * scale) / scale;
+            }
+        }
+    }
+
+    /**
+        Evaluates an expression on every lane without rounding.
+        @param expression: an <code>Expression</code> to evaluate.
+        @param columns: a <code>double[]</code> representing the values of every lane, column-wise.
+        @param results: a <code>double[]</code> to write the value on every lane to, NaN where an operation was undefined.
+    */
+    public void evaluate(Expression expression, double[] columns, double[] results) {
+        Operation[] operations = Operation.getOperations();
+        reset();
+        int valuesPointer = 0;
+        int operationsPointer = 0;
+        for (boolean isNumber : expression.order) {
+            if (isNumber) {
+                push(columns, expression.valueOrder[valuesPointer++]);
+            } else {
+                apply(operations[expression.operations[operationsPointer++]]);
+            }
+        }
+        finish(results);
+    }
+
+    /**
+        Empties the stack and the mask, before a new expression is evaluated step by step.
+    */
+    public void reset() {
+        top = -1;
+        Arrays.fill(smallestDivisor, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+        Pushes a value of every lane onto the stack.
+        @param columns: a <code>double[]</code> representing the values of every lane, column-wise.
+        @param value: an <code>int</code> representing the index of the value to push.
+    */
+    public void push(double[] columns, int value) {
+        System.arraycopy(columns, value*numLanes, stack, (++top)*numLanes, numLanes);
+    }
+
+    /**
+        Applies an operation to the top two entries of the stack of every lane.
+        @param operation: an <code>Operation</code> to apply.
+    */
+    public void apply(Operation operation) {
+        top--;
+        applyToLanes(operation, stack, top*numLanes, (top+1)*numLanes, numLanes, smallestDivisor, 0);
+    }
+
+    /**
+        Applies an operation to two columns of lanes, writing the results over the first.
+        @param operation: an <code>Operation</code> to apply.
+        @param stack: a <code>double[]</code> holding the columns.
+        @param first: an <code>int</code> representing the start of the column of first operands, where the results are written.
+        @param second: an <code>int</code> representing the start of the column of second operands.
+        @param numLanes: an <code>int</code> representing the number of lanes.
+        @param smallestDivisor: a <code>double[]</code> holding the mask of every lane, lowered by divisions.
+        @param maskStart: an <code>int</code> representing the index of smallestDivisor the mask of the first lane is at.
+    */
+    static void applyToLanes(Operation operation, double[] stack, int first, int second, int numLanes, double[] smallestDivisor, int maskStart) {
+        switch (operation.getKind()) {
+            case Operation.ADD:
+                for (int t = 0; t < numLanes; t++) {
+                    stack[first+t] += stack[second+t];
+                }
+                break;
+            case Operation.SUBTRACT:
+                for (int t = 0; t < numLanes; t++) {
+                    stack[first+t] -= stack[second+t];
+                }
+                break;
+            case Operation.MULTIPLY:
+                for (int t = 0; t < numLanes; t++) {
+                    stack[first+t] *= stack[second+t];
+                }
+                break;
+            case Operation.DIVIDE:
+                for (int t = 0; t < numLanes; t++) {
+                    stack[first+t] /= stack[second+t];
+                }
+                for (int t = 0; t < numLanes; t++) {
+                    smallestDivisor[maskStart+t] = Math.min(smallestDivisor[maskStart+t], Math.abs(stack[second+t]));
+                }
+                break;
+            default:
+                for (int t = 0; t < numLanes; t++) {
+                    double a = stack[first+t];
+                    double b = stack[second+t];
+                    stack[first+t] = Double.isNaN(a) || Double.isNaN(b) ? Double.NaN : operation.apply(a, b);
+                }
+        }
+    }
+
+    /**
+        Writes the value of every lane, once the whole expression has been applied.
+        @param results: a <code>double[]</code> to write the value on every lane to, NaN where a division by zero happened.
+    */
+    public void finish(double[] results) {
+        for (int t = 0; t < numLanes; t++) {
+            results[t] = smallestDivisor[t] == 0 ? Double.NaN : stack[t];
+        }
+    }
+}
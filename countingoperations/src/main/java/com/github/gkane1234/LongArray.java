@@ -0,0 +1,19 @@
+package com.github.gkane1234;
+/**
+    An interface for read access to an array of longs that is indexed by a long, so it is not limited to 2^31 entries.
+    Used for the packed storage of compressed expressions, which does not have to live on the heap.
+*/
+public interface LongArray {
+    /**
+        Gets a value from the array.
+        @param index: a <code>long</code> representing the index of the value.
+        @return a <code>long</code> representing the value.
+    */
+    long get(long index);
+
+    /**
+        Returns the number of values in the array.
+        @return a <code>long</code> representing the number of values.
+    */
+    long length();
+}
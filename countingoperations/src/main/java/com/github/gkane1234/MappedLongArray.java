@@ -0,0 +1,76 @@
+package com.github.gkane1234;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+    A read-only array of longs memory-mapped from a file.
+
+    A single mapping is limited to 2^31 bytes, so the array is mapped in chunks of 2^27 longs (1 GiB).
+    Values are read with absolute gets, so any number of threads can read at once,
+    and every JVM mapping the same file shares its pages through the page cache.
+*/
+public class MappedLongArray implements LongArray {
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L<<CHUNK_SHIFT)-1;
+
+    private final LongBuffer[] chunks;
+    private final long length;
+
+    private MappedLongArray(LongBuffer[] chunks, long length) {
+        this.chunks = chunks;
+        this.length = length;
+    }
+
+    /**
+        Maps a region of a file holding little-endian longs.
+        The mapping stays valid after the channel is closed.
+        @param channel: a <code>FileChannel</code> representing the file to map.
+        @param position: a <code>long</code> representing the byte offset of the first long.
+        @param length: a <code>long</code> representing the number of longs to map.
+        @return a <code>MappedLongArray</code> representing the mapped region.
+        @throws IOException if the region could not be mapped.
+    */
+    public static MappedLongArray map(FileChannel channel, long position, long length) throws IOException {
+        int numChunks = (int) ((length+CHUNK_MASK) >>> CHUNK_SHIFT);
+        LongBuffer[] chunks = new LongBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            long chunkStart = (long) i << CHUNK_SHIFT;
+            long chunkLength = Math.min(length-chunkStart, 1L<<CHUNK_SHIFT);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position+chunkStart*Long.BYTES, chunkLength*Long.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asLongBuffer();
+        }
+        return new MappedLongArray(chunks, length);
+    }
+
+    @Override
+    public long get(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+        Copies the array onto the heap.
+        @return a <code>long[]</code> representing the values.
+        @throws IllegalStateException if there are too many values for a single array.
+    */
+    public long[] toArray() {
+        if (length > Integer.MAX_VALUE-8) {
+            throw new IllegalStateException("Cannot copy "+length+" longs into a single array");
+        }
+        long[] values = new long[(int) length];
+        for (int i = 0; i < chunks.length; i++) {
+            LongBuffer chunk = chunks[i].duplicate();
+            chunk.rewind();
+            chunk.get(values, i << CHUNK_SHIFT, chunk.remaining());
+        }
+        return values;
+    }
+}
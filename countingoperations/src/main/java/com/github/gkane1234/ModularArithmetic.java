@@ -0,0 +1,184 @@
+package com.github.gkane1234;
+
+import java.util.Random;
+
+/**
+    This class is used to evaluate expressions exactly over the prime field of integers modulo 2^31-1.
+
+    Two expressions that are equivalent take the same value at every point where both are defined,
+    and two inequivalent expressions of n values take the same value at a random point with a probability of about n/2^31,
+    so values at random points can replace truncators without any rounding.
+    Division multiplies by the modular inverse, and dividing by zero gives UNDEFINED, which plays the role of NaN.
+*/
+public class ModularArithmetic {
+
+    /**
+        The prime 2^31-1, small enough that the product of two residues fits in a long.
+    */
+    public static final long MODULUS = (1L<<31)-1;
+    /**
+        The value of an expression that divides by zero.
+    */
+    public static final long UNDEFINED = -1;
+
+    static final int ADD = Operation.ADD;
+    static final int SUBTRACT = Operation.SUBTRACT;
+    static final int MULTIPLY = Operation.MULTIPLY;
+    static final int DIVIDE = Operation.DIVIDE;
+
+    private ModularArithmetic() {
+        throw new UnsupportedOperationException("This class is not meant to be instantiated.");
+    }
+
+    /**
+        Reduces a non-negative number below 2^62 modulo 2^31-1, using 2^31 = 1.
+        @param value: a <code>long</code> representing the number to reduce.
+        @return a <code>long</code> representing the residue.
+    */
+    public static long reduce(long value) {
+        value = (value & MODULUS) + (value >>> 31);
+        value = (value & MODULUS) + (value >>> 31);
+        return value >= MODULUS ? value - MODULUS : value;
+    }
+
+    /**
+        Multiplies two residues.
+        @param a: a <code>long</code> representing the first residue.
+        @param b: a <code>long</code> representing the second residue.
+        @return a <code>long</code> representing the product.
+    */
+    public static long multiply(long a, long b) {
+        return reduce(a*b);
+    }
+
+    /**
+        Calculates the inverse of a residue with the extended Euclidean algorithm.
+        @param a: a <code>long</code> representing the residue.
+        @return a <code>long</code> representing the inverse, UNDEFINED if a is zero or UNDEFINED.
+    */
+    public static long inverse(long a) {
+        if (a <= 0) {
+            return UNDEFINED;
+        }
+        long r0 = MODULUS;
+        long r1 = a;
+        long t0 = 0;
+        long t1 = 1;
+        while (r1 != 0) {
+            long quotient = r0/r1;
+            long r = r0 - quotient*r1;
+            r0 = r1;
+            r1 = r;
+            long t = t0 - quotient*t1;
+            t0 = t1;
+            t1 = t;
+        }
+        return t0 < 0 ? t0 + MODULUS : t0;
+    }
+
+    /**
+        Returns the kind of modular arithmetic an operation is evaluated with.
+        @param operation: an <code>Operation</code> representing the operation.
+        @return an <code>int</code> representing the kind, one of ADD, SUBTRACT, MULTIPLY or DIVIDE.
+        @throws UnsupportedOperationException if the operation has no modular form.
+    */
+    static int kindOf(Operation operation) {
+        if (operation.getKind() == Operation.CUSTOM) {
+            throw new UnsupportedOperationException("Operation "+operation+" cannot be evaluated with modular arithmetic");
+        }
+        return operation.getKind();
+    }
+
+    /**
+        Checks whether every current operation can be evaluated with modular arithmetic.
+        @return a <code>boolean</code> representing whether all operations are supported.
+    */
+    public static boolean supportsOperations() {
+        for (Operation operation : Operation.getOperations()) {
+            try {
+                kindOf(operation);
+            } catch (UnsupportedOperationException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+        Applies an operation to two residues.
+        @param kind: an <code>int</code> representing the kind of the operation, see kindOf.
+        @param a: a <code>long</code> representing the first residue.
+        @param b: a <code>long</code> representing the second residue.
+        @param inverseOfB: a <code>long</code> representing the inverse of b, only used for division.
+        @return a <code>long</code> representing the result, UNDEFINED if either residue is or b is a zero divisor.
+    */
+    static long apply(int kind, long a, long b, long inverseOfB) {
+        if (a < 0 || b < 0) {
+            return UNDEFINED;
+        }
+        switch (kind) {
+            case ADD:
+                long sum = a+b;
+                return sum >= MODULUS ? sum - MODULUS : sum;
+            case SUBTRACT:
+                long difference = a-b;
+                return difference < 0 ? difference + MODULUS : difference;
+            case MULTIPLY:
+                return reduce(a*b);
+            default:
+                return inverseOfB < 0 ? UNDEFINED : reduce(a*inverseOfB);
+        }
+    }
+
+    /**
+        Applies an operation to two residues.
+        @param kind: an <code>int</code> representing the kind of the operation, see kindOf.
+        @param a: a <code>long</code> representing the first residue.
+        @param b: a <code>long</code> representing the second residue.
+        @return a <code>long</code> representing the result, UNDEFINED if either residue is or b is a zero divisor.
+    */
+    static long apply(int kind, long a, long b) {
+        return apply(kind, a, b, kind == DIVIDE ? inverse(b) : 0);
+    }
+
+    /**
+        Evaluates an expression with residues as its values.
+        @param expression: an <code>Expression</code> representing the expression to evaluate.
+        @param values: a <code>long[]</code> representing the residues of the values.
+        @return a <code>long</code> representing the residue of the expression, UNDEFINED if it divides by zero.
+    */
+    public static long evaluate(Expression expression, long[] values) {
+        Operation[] operations = Operation.getOperations();
+        long[] stack = new long[expression.order.length];
+        int top = -1;
+        int valuesPointer = 0;
+        int operationsPointer = 0;
+        for (boolean isNumber : expression.order) {
+            if (isNumber) {
+                stack[++top] = values[expression.valueOrder[valuesPointer++]];
+            } else {
+                long b = stack[top--];
+                long result = apply(kindOf(operations[expression.operations[operationsPointer++]]), stack[top], b);
+                if (result == UNDEFINED) {
+                    return result;
+                }
+                stack[top] = result;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+        Creates a random point, a residue for every value.
+        @param random: a <code>Random</code> to draw the residues from.
+        @param numValues: an <code>int</code> representing the number of values.
+        @return a <code>long[]</code> representing the point.
+    */
+    public static long[] randomPoint(Random random, int numValues) {
+        long[] point = new long[numValues];
+        for (int i = 0; i < numValues; i++) {
+            point[i] = random.nextInt((int) MODULUS);
+        }
+        return point;
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.gkane1234;
+import java.util.Random;
+
+import gnu.trove.set.hash.TLongHashSet;
+
+/*
+    A data structure that stores inequivalent expressions, deciding inequivalence exactly with ModularArithmetic instead of rounded truncators.
+
+    Every expression is evaluated at random points modulo ModularArithmetic.MODULUS. The residues at each pair of points form one exact 62-bit fingerprint,
+    so two inequivalent expressions only share a fingerprint if they agree at both points, with a probability of about (n/2^31)^2.
+    The fingerprints are grouped and counted against a threshold by a DedupPolicy, like the fingerprints of an ExpressionSet.
+    A group is skipped if the expression divides by zero at one of its points. Since this also happens by chance, at a probability of about n/2^31,
+    a threshold below the number of groups keeps such a coincidence from changing the result.
+*/
+public class ModularExpressionSet extends ExpressionList {
+    private static final long serialVersionUID = 1L;
+
+    /**
+        The number of points whose residues make up one fingerprint.
+    */
+    public static final int POINTS_PER_FINGERPRINT = 2;
+    /**
+        Three fingerprints with a threshold of two, so that a chance division by zero in one group never decides the result.
+    */
+    public static final DedupPolicy DEFAULT_POLICY = DedupPolicy.fingerprint(3, 2);
+
+    private final DedupPolicy policy;
+    private long[][] points;
+    private TLongHashSet[] seen;
+    private ConcurrentLongMinMap[] claims;
+    private long nextPosition;
+
+    /**
+        Constructor for a ModularExpressionSet.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param concurrent: a <code>boolean</code> representing whether candidates are claimed by position from several threads at once, see claimResidues.
+        @param policy: a <code>DedupPolicy</code> using fingerprints, representing how many fingerprints there are and how many must be new.
+    */
+    public ModularExpressionSet(int numValues, boolean concurrent, DedupPolicy policy) {
+        super(new Expression[getInitialCapacity(numValues)], 0, numValues);
+        if (!policy.usesFingerprints()) {
+            throw new IllegalArgumentException("A ModularExpressionSet needs a fingerprint policy, not "+policy);
+        }
+        if (!ModularArithmetic.supportsOperations()) {
+            throw new IllegalStateException("The current operations cannot be evaluated with modular arithmetic");
+        }
+        this.policy = policy;
+        int numGroups = policy.getNumGroups();
+
+        Random random = new Random();
+        this.points = new long[numGroups*POINTS_PER_FINGERPRINT][];
+        for (int i = 0; i < this.points.length; i++) {
+            this.points[i] = ModularArithmetic.randomPoint(random, numValues);
+        }
+
+        if (concurrent) {
+            this.claims = new ConcurrentLongMinMap[numGroups];
+            for (int i = 0; i < numGroups; i++) {
+                this.claims[i] = new ConcurrentLongMinMap();
+            }
+        } else {
+            this.seen = new TLongHashSet[numGroups];
+            for (int i = 0; i < numGroups; i++) {
+                this.seen[i] = new TLongHashSet();
+            }
+        }
+    }
+
+    /**
+        Constructor for a ModularExpressionSet using DEFAULT_POLICY.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+        @param concurrent: a <code>boolean</code> representing whether candidates are claimed by position from several threads at once, see claimResidues.
+    */
+    public ModularExpressionSet(int numValues, boolean concurrent) {
+        this(numValues, concurrent, DEFAULT_POLICY);
+    }
+
+    /**
+        Returns the points the expressions are evaluated at.
+        @return a <code>long[][]</code> where each row is a point, a residue for every value.
+    */
+    public long[][] getPoints() {
+        return this.points;
+    }
+
+    /**
+        Returns the policy used to decide if an expression is inequivalent.
+        @return a <code>DedupPolicy</code> representing the policy.
+    */
+    public DedupPolicy getDedupPolicy() {
+        return this.policy;
+    }
+
+    /**
+        Adds an expression to the set if it is not equivalent to any of the expressions already in the set.
+        @param expression: an <code>Expression</code> to add to the set.
+        @return a <code>boolean</code> representing whether the expression was added to the set.
+    */
+    @Override
+    public boolean add(Expression expression) {
+        long[] residues = new long[this.points.length];
+        for (int i = 0; i < this.points.length; i++) {
+            residues[i] = ModularArithmetic.evaluate(expression, this.points[i]);
+        }
+        boolean toAdd = addResidues(residues);
+        if (toAdd) {
+            forceAdd(expression);
+        }
+        return toAdd;
+    }
+
+    /**
+        Records the residues of a candidate expression at each point, without adding an expression to the set.
+        If this returns true the caller is expected to add the candidate with forceAdd.
+        On a concurrent set this must not run at the same time as claimResidues.
+        @param residues: a <code>long[]</code> representing the residue of the candidate at each point, ModularArithmetic.UNDEFINED if it divides by zero.
+        @return a <code>boolean</code> representing whether the candidate is inequivalent to the expressions already in the set.
+    */
+    public boolean addResidues(long[] residues) {
+        if (this.claims != null) {
+            synchronized (this) {
+                return claimFingerprints(residues, reservePositions(1), true);
+            }
+        }
+        int unique = 0;
+        for (int group = 0; group < this.policy.getNumGroups(); group++) {
+            long first = residues[group*POINTS_PER_FINGERPRINT];
+            long second = residues[group*POINTS_PER_FINGERPRINT+1];
+            if (first == ModularArithmetic.UNDEFINED || second == ModularArithmetic.UNDEFINED) {
+                continue;
+            }
+            if (this.seen[group].add((first << 31) | second)) {
+                unique++;
+            }
+        }
+        return unique>=this.policy.getThreshold();
+    }
+
+    /**
+        Reserves a range of positions for candidates to be claimed at, after every position reserved before.
+        @param count: a <code>long</code> representing the number of positions to reserve.
+        @return a <code>long</code> representing the first position of the range.
+    */
+    public synchronized long reservePositions(long count) {
+        long first = this.nextPosition;
+        this.nextPosition = Math.addExact(first, count);
+        return first;
+    }
+
+    /**
+        Claims the fingerprints of a candidate at a position, on a concurrent set, without adding an expression to the set.
+        A fingerprint is new for the candidate with the smallest position that has it, so once every candidate of a batch is claimed,
+        holdsResidues gives the same answer addResidues would have given for the candidates one at a time in order of position.
+        @param residues: a <code>long[]</code> representing the residue of the candidate at each point, ModularArithmetic.UNDEFINED if it divides by zero.
+        @param position: a <code>long</code> representing the position of the candidate, from reservePositions.
+        @return a <code>boolean</code> representing whether the candidate can still be inequivalent, false if a candidate with a smaller position already took too many of its fingerprints.
+    */
+    public boolean claimResidues(long[] residues, long position) {
+        return claimFingerprints(residues, position, true);
+    }
+
+    /**
+        Checks whether a candidate claimed with claimResidues is inequivalent, once every candidate with a smaller position is claimed.
+        @param residues: a <code>long[]</code> representing the residue of the candidate at each point.
+        @param position: a <code>long</code> representing the position the candidate was claimed at.
+        @return a <code>boolean</code> representing whether the candidate is inequivalent to every candidate with a smaller position.
+    */
+    public boolean holdsResidues(long[] residues, long position) {
+        return claimFingerprints(residues, position, false);
+    }
+
+    /**
+        Claims the fingerprints of a candidate at a position, or counts the ones it holds, skipping the groups where it divides by zero.
+        @param residues: a <code>long[]</code> representing the residue of the candidate at each point.
+        @param position: a <code>long</code> representing the position of the candidate.
+        @param claim: a <code>boolean</code> representing whether to claim the fingerprints, or only count the ones held.
+        @return a <code>boolean</code> representing whether at least the threshold of fingerprints are held.
+    */
+    private boolean claimFingerprints(long[] residues, long position, boolean claim) {
+        int numGroups = this.policy.getNumGroups();
+        int[] groups = new int[numGroups];
+        long[] fingerprints = new long[numGroups];
+        int count = 0;
+        for (int group = 0; group < numGroups; group++) {
+            long first = residues[group*POINTS_PER_FINGERPRINT];
+            long second = residues[group*POINTS_PER_FINGERPRINT+1];
+            if (first != ModularArithmetic.UNDEFINED && second != ModularArithmetic.UNDEFINED) {
+                groups[count] = group;
+                fingerprints[count++] = (first << 31) | second;
+            }
+        }
+        int held = claim ? ConcurrentLongMinMap.claimAll(this.claims, groups, fingerprints, count, position)
+            : ConcurrentLongMinMap.countHeld(this.claims, groups, fingerprints, count, position);
+        return held>=this.policy.getThreshold();
+    }
+
+    /**
+        Clears the seen fingerprints to free up memory.
+    */
+    public void clearSeen() {
+        this.seen=null;
+        this.claims=null;
+        this.points=null;
+    }
+
+    @Override
+    public void cleanup() {
+        this.clearSeen();
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.gkane1234;
+
+/**
+    A bounded max-heap of the k expressions nearest to a target, stored in primitive arrays so that offering an expression never allocates.
+
+    The root is the farthest expression kept, so a full heap rejects an expression with one comparison.
+    Expressions at the same distance are ordered by index, so the k kept do not depend on the order they are offered in.
+*/
+final class NearestHeap {
+
+    private final double[] distances;
+    private final long[] indices;
+    private final double[] results;
+    private int size;
+
+    /**
+        Constructor for an empty NearestHeap.
+        @param capacity: an <code>int</code> representing the most expressions to keep.
+    */
+    NearestHeap(int capacity) {
+        this.distances = new double[capacity];
+        this.indices = new long[capacity];
+        this.results = new double[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+        Keeps an expression if it is nearer than the farthest one kept, or if the heap is not full.
+        @param distance: a <code>double</code> representing the distance of the value of the expression to the target.
+        @param index: a <code>long</code> representing the index of the expression.
+        @param result: a <code>double</code> representing the value of the expression.
+    */
+    void offer(double distance, long index, double result) {
+        if (size < distances.length) {
+            int child = size++;
+            while (child > 0) {
+                int parent = (child-1) >>> 1;
+                if (!isFarther(distance, index, distances[parent], indices[parent])) {
+                    break;
+                }
+                set(child, distances[parent], indices[parent], results[parent]);
+                child = parent;
+            }
+            set(child, distance, index, result);
+        } else if (size > 0 && isFarther(distances[0], indices[0], distance, index)) {
+            siftDown(distance, index, result);
+        }
+    }
+
+    /**
+        Offers every expression kept by another heap.
+        @param other: a <code>NearestHeap</code> to merge into this one.
+    */
+    void merge(NearestHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.distances[i], other.indices[i], other.results[i]);
+        }
+    }
+
+    /**
+        Empties the heap, nearest expression first.
+        @param sortedIndices: a <code>long[]</code> of length at least size() to write the indices to.
+        @param sortedResults: a <code>double[]</code> of length at least size() to write the values to.
+        @return an <code>int</code> representing the number of expressions written.
+    */
+    int drainSorted(long[] sortedIndices, double[] sortedResults) {
+        int count = size;
+        for (int i = count-1; i >= 0; i--) {
+            sortedIndices[i] = indices[0];
+            sortedResults[i] = results[0];
+            size--;
+            if (size > 0) {
+                siftDown(distances[size], indices[size], results[size]);
+            }
+        }
+        return count;
+    }
+
+    /**
+        Puts an expression at the root and moves it down to its place.
+    */
+    private void siftDown(double distance, long index, double result) {
+        int parent = 0;
+        while (true) {
+            int child = 2*parent+1;
+            if (child >= size) {
+                break;
+            }
+            if (child+1 < size && isFarther(distances[child+1], indices[child+1], distances[child], indices[child])) {
+                child++;
+            }
+            if (!isFarther(distances[child], indices[child], distance, index)) {
+                break;
+            }
+            set(parent, distances[child], indices[child], results[child]);
+            parent = child;
+        }
+        set(parent, distance, index, result);
+    }
+
+    private void set(int position, double distance, long index, double result) {
+        distances[position] = distance;
+        indices[position] = index;
+        results[position] = result;
+    }
+
+    private static boolean isFarther(double distance, long index, double otherDistance, long otherIndex) {
+        return distance > otherDistance || (distance == otherDistance && index > otherIndex);
+    }
+}
@@ -5,20 +5,49 @@ import java.util.function.DoubleBinaryOperator;
 /**
     This class is used to represent operations.
     By default, it uses the standard 4 operations: addition, subtraction, multiplication, and division.
+
+    The standard operations are intrinsic: they carry a kind (ADD, SUBTRACT, MULTIPLY or DIVIDE) and apply switches on it,
+    so evaluators see the arithmetic inline instead of a call through a DoubleBinaryOperator.
+    Evaluators that loop over many values can switch on getKind themselves. Operations created with a function are CUSTOM
+    and are applied through their function, even when their name is one of the standard ones.
 */
 public class Operation {
 
-    private static Operation[] OPERATIONS = new Operation[] {
-        new Operation((a, b) -> a + b, true,'+'),
-        new Operation((a, b) -> a - b, false,'-'),
-        new Operation((a, b) -> a * b, true,'*'),
-        new Operation((a, b) -> (b != 0) ? a / b : Double.NaN, false,'/')};
+    /**
+        The kind of an operation that is applied through its function.
+    */
+    public static final int CUSTOM = -1;
+    /**
+        The kind of addition.
+    */
+    public static final int ADD = 0;
+    /**
+        The kind of subtraction.
+    */
+    public static final int SUBTRACT = 1;
+    /**
+        The kind of multiplication.
+    */
+    public static final int MULTIPLY = 2;
+    /**
+        The kind of division, which is NaN when dividing by zero.
+    */
+    public static final int DIVIDE = 3;
+
+    private static final Operation[] INTRINSICS = new Operation[] {
+        new Operation((a, b) -> a + b, true,'+', ADD),
+        new Operation((a, b) -> a - b, false,'-', SUBTRACT),
+        new Operation((a, b) -> a * b, true,'*', MULTIPLY),
+        new Operation((a, b) -> (b != 0) ? a / b : Double.NaN, false,'/', DIVIDE)};
+
+    private static Operation[] OPERATIONS = INTRINSICS.clone();
 
     private static int NUM_OPERATION_ORDERINGS = 6;
 
     private DoubleBinaryOperator operationFunction;
     private boolean commutative;
     private char name;
+    private final int kind;
 
     /**
         Constructor for the Operation class.
@@ -27,10 +56,28 @@ public class Operation {
         @param name: a <code>char</code> representing the name of the operation.
     */
     public Operation(DoubleBinaryOperator operationFunction, boolean commutative,char name) {
+        this(operationFunction, commutative, name, CUSTOM);
+    }
+
+    private Operation(DoubleBinaryOperator operationFunction, boolean commutative, char name, int kind) {
         this.name=name;
         this.commutative = commutative;
         this.operationFunction = operationFunction;
+        this.kind = kind;
+    }
+
+    /**
+        Returns the standard operation of a kind, to build a set of operations that keeps the intrinsic ones.
+        @param kind: an <code>int</code> representing the kind, one of ADD, SUBTRACT, MULTIPLY or DIVIDE.
+        @return an <code>Operation</code> representing the standard operation.
+    */
+    public static Operation getIntrinsic(int kind) {
+        if (kind < 0 || kind >= INTRINSICS.length) {
+            throw new IllegalArgumentException("There is no intrinsic operation of kind "+kind);
+        }
+        return INTRINSICS[kind];
     }
+
     /**
         Applies the operation on two numbers.
         @param a: a <code>double</code> representing the first number.
@@ -38,7 +85,25 @@ public class Operation {
         @return a <code>double</code> representing the result of the operation.
     */
     public double apply(double a, double b) {
-        return operationFunction.applyAsDouble(a, b);
+        switch (kind) {
+            case ADD:
+                return a + b;
+            case SUBTRACT:
+                return a - b;
+            case MULTIPLY:
+                return a * b;
+            case DIVIDE:
+                return (b != 0) ? a / b : Double.NaN;
+            default:
+                return operationFunction.applyAsDouble(a, b);
+        }
+    }
+    /**
+        Returns the kind of the operation.
+        @return an <code>int</code> representing the kind, one of ADD, SUBTRACT, MULTIPLY, DIVIDE or CUSTOM.
+    */
+    public int getKind() {
+        return this.kind;
     }
     /**
         Returns whether the operation is commutative.
@@ -0,0 +1,206 @@
+package com.github.gkane1234;
+
+/**
+    Lookup tables for decoding the fields of compressed expressions, see ExpressionCompression.compressExpression.
+
+    Value orders are stored as permutation numbers. For up to MAX_TABLE_VALUES values every permutation is precomputed,
+    so a value order is one row of a table: permutation p of n values is at [p*n, p*n+n) of getValueOrderTable(n).
+    For more values the table is sharded: the leading digits of the permutation number pick the first values directly,
+    and the last MAX_TABLE_VALUES digits are a row of the table for MAX_TABLE_VALUES values, applied to the values that are left.
+
+    Orders are stored without their fixed first two, penultimate and last entries. getOrderTable(n) maps every order code
+    to a mask of the full order, with bit i set if position i of the RPN program pushes a value.
+
+    The tables are built once when the class is loaded and never change, so any evaluator of packed codes can share them.
+*/
+public class PackedCodeTables {
+
+    /**
+        The largest number of values with a complete value order table. (8! = 40320 permutations)
+    */
+    public static final int MAX_TABLE_VALUES = 8;
+    /**
+        The largest number of values with an order table. (2^15 orders)
+    */
+    public static final int MAX_ORDER_TABLE_VALUES = 10;
+
+    private static final long[] FACTORIALS = new long[21];
+    private static final byte[][] VALUE_ORDER_TABLES = new byte[MAX_TABLE_VALUES+1][];
+    private static final int[][] ORDER_TABLES = new int[MAX_ORDER_TABLE_VALUES+1][];
+
+    static {
+        FACTORIALS[0] = 1;
+        for (int i = 1; i < FACTORIALS.length; i++) {
+            FACTORIALS[i] = FACTORIALS[i-1]*i;
+        }
+        for (int n = 1; n <= MAX_TABLE_VALUES; n++) {
+            VALUE_ORDER_TABLES[n] = buildValueOrderTable(n);
+        }
+        for (int n = 1; n <= MAX_ORDER_TABLE_VALUES; n++) {
+            ORDER_TABLES[n] = buildOrderTable(n);
+        }
+    }
+
+    private PackedCodeTables() {
+        throw new UnsupportedOperationException("This class is not meant to be instantiated.");
+    }
+
+    /**
+        Returns the factorial of a number.
+        @param n: an <code>int</code> from 0 to 20.
+        @return a <code>long</code> representing n!.
+    */
+    public static long factorial(int n) {
+        return FACTORIALS[n];
+    }
+
+    /**
+        Returns the table of all value orders of a number of values, indexed by permutation number.
+        The table is shared and must not be modified.
+        @param numValues: an <code>int</code> from 1 to MAX_TABLE_VALUES.
+        @return a <code>byte[]</code> where the value order with permutation number p is at [p*numValues, p*numValues+numValues).
+    */
+    public static byte[] getValueOrderTable(int numValues) {
+        return VALUE_ORDER_TABLES[numValues];
+    }
+
+    /**
+        Returns the table of all orders of a number of values, indexed by order code.
+        The table is shared and must not be modified.
+        @param numValues: an <code>int</code> from 1 to MAX_ORDER_TABLE_VALUES.
+        @return an <code>int[]</code> where the entry for an order code is the mask of its full order.
+    */
+    public static int[] getOrderTable(int numValues) {
+        return ORDER_TABLES[numValues];
+    }
+
+    /**
+        Decodes a permutation number into a value order, for any number of values.
+        @param permutationNumber: a <code>long</code> representing the permutation number.
+        @param numValues: an <code>int</code> representing the number of values.
+        @param valueOrder: a <code>byte[]</code> to write the value order to.
+        @param offset: an <code>int</code> representing the index of valueOrder to start writing at.
+    */
+    public static void decodeValueOrder(long permutationNumber, int numValues, byte[] valueOrder, int offset) {
+        if (numValues <= MAX_TABLE_VALUES) {
+            System.arraycopy(VALUE_ORDER_TABLES[numValues], (int) permutationNumber*numValues, valueOrder, offset, numValues);
+            return;
+        }
+        int prefixLength = numValues-MAX_TABLE_VALUES;
+        long tableFactorial = FACTORIALS[MAX_TABLE_VALUES];
+        long prefix = permutationNumber/tableFactorial;
+        int usedValues = 0;
+        for (int i = 0; i < prefixLength; i++) {
+            long factorial = FACTORIALS[numValues-1-i]/tableFactorial;
+            int digit = (int) (prefix/factorial);
+            prefix -= digit*factorial;
+            int value = nthUnused(usedValues, digit);
+            usedValues |= 1 << value;
+            valueOrder[offset+i] = (byte) value;
+        }
+        // the values that are left, one per byte in increasing order, so that nothing is allocated
+        long remaining = 0;
+        int unused = ~usedValues;
+        for (int i = 0; i < MAX_TABLE_VALUES; i++) {
+            remaining |= (long) Integer.numberOfTrailingZeros(unused) << (8*i);
+            unused &= unused-1;
+        }
+        int row = (int) (permutationNumber%tableFactorial)*MAX_TABLE_VALUES;
+        byte[] table = VALUE_ORDER_TABLES[MAX_TABLE_VALUES];
+        for (int i = 0; i < MAX_TABLE_VALUES; i++) {
+            valueOrder[offset+prefixLength+i] = (byte) (remaining >>> (8*table[row+i]));
+        }
+    }
+
+    /**
+        Encodes a value order as its permutation number, the inverse of decodeValueOrder.
+        @param valueOrder: a <code>byte[]</code> representing the value order.
+        @return a <code>long</code> representing the permutation number.
+    */
+    public static long encodeValueOrder(byte[] valueOrder) {
+        int numValues = valueOrder.length;
+        long permutationNumber = 0;
+        int usedValues = 0;
+        for (int i = 0; i < numValues-1; i++) {
+            int value = valueOrder[i];
+            int digit = Integer.bitCount(~usedValues & ((1 << value)-1));
+            permutationNumber += digit*FACTORIALS[numValues-1-i];
+            usedValues |= 1 << value;
+        }
+        return permutationNumber;
+    }
+
+    /**
+        Decodes an order code into the mask of its full order, for any number of values.
+        @param orderCode: a <code>long</code> representing the order code.
+        @param numValues: an <code>int</code> representing the number of values.
+        @return an <code>int</code> with bit i set if position i of the order pushes a value.
+    */
+    public static int decodeOrder(long orderCode, int numValues) {
+        if (numValues <= MAX_ORDER_TABLE_VALUES) {
+            return ORDER_TABLES[numValues][(int) orderCode];
+        }
+        return buildOrderMask(orderCode, numValues);
+    }
+
+    private static byte[] buildValueOrderTable(int numValues) {
+        int numPermutations = (int) FACTORIALS[numValues];
+        byte[] table = new byte[numPermutations*numValues];
+        for (int p = 0; p < numPermutations; p++) {
+            long permutationNumber = p;
+            int usedValues = 0;
+            for (int i = 0; i < numValues; i++) {
+                long factorial = FACTORIALS[numValues-1-i];
+                int digit = (int) (permutationNumber/factorial);
+                permutationNumber -= digit*factorial;
+                int value = nthUnused(usedValues, digit);
+                usedValues |= 1 << value;
+                table[p*numValues+i] = (byte) value;
+            }
+        }
+        return table;
+    }
+
+    private static int[] buildOrderTable(int numValues) {
+        int orderBits = ExpressionCompression.getRequiredBitsOrder(numValues);
+        int[] table = new int[1 << orderBits];
+        for (int code = 0; code < table.length; code++) {
+            table[code] = buildOrderMask(code, numValues);
+        }
+        return table;
+    }
+
+    /**
+        Builds the mask of a full order the same way ExpressionCompression.longToOrder builds the order.
+    */
+    private static int buildOrderMask(long orderCode, int numValues) {
+        if (numValues == 1) {
+            return 1;
+        }
+        int orderBits = ExpressionCompression.getRequiredBitsOrder(numValues);
+        int mask = 0b11;
+        if (numValues == 2) {
+            return mask;
+        }
+        int middle = (int) (orderCode & ((1L << orderBits)-1));
+        mask |= middle << 2;
+        if (Integer.bitCount(middle) != (orderBits+1)/2) {
+            mask |= 1 << (orderBits+2);
+        }
+        return mask;
+    }
+
+    /**
+        Finds the value that is the digit-th smallest of those not used yet.
+        @param usedValues: an <code>int</code> with a bit set for every value already used.
+        @param digit: an <code>int</code> representing how many unused values to skip.
+        @return an <code>int</code> representing the value.
+    */
+    static int nthUnused(int usedValues, int digit) {
+        int unused = ~usedValues;
+        for (int i = 0; i < digit; i++) {
+            unused &= unused-1;
+        }
+        return Integer.numberOfTrailingZeros(unused);
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.gkane1234;
+/**
+    Evaluates compressed expressions straight from their packed codes, see ExpressionCompression.compressExpression.
+
+    The value order and order fields are decoded with the lookup tables of PackedCodeTables: for up to
+    PackedCodeTables.MAX_TABLE_VALUES values the value order is a row of the shared table, and the order is one mask
+    telling which positions of the RPN program push a value. The operations are read 2 bits at a time while the program runs.
+    Evaluating a code allocates nothing: the only scratch space is created with the evaluator.
+*/
+public class PackedExpressionEvaluator implements ExpressionEvaluator {
+    private final LongArray packedExpressions;
+    private final int numValues;
+    private final int expressionSize;
+    private final int valueOrderBits;
+    private final int operationsBits;
+    private final int orderBits;
+    private final Operation[] operations;
+    private final byte[] valueOrderTable;
+    private final byte[] valueOrder;
+    private final double[] stack;
+    private LaneEvaluator lanes;
+
+    /**
+        Constructor for a PackedExpressionEvaluator.
+        The current operations from <code>Operation.getOperations()</code> are captured when it is created.
+        @param packedExpressions: a <code>LongArray</code> representing the packed compressed expressions, or null if only evaluateCode is used.
+        @param numValues: an <code>int</code> representing the number of values in the expressions.
+    */
+    public PackedExpressionEvaluator(LongArray packedExpressions, int numValues) {
+        int[] requiredBits = ExpressionCompression.REQUIRED_BITS(numValues);
+        this.packedExpressions = packedExpressions;
+        this.numValues = numValues;
+        this.valueOrderBits = requiredBits[0];
+        this.operationsBits = requiredBits[1];
+        this.orderBits = requiredBits[2];
+        this.expressionSize = requiredBits[3];
+        this.operations = Operation.getOperations();
+        this.valueOrderTable = numValues <= PackedCodeTables.MAX_TABLE_VALUES ? PackedCodeTables.getValueOrderTable(numValues) : null;
+        this.valueOrder = new byte[numValues];
+        this.stack = new double[Math.max(numValues, 1)];
+    }
+
+    @Override
+    public double evaluate(long index, double[] values) {
+        return evaluateCode(ExpressionCompression.getCompressedExpression(packedExpressions, index, expressionSize), values);
+    }
+
+    /**
+        Evaluates a compressed expression without rounding.
+        @param code: a <code>long</code> representing the compressed expression.
+        @param values: a <code>double[]</code> representing the values of the expression.
+        @return a <code>double</code> representing the value of the expression, NaN if an operation was undefined.
+    */
+    public double evaluateCode(long code, double[] values) {
+        if (numValues == 1) {
+            return values[0];
+        }
+        long permutationNumber = code & ((1L<<valueOrderBits)-1);
+        long operationCodes = code >>> valueOrderBits;
+        long orderCode = (code >>> (valueOrderBits+operationsBits)) & ((1L<<orderBits)-1);
+
+        byte[] valueOrder;
+        int valuePointer;
+        if (valueOrderTable != null) {
+            valueOrder = valueOrderTable;
+            valuePointer = (int) permutationNumber*numValues;
+        } else {
+            valueOrder = this.valueOrder;
+            valuePointer = 0;
+            PackedCodeTables.decodeValueOrder(permutationNumber, numValues, valueOrder, 0);
+        }
+        int orderMask = PackedCodeTables.decodeOrder(orderCode, numValues);
+
+        int length = 2*numValues-1;
+        int top = -1;
+        for (int position = 0; position < length; position++) {
+            if (((orderMask >>> position) & 1) == 1) {
+                stack[++top] = values[valueOrder[valuePointer++]];
+            } else {
+                double b = stack[top--];
+                double result = operations[(int) (operationCodes & 0b11)].apply(stack[top], b);
+                operationCodes >>>= 2;
+                if (Double.isNaN(result)) {
+                    return result;
+                }
+                stack[top] = result;
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+        Writes the program of a compressed expression in the format of CompiledExpressionList, for evaluators that run programs.
+        @param index: a <code>long</code> representing the index of the expression in the packed expressions.
+        @param program: a <code>byte[]</code> of at least 2*numValues-1 bytes to write the program to.
+    */
+    public void decodeProgram(long index, byte[] program) {
+        if (numValues == 1) {
+            program[0] = 0;
+            return;
+        }
+        long code = ExpressionCompression.getCompressedExpression(packedExpressions, index, expressionSize);
+        long permutationNumber = code & ((1L<<valueOrderBits)-1);
+        long operationCodes = code >>> valueOrderBits;
+        long orderCode = (code >>> (valueOrderBits+operationsBits)) & ((1L<<orderBits)-1);
+
+        byte[] valueOrder;
+        int valuePointer;
+        if (valueOrderTable != null) {
+            valueOrder = valueOrderTable;
+            valuePointer = (int) permutationNumber*numValues;
+        } else {
+            valueOrder = this.valueOrder;
+            valuePointer = 0;
+            PackedCodeTables.decodeValueOrder(permutationNumber, numValues, valueOrder, 0);
+        }
+        int orderMask = PackedCodeTables.decodeOrder(orderCode, numValues);
+
+        int length = 2*numValues-1;
+        for (int position = 0; position < length; position++) {
+            if (((orderMask >>> position) & 1) == 1) {
+                program[position] = valueOrder[valuePointer++];
+            } else {
+                program[position] = (byte) (-(operationCodes & 0b11)-1);
+                operationCodes >>>= 2;
+            }
+        }
+    }
+
+    @Override
+    public void evaluateBatch(long index, double[] columns, int batchSize, double[] results) {
+        evaluateCodeBatch(ExpressionCompression.getCompressedExpression(packedExpressions, index, expressionSize), columns, batchSize, results);
+    }
+
+    /**
+        Evaluates a compressed expression without rounding for a block of value tuples, decoding it once for the whole block.
+        @param code: a <code>long</code> representing the compressed expression.
+        @param columns: a <code>double[]</code> of length numValues*batchSize, where value v of tuple t is columns[v*batchSize+t].
+        @param batchSize: an <code>int</code> representing the number of tuples.
+        @param results: a <code>double[]</code> to write the value for every tuple to, NaN where an operation was undefined.
+    */
+    public void evaluateCodeBatch(long code, double[] columns, int batchSize, double[] results) {
+        if (numValues == 1) {
+            System.arraycopy(columns, 0, results, 0, batchSize);
+            return;
+        }
+        if (lanes == null || lanes.getNumLanes() != batchSize) {
+            lanes = new LaneEvaluator(numValues, batchSize);
+        }
+        long permutationNumber = code & ((1L<<valueOrderBits)-1);
+        long operationCodes = code >>> valueOrderBits;
+        long orderCode = (code >>> (valueOrderBits+operationsBits)) & ((1L<<orderBits)-1);
+
+        byte[] valueOrder;
+        int valuePointer;
+        if (valueOrderTable != null) {
+            valueOrder = valueOrderTable;
+            valuePointer = (int) permutationNumber*numValues;
+        } else {
+            valueOrder = this.valueOrder;
+            valuePointer = 0;
+            PackedCodeTables.decodeValueOrder(permutationNumber, numValues, valueOrder, 0);
+        }
+        int orderMask = PackedCodeTables.decodeOrder(orderCode, numValues);
+
+        int length = 2*numValues-1;
+        lanes.reset();
+        for (int position = 0; position < length; position++) {
+            if (((orderMask >>> position) & 1) == 1) {
+                lanes.push(columns, valueOrder[valuePointer++]);
+            } else {
+                lanes.apply(operations[(int) (operationCodes & 0b11)]);
+                operationCodes >>>= 2;
+            }
+        }
+        lanes.finish(results);
+    }
+
+    /**
+        Evaluates a compressed expression and rounds it the same way <code>Expression.evaluateWithValues</code> does.
+        @param code: a <code>long</code> representing the compressed expression.
+        @param values: a <code>double[]</code> representing the values of the expression.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places to round to, see CompiledExpressionList.getScale.
+        @return a <code>double</code> representing the rounded value of the expression, NaN if an operation was undefined.
+    */
+    public double evaluateCode(long code, double[] values, double scale) {
+        double value = evaluateCode(code, values);
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        return Math.round(value * scale) / scale;
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.gkane1234;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+    Answers independent (values, goal) queries that arrive concurrently over one expression list, a batch of them per scan of the list.
+
+    Queries are queued as they are submitted. A single dispatcher thread takes every query that is waiting, up to getMaxBatchSize(),
+    and answers them together with EvaluationEngine.findSolutions, so every expression is read from memory once for the whole batch
+    instead of once per query. While a batch runs, new queries wait for the next one, so under load the batches grow by themselves
+    and when queries are rare each is answered on its own without waiting.
+
+    The dispatcher is a daemon thread, so a batcher that is not shut down does not keep the JVM alive.
+*/
+public class QueryBatcher {
+
+    /**
+        The default most queries answered in one scan.
+    */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final ExpressionList expressionList;
+    private final EvaluationEngine engine;
+    private final int rounding;
+    private final int maxBatchSize;
+    private final BlockingQueue<Query> pending = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    // guarded by this, so that no query is queued after STOP
+    private boolean shutdown;
+
+    /**
+        Constructor for a QueryBatcher that starts its dispatcher thread.
+        @param expressionList: an <code>ExpressionList</code> every query is answered over.
+        @param engine: an <code>EvaluationEngine</code> representing the pool every batch runs on.
+        @param rounding: an <code>int</code> representing the number of decimal places to round to.
+        @param maxBatchSize: an <code>int</code> representing the most queries answered in one scan.
+    */
+    public QueryBatcher(ExpressionList expressionList, EvaluationEngine engine, int rounding, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: "+maxBatchSize);
+        }
+        this.expressionList = expressionList;
+        this.engine = engine;
+        this.rounding = rounding;
+        this.maxBatchSize = maxBatchSize;
+        this.dispatcher = new Thread(this::dispatch, "QueryBatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+        Returns the most queries answered in one scan.
+        @return an <code>int</code> representing the largest batch.
+    */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+        Queues a query to be answered with the next batch.
+        @param values: a <code>double[]</code> representing the values to use, as many as the list has.
+        @param goal: a <code>double</code> representing the goal.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @return a <code>CompletableFuture&lt;SolutionList&gt;</code> completed with the solutions once the batch of the query has run.
+        @throws RejectedExecutionException if the batcher was shut down.
+    */
+    public CompletableFuture<SolutionList> submit(double[] values, double goal, int maxSolutions) {
+        if (values.length != expressionList.getNumValues()) {
+            throw new IllegalArgumentException("The list has "+expressionList.getNumValues()+" values, not "+values.length);
+        }
+        Query query = new Query(values.clone(), goal, maxSolutions);
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The QueryBatcher was shut down");
+            }
+            pending.add(query);
+        }
+        return query.result;
+    }
+
+    /**
+        Stops taking queries. Queries already queued are still answered.
+    */
+    public synchronized void shutdown() {
+        if (!shutdown) {
+            shutdown = true;
+            pending.add(Query.STOP);
+        }
+    }
+
+    private void dispatch() {
+        List<Query> batch = new ArrayList<>(maxBatchSize);
+        boolean stopping = false;
+        while (true) {
+            try {
+                // after shutdown, only the queries that were queued before it are answered
+                Query first = stopping ? pending.poll() : pending.take();
+                if (first == null) {
+                    return;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failPending(new RejectedExecutionException("The QueryBatcher dispatcher was interrupted"));
+                return;
+            }
+            pending.drainTo(batch, maxBatchSize-1);
+            stopping |= batch.remove(Query.STOP);
+            if (!batch.isEmpty()) {
+                run(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    private void run(List<Query> batch) {
+        int batchSize = batch.size();
+        double[][] valueTuples = new double[batchSize][];
+        double[] goals = new double[batchSize];
+        int[] maxSolutions = new int[batchSize];
+        for (int q = 0; q < batchSize; q++) {
+            valueTuples[q] = batch.get(q).values;
+            goals[q] = batch.get(q).goal;
+            maxSolutions[q] = batch.get(q).maxSolutions;
+        }
+        try {
+            SolutionList[] solutions = engine.findSolutions(expressionList, valueTuples, goals, rounding, maxSolutions);
+            for (int q = 0; q < batchSize; q++) {
+                batch.get(q).result.complete(solutions[q]);
+            }
+        } catch (Throwable e) {
+            // an Error must not end the dispatcher either, or every later query would wait forever
+            for (Query query : batch) {
+                query.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+        Fails every query still queued, once the dispatcher can no longer answer them.
+    */
+    private void failPending(Throwable cause) {
+        synchronized (this) {
+            shutdown = true;
+        }
+        for (Query query = pending.poll(); query != null; query = pending.poll()) {
+            query.result.completeExceptionally(cause);
+        }
+    }
+
+    /**
+        A query waiting for its batch, and the future its solutions are given to.
+    */
+    private static final class Query {
+        static final Query STOP = new Query(new double[0], 0, 0);
+
+        final double[] values;
+        final double goal;
+        final int maxSolutions;
+        final CompletableFuture<SolutionList> result = new CompletableFuture<>();
+
+        Query(double[] values, double goal, int maxSolutions) {
+            this.values = values;
+            this.goal = goal;
+            this.maxSolutions = maxSolutions;
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+    Answers goal queries for a single set of values without a precomputed expression list.
+
+    The values reachable from every proper subset of the values are computed bottom-up: a subset is split into every pair of
+    disjoint nonempty subsets, and every value of the first is combined with every value of the second by every operation,
+    in both orders when the operation is not commutative, the same way Expression.createCombinedExpressions does.
+    Values are deduped after rounding, and for each one the split, the two operands and the operation that first reached it are kept,
+    so a witness expression can be rebuilt on demand.
+
+    Only subsets of up to n-2 values are stored, since the reachable values grow roughly tenfold with every value,
+    and subsets holding the same values share what they reach.
+    A goal is searched for at the root: for every split of the values into two subsets and every value of the stored side, the value the
+    other side needs for an operation to hit the goal (goal-a, a/goal and so on) is looked up in the other side. When the other side has n-1
+    values it is not stored, and the needed value is searched for the same way, one level down.
+    Custom operations, see Operation.getKind, cannot be inverted, so with them every proper subset is stored and every pair is combined.
+
+    The work grows with the number of distinct values the subsets reach, so the solver answers queries for more values than
+    the stored expression lists cover, but building the subsets of 6 values already takes seconds.
+*/
+public class ReachabilitySolver {
+
+    /**
+        The largest number of values a ReachabilitySolver accepts.
+    */
+    public static final int MAX_VALUES = 16;
+
+    private final double[] values;
+    private final int numValues;
+    private final int fullMask;
+    private final double scale;
+    private final Operation[] operations;
+    private final int maxStoredSize;
+    private final Reach[] reaches;
+    private final int[] owners;
+
+    /**
+        Constructor for a ReachabilitySolver, which computes the values reachable from every proper subset of the values.
+        @param values: a <code>double[]</code> representing the values to use.
+        @param rounding: an <code>int</code> representing the number of decimal places values are rounded to before they are compared.
+    */
+    public ReachabilitySolver(double[] values, int rounding) {
+        if (values.length < 1 || values.length > MAX_VALUES) {
+            throw new IllegalArgumentException("A ReachabilitySolver needs between 1 and "+MAX_VALUES+" values, not "+values.length);
+        }
+        this.values = values.clone();
+        this.numValues = values.length;
+        this.fullMask = (1 << numValues)-1;
+        this.scale = CompiledExpressionList.getScale(rounding);
+        this.operations = Operation.getOperations();
+        this.reaches = new Reach[fullMask];
+        this.owners = new int[fullMask];
+        boolean invertible = true;
+        for (Operation operation : operations) {
+            invertible &= GoalInversion.isInvertible(operation);
+        }
+        this.maxStoredSize = invertible ? Math.max(numValues-2, 1) : numValues-1;
+        // subsets holding the same values, such as two hands with a pair, reach the same values and share them
+        Map<String, Integer> ownersByValues = new HashMap<>();
+        // every proper submask is smaller than its mask, so the parts of a split are always done first
+        for (int mask = 1; mask < fullMask; mask++) {
+            int size = Integer.bitCount(mask);
+            if (size > maxStoredSize) {
+                continue;
+            }
+            Integer owner = ownersByValues.putIfAbsent(Arrays.toString(sortedValues(mask)), mask);
+            if (owner != null) {
+                owners[mask] = owner;
+                reaches[mask] = reaches[owner];
+            } else if (size == 1) {
+                owners[mask] = mask;
+                reaches[mask] = new Reach(1);
+                reaches[mask].add(values[Integer.numberOfTrailingZeros(mask)], key(values[Integer.numberOfTrailingZeros(mask)]), 0, 0, 0, (byte) 0);
+            } else {
+                owners[mask] = mask;
+                reaches[mask] = combineSplits(mask);
+            }
+        }
+    }
+
+    /**
+        Constructor for a ReachabilitySolver, which computes the values reachable from every proper subset of the values.
+        @param values: an <code>int[]</code> representing the values to use.
+        @param rounding: an <code>int</code> representing the number of decimal places values are rounded to before they are compared.
+    */
+    public ReachabilitySolver(int[] values, int rounding) {
+        this(toDoubles(values), rounding);
+    }
+
+    /**
+        Returns the values the solver was created with.
+        @return a <code>double[]</code> representing the values.
+    */
+    public double[] getValues() {
+        return values.clone();
+    }
+
+    /**
+        Returns the distinct values reachable from a stored subset of the values.
+        @param mask: an <code>int</code> with a bit set for every value in the subset.
+        @return a <code>double[]</code> representing the reachable values, in the order they were first reached.
+        @throws IllegalArgumentException if the subset is not stored, see getMaxStoredSize.
+    */
+    public double[] getReachableValues(int mask) {
+        if (mask <= 0 || mask >= fullMask || reaches[mask] == null) {
+            throw new IllegalArgumentException("Reachable values are not stored for "+Integer.toBinaryString(mask));
+        }
+        Reach reach = reaches[mask];
+        double[] reachable = new double[reach.size];
+        System.arraycopy(reach.values, 0, reachable, 0, reach.size);
+        return reachable;
+    }
+
+    /**
+        Returns the size of the largest subsets whose reachable values are stored.
+        @return an <code>int</code> representing the number of values in the largest stored subsets.
+    */
+    public int getMaxStoredSize() {
+        return maxStoredSize;
+    }
+
+    /**
+        Checks whether the values can make a goal.
+        @param goal: a <code>double</code> representing the goal.
+        @return a <code>boolean</code> representing whether any expression of all the values evaluates to the goal.
+    */
+    public boolean canMake(double goal) {
+        return findFirstSolution(goal) != null;
+    }
+
+    /**
+        Finds an expression of all the values that evaluates to a goal.
+        @param goal: a <code>double</code> representing the goal.
+        @return an <code>EvaluatedExpression</code> representing a solution, null if there is none.
+    */
+    public EvaluatedExpression findFirstSolution(double goal) {
+        SolutionList solutions = findSolutions(goal, 1);
+        if (solutions.getNumSolutions() == 0) {
+            return null;
+        }
+        return solutions.getEvaluatedExpressionList().iterator().next();
+    }
+
+    /**
+        Finds up to maxSolutions expressions of all the values that evaluate to a goal.
+        Every solution has a different root: a different split, operation or pair of operands.
+        Unlike the expressions of an ExpressionList, two solutions can still be equivalent, for example (a+b)+c and a+(b+c).
+        @param goal: a <code>double</code> representing the goal.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
+    public SolutionList findSolutions(double goal, int maxSolutions) {
+        SolutionList solutions = new SolutionList(values, goal);
+        if (maxSolutions <= 0) {
+            return solutions;
+        }
+        if (numValues == 1) {
+            if (Solver.equal(values[0], goal)) {
+                solutions.addEvaluatedExpression(new EvaluatedExpression(leaf(0), values, goal));
+            }
+            return solutions;
+        }
+        searchSplits(fullMask, goal, (expression, value) -> {
+            solutions.addEvaluatedExpression(new EvaluatedExpression(expression, values, goal));
+            return solutions.getNumSolutions() < maxSolutions;
+        });
+        return solutions;
+    }
+
+    /**
+        Receives an expression of a subset that hits a target, with the value it evaluates to.
+    */
+    private interface HitConsumer {
+        /**
+            @return a <code>boolean</code> representing whether to keep searching.
+        */
+        boolean accept(Expression expression, double value);
+    }
+
+    /**
+        Searches every split of a subset for expressions (x op y) that evaluate to a goal.
+        @param mask: an <code>int</code> representing the subset.
+        @param goal: a <code>double</code> representing the goal.
+        @param consumer: a <code>HitConsumer</code> that receives the hits.
+        @return a <code>boolean</code> representing whether the search ran to the end.
+    */
+    private boolean searchSplits(int mask, double goal, HitConsumer consumer) {
+        int lowestBit = mask & -mask;
+        for (int first = (mask-1) & mask; first > 0; first = (first-1) & mask) {
+            if ((first & lowestBit) == 0) {
+                continue;
+            }
+            int second = mask ^ first;
+            for (byte opCode = 0; opCode < operations.length; opCode++) {
+                if (!searchSplit(first, second, opCode, goal, consumer)) {
+                    return false;
+                }
+                if (!operations[opCode].isCommutative() && !searchSplit(second, first, opCode, goal, consumer)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+        Searches for expressions (x op y) with x from one subset and y from another that evaluate to a goal.
+        The values of a stored side are probed, and the operand each needs is looked up in the other side,
+        which is searched recursively when it is not stored.
+        @return a <code>boolean</code> representing whether the search ran to the end.
+    */
+    private boolean searchSplit(int firstMask, int secondMask, byte opCode, double goal, HitConsumer consumer) {
+        Reach first = reaches[firstMask];
+        Reach second = reaches[secondMask];
+        Operation operation = operations[opCode];
+        if (!GoalInversion.isInvertible(operation)) {
+            // every subset is stored when an operation cannot be inverted
+            for (int i = 0; i < first.size; i++) {
+                for (int j = 0; j < second.size; j++) {
+                    double result = operation.apply(first.values[i], second.values[j]);
+                    if (!Double.isNaN(result) && Solver.equal(result, goal)
+                            && !consumer.accept(Expression.combineExpressions(witness(firstMask, i), witness(secondMask, j), opCode), result)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        boolean knownFirst = second == null || (first != null && first.size <= second.size);
+        Reach known = knownFirst ? first : second;
+        int knownMask = knownFirst ? firstMask : secondMask;
+        int targetMask = knownFirst ? secondMask : firstMask;
+        for (int k = 0; k < known.size; k++) {
+            double knownValue = known.values[k];
+            double needed = GoalInversion.neededOperand(operation.getKind(), knownValue, goal, knownFirst);
+            if (Double.isNaN(needed)) {
+                continue;
+            }
+            int knownIndex = k;
+            HitConsumer combiner = (targetExpression, targetValue) -> {
+                double result = knownFirst ? operation.apply(knownValue, targetValue) : operation.apply(targetValue, knownValue);
+                if (Double.isNaN(result) || !Solver.equal(result, goal)) {
+                    return true;
+                }
+                Expression knownExpression = witness(knownMask, knownIndex);
+                return consumer.accept(knownFirst
+                    ? Expression.combineExpressions(knownExpression, targetExpression, opCode)
+                    : Expression.combineExpressions(targetExpression, knownExpression, opCode), result);
+            };
+            boolean searching;
+            if (Double.isInfinite(needed)) {
+                // every operand works, apart from those the operation is undefined on
+                searching = searchValues(targetMask, value -> true, combiner);
+            } else if (reaches[targetMask] != null) {
+                searching = lookup(targetMask, needed, combiner);
+            } else {
+                searching = searchSplits(targetMask, needed, combiner);
+            }
+            if (!searching) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+        Looks up the values of a stored subset that round to a target or to one of its neighbours.
+        @return a <code>boolean</code> representing whether the search ran to the end.
+    */
+    private boolean lookup(int mask, double target, HitConsumer consumer) {
+        Reach reach = reaches[mask];
+        if (!GoalInversion.hasNeighbours(target, scale)) {
+            int index = reach.index.get(key(target));
+            return index == Reach.NO_ENTRY || consumer.accept(witness(mask, index), reach.values[index]);
+        }
+        for (int delta = -1; delta <= 1; delta++) {
+            int index = reach.index.get(GoalInversion.neighbourKey(target, scale, delta));
+            if (index != Reach.NO_ENTRY && !consumer.accept(witness(mask, index), reach.values[index])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+        Passes every value of a subset that is accepted by a predicate to a consumer.
+        A subset that is not stored is split into stored subsets and every pair is combined.
+        @return a <code>boolean</code> representing whether the search ran to the end.
+    */
+    private boolean searchValues(int mask, DoublePredicate accept, HitConsumer consumer) {
+        Reach reach = reaches[mask];
+        if (reach != null) {
+            for (int i = 0; i < reach.size; i++) {
+                if (accept.test(reach.values[i]) && !consumer.accept(witness(mask, i), reach.values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int lowestBit = mask & -mask;
+        for (int first = (mask-1) & mask; first > 0; first = (first-1) & mask) {
+            if ((first & lowestBit) == 0) {
+                continue;
+            }
+            int second = mask ^ first;
+            for (byte opCode = 0; opCode < operations.length; opCode++) {
+                if (!searchPairs(first, second, opCode, accept, consumer)
+                        || (!operations[opCode].isCommutative() && !searchPairs(second, first, opCode, accept, consumer))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean searchPairs(int firstMask, int secondMask, byte opCode, DoublePredicate accept, HitConsumer consumer) {
+        Reach first = reaches[firstMask];
+        Reach second = reaches[secondMask];
+        for (int i = 0; i < first.size; i++) {
+            for (int j = 0; j < second.size; j++) {
+                double result = operations[opCode].apply(first.values[i], second.values[j]);
+                if (!Double.isNaN(result) && !Double.isInfinite(result) && accept.test(result)
+                        && !consumer.accept(Expression.combineExpressions(witness(firstMask, i), witness(secondMask, j), opCode), result)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+        Rebuilds an expression that reaches a value of a stored subset.
+        @param mask: an <code>int</code> representing the subset.
+        @param index: an <code>int</code> representing the index of the value in the subset.
+        @return an <code>Expression</code> that evaluates to the value.
+    */
+    private Expression witness(int mask, int index) {
+        int owner = owners[mask];
+        if (owner != mask) {
+            Expression shared = witness(owner, index);
+            byte[] positionMap = positionMap(owner, mask);
+            byte[] valueOrder = new byte[shared.valueOrder.length];
+            for (int i = 0; i < valueOrder.length; i++) {
+                valueOrder[i] = positionMap[shared.valueOrder[i]];
+            }
+            return new Expression(valueOrder, shared.operations, shared.order);
+        }
+        Reach reach = reaches[mask];
+        int firstMask = reach.firstMasks[index];
+        if (firstMask == 0) {
+            return leaf(Integer.numberOfTrailingZeros(mask));
+        }
+        int secondMask = (mask & ~firstMask);
+        return Expression.combineExpressions(witness(firstMask, reach.firstIndices[index]), witness(secondMask, reach.secondIndices[index]), reach.opCodes[index]);
+    }
+
+    /**
+        Pairs the positions of two subsets holding the same values, by sorting the positions of each by value.
+        @param from: an <code>int</code> representing the subset the positions are mapped from.
+        @param to: an <code>int</code> representing the subset holding the same values.
+        @return a <code>byte[]</code> mapping every position of from to the position of to with the same value.
+    */
+    private byte[] positionMap(int from, int to) {
+        byte[] map = new byte[numValues];
+        int[] fromPositions = positionsByValue(from);
+        int[] toPositions = positionsByValue(to);
+        for (int i = 0; i < fromPositions.length; i++) {
+            map[fromPositions[i]] = (byte) toPositions[i];
+        }
+        return map;
+    }
+
+    private int[] positionsByValue(int mask) {
+        Integer[] positions = new Integer[Integer.bitCount(mask)];
+        for (int i = 0, remaining = mask; remaining != 0; i++, remaining &= remaining-1) {
+            positions[i] = Integer.numberOfTrailingZeros(remaining);
+        }
+        Arrays.sort(positions, (a, b) -> Double.compare(values[a], values[b]));
+        int[] sorted = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            sorted[i] = positions[i];
+        }
+        return sorted;
+    }
+
+    private double[] sortedValues(int mask) {
+        double[] subset = new double[Integer.bitCount(mask)];
+        for (int i = 0, remaining = mask; remaining != 0; i++, remaining &= remaining-1) {
+            subset[i] = values[Integer.numberOfTrailingZeros(remaining)];
+        }
+        Arrays.sort(subset);
+        return subset;
+    }
+
+    private static Expression leaf(int valueIndex) {
+        return new Expression(new byte[]{(byte) valueIndex}, new byte[0], new boolean[]{true});
+    }
+
+    /**
+        Combines every split of a subset into the values the subset reaches.
+        @param mask: an <code>int</code> representing the subset.
+        @return a <code>Reach</code> representing the values reached.
+    */
+    private Reach combineSplits(int mask) {
+        Reach reach = new Reach(16);
+        int lowestBit = mask & -mask;
+        for (int first = (mask-1) & mask; first > 0; first = (first-1) & mask) {
+            if ((first & lowestBit) == 0) {
+                continue;
+            }
+            int second = mask ^ first;
+            for (byte opCode = 0; opCode < operations.length; opCode++) {
+                combine(reach, first, second, opCode);
+                if (!operations[opCode].isCommutative()) {
+                    combine(reach, second, first, opCode);
+                }
+            }
+        }
+        return reach;
+    }
+
+    private void combine(Reach reach, int firstMask, int secondMask, byte opCode) {
+        Reach first = reaches[firstMask];
+        Reach second = reaches[secondMask];
+        Operation operation = operations[opCode];
+        for (int i = 0; i < first.size; i++) {
+            double a = first.values[i];
+            for (int j = 0; j < second.size; j++) {
+                double result = operation.apply(a, second.values[j]);
+                if (!Double.isNaN(result) && !Double.isInfinite(result)) {
+                    reach.add(result, key(result), firstMask, i, j, opCode);
+                }
+            }
+        }
+    }
+
+    private long key(double value) {
+        return GoalInversion.key(value, scale);
+    }
+
+    private static double[] toDoubles(int[] values) {
+        double[] doubleValues = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubleValues[i] = values[i];
+        }
+        return doubleValues;
+    }
+
+    /**
+        The distinct values reached by a subset and how each was first reached.
+        A value with firstMask 0 is one of the original values.
+    */
+    private static final class Reach {
+        static final int NO_ENTRY = -1;
+
+        double[] values;
+        int[] firstMasks;
+        int[] firstIndices;
+        int[] secondIndices;
+        byte[] opCodes;
+        int size;
+        final TLongIntHashMap index = new TLongIntHashMap(16, 0.5f, Long.MIN_VALUE, NO_ENTRY);
+
+        Reach(int capacity) {
+            values = new double[capacity];
+            firstMasks = new int[capacity];
+            firstIndices = new int[capacity];
+            secondIndices = new int[capacity];
+            opCodes = new byte[capacity];
+        }
+
+        void add(double value, long key, int firstMask, int firstIndex, int secondIndex, byte opCode) {
+            if (index.putIfAbsent(key, size) != NO_ENTRY) {
+                return;
+            }
+            if (size == values.length) {
+                int capacity = size*2;
+                values = Arrays.copyOf(values, capacity);
+                firstMasks = Arrays.copyOf(firstMasks, capacity);
+                firstIndices = Arrays.copyOf(firstIndices, capacity);
+                secondIndices = Arrays.copyOf(secondIndices, capacity);
+                opCodes = Arrays.copyOf(opCodes, capacity);
+            }
+            values[size] = value;
+            firstMasks[size] = firstMask;
+            firstIndices[size] = firstIndex;
+            secondIndices[size] = secondIndex;
+            opCodes[size] = opCode;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.gkane1234;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+    The integers of a range that some expression of a list evaluates to, for one set of values.
+
+    Every integer of the range is one bit of a bitmap that the tasks of EvaluationEngine.findReachableIntegers set concurrently,
+    so the memory used depends on the size of the range and not on the size of the list.
+    Optionally the lowest index of an expression that evaluates to each integer is kept as well, as a witness.
+*/
+public class ReachableIntegers {
+
+    private static final long NO_WITNESS = Long.MAX_VALUE;
+
+    private final int low;
+    private final int high;
+    private final AtomicLongArray bits;
+    private final AtomicLongArray witnesses;
+
+    /**
+        Constructor for an empty ReachableIntegers.
+        @param low: an <code>int</code> representing the lowest integer of the range.
+        @param high: an <code>int</code> representing the highest integer of the range.
+        @param keepWitnesses: a <code>boolean</code> representing whether to keep the lowest index of an expression for every integer.
+    */
+    ReachableIntegers(int low, int high, boolean keepWitnesses) {
+        if (high < low) {
+            throw new IllegalArgumentException("The range ["+low+","+high+"] is empty");
+        }
+        long size = (long) high-low+1;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The range ["+low+","+high+"] is too large");
+        }
+        this.low = low;
+        this.high = high;
+        this.bits = new AtomicLongArray((int) ((size+63) >>> 6));
+        if (keepWitnesses) {
+            this.witnesses = new AtomicLongArray((int) size);
+            for (int i = 0; i < size; i++) {
+                witnesses.set(i, NO_WITNESS);
+            }
+        } else {
+            this.witnesses = null;
+        }
+    }
+
+    /**
+        Records that an expression evaluates to an integer. Integers outside the range are ignored. Safe to call from several threads.
+        @param value: an <code>int</code> representing the integer.
+        @param index: a <code>long</code> representing the index of the expression.
+    */
+    void add(int value, long index) {
+        if (value < low || value > high) {
+            return;
+        }
+        int offset = value-low;
+        long mask = 1L << offset;
+        if ((bits.get(offset >>> 6) & mask) == 0) {
+            bits.getAndAccumulate(offset >>> 6, mask, (word, bit) -> word | bit);
+        }
+        if (witnesses != null && index < witnesses.get(offset)) {
+            witnesses.accumulateAndGet(offset, index, Math::min);
+        }
+    }
+
+    /**
+        Returns the lowest integer of the range.
+        @return an <code>int</code> representing the lowest integer.
+    */
+    public int getLow() {
+        return low;
+    }
+
+    /**
+        Returns the highest integer of the range.
+        @return an <code>int</code> representing the highest integer.
+    */
+    public int getHigh() {
+        return high;
+    }
+
+    /**
+        Checks whether an integer is inside the range, so whether contains answers for it.
+        @param value: an <code>int</code> to check.
+        @return a <code>boolean</code> representing whether the integer is in the range.
+    */
+    public boolean covers(int value) {
+        return value >= low && value <= high;
+    }
+
+    /**
+        Checks whether some expression evaluates to an integer.
+        @param value: an <code>int</code> in the range to check.
+        @return a <code>boolean</code> representing whether the integer can be made.
+        @throws IllegalArgumentException if the integer is outside the range.
+    */
+    public boolean contains(int value) {
+        if (!covers(value)) {
+            throw new IllegalArgumentException(value+" is outside the range ["+low+","+high+"]");
+        }
+        int offset = value-low;
+        return (bits.get(offset >>> 6) & (1L << offset)) != 0;
+    }
+
+    /**
+        Returns the number of integers of the range that can be made.
+        @return an <code>int</code> representing the number of integers.
+    */
+    public int count() {
+        int count = 0;
+        for (int w = 0; w < bits.length(); w++) {
+            count += Long.bitCount(bits.get(w));
+        }
+        return count;
+    }
+
+    /**
+        Returns the lowest index of an expression that evaluates to an integer.
+        @param value: an <code>int</code> to look up.
+        @return a <code>long</code> representing the index, -1 if the integer cannot be made or is outside the range.
+        @throws IllegalStateException if witnesses were not kept.
+    */
+    public long getWitness(int value) {
+        if (witnesses == null) {
+            throw new IllegalStateException("Witnesses were not kept");
+        }
+        if (!covers(value)) {
+            return -1;
+        }
+        long witness = witnesses.get(value-low);
+        return witness == NO_WITNESS ? -1 : witness;
+    }
+}
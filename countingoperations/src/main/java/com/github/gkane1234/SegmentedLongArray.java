@@ -0,0 +1,145 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+
+/**
+    A growable array of longs on the heap that is indexed by a long.
+
+    The values are kept in segments of 2^24 longs (128 MiB), so the array is not limited by the size of a single Java array,
+    and a segment is only allocated once a value in it is written, no longer than the array needs. Unwritten values read as zero,
+    so the array can be created with the capacity of a whole expression list and only use the memory it fills.
+    Writes are not thread-safe.
+*/
+public class SegmentedLongArray implements LongArray {
+    private static final int SEGMENT_SHIFT = 24;
+    private static final int SEGMENT_SIZE = 1<<SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE-1;
+
+    private long[][] segments;
+    private long length;
+
+    /**
+        Constructor for a SegmentedLongArray.
+        @param length: a <code>long</code> representing the number of longs in the array.
+    */
+    public SegmentedLongArray(long length) {
+        this.length = length;
+        this.segments = new long[getNumSegments(length)][];
+    }
+
+    /**
+        Creates a SegmentedLongArray holding a copy of an array.
+        @param values: a <code>long[]</code> representing the values to copy.
+        @return a <code>SegmentedLongArray</code> with the same values.
+    */
+    public static SegmentedLongArray of(long[] values) {
+        SegmentedLongArray array = new SegmentedLongArray(values.length);
+        for (int i = 0; i < array.segments.length; i++) {
+            int start = i << SEGMENT_SHIFT;
+            array.segments[i] = new long[array.getSegmentLength(i)];
+            System.arraycopy(values, start, array.segments[i], 0, array.segments[i].length);
+        }
+        return array;
+    }
+
+    @Override
+    public long get(long index) {
+        long[] segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        return segment == null ? 0 : segment[(int) (index & SEGMENT_MASK)];
+    }
+
+    /**
+        Sets a value in the array.
+        @param index: a <code>long</code> representing the index of the value.
+        @param value: a <code>long</code> representing the value.
+    */
+    public void set(long index, long value) {
+        segmentFor(index)[(int) (index & SEGMENT_MASK)] = value;
+    }
+
+    /**
+        Combines a value in the array with some bits using a bitwise or.
+        @param index: a <code>long</code> representing the index of the value.
+        @param bits: a <code>long</code> representing the bits to set.
+    */
+    public void or(long index, long bits) {
+        segmentFor(index)[(int) (index & SEGMENT_MASK)] |= bits;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    /**
+        Grows the array to a new length if it is shorter, keeping its values.
+        @param newLength: a <code>long</code> representing the new length.
+    */
+    public void ensureLength(long newLength) {
+        if (newLength <= length) {
+            return;
+        }
+        int numSegments = getNumSegments(newLength);
+        if (numSegments > segments.length) {
+            long[][] newSegments = new long[Math.max(numSegments, segments.length*2)][];
+            System.arraycopy(segments, 0, newSegments, 0, segments.length);
+            segments = newSegments;
+        }
+        int lastSegment = getNumSegments(length)-1;
+        length = newLength;
+        if (lastSegment >= 0 && segments[lastSegment] != null) {
+            segments[lastSegment] = Arrays.copyOf(segments[lastSegment], getSegmentLength(lastSegment));
+        }
+    }
+
+    /**
+        Allocates every segment of the array that is not allocated yet.
+        After this, threads can write to different indices at the same time, since no write allocates a segment.
+    */
+    public void allocate() {
+        for (int i = 0; i < getNumSegments(length); i++) {
+            if (segments[i] == null) {
+                segments[i] = new long[getSegmentLength(i)];
+            }
+        }
+    }
+
+    /**
+        Copies the array into a single array.
+        @return a <code>long[]</code> representing the values.
+        @throws IllegalStateException if there are too many values for a single array.
+    */
+    public long[] toArray() {
+        if (length > Integer.MAX_VALUE-8) {
+            throw new IllegalStateException("Cannot copy "+length+" longs into a single array");
+        }
+        long[] values = new long[(int) length];
+        for (int i = 0; i < segments.length && ((long) i << SEGMENT_SHIFT) < length; i++) {
+            if (segments[i] != null) {
+                System.arraycopy(segments[i], 0, values, i << SEGMENT_SHIFT, getSegmentLength(i));
+            }
+        }
+        return values;
+    }
+
+    private long[] segmentFor(long index) {
+        if (index >= length) {
+            throw new ArrayIndexOutOfBoundsException("Index "+index+" is out of bounds for length "+length);
+        }
+        int segmentIndex = (int) (index >>> SEGMENT_SHIFT);
+        long[] segment = segments[segmentIndex];
+        if (segment == null) {
+            segment = new long[getSegmentLength(segmentIndex)];
+            segments[segmentIndex] = segment;
+        }
+        return segment;
+    }
+
+    private int getSegmentLength(int segmentIndex) {
+        return (int) Math.min(SEGMENT_SIZE, length-((long) segmentIndex << SEGMENT_SHIFT));
+    }
+
+    private static int getNumSegments(long length) {
+        return Math.toIntExact((length+SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+}
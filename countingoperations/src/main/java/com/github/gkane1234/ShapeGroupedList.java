@@ -0,0 +1,226 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+    The expressions of a compiled list grouped by shape, so that a whole group is evaluated with straight-line loops.
+
+    Two expressions are in the same group when they have the same order (which positions of the program push a value,
+    see ExpressionCompression) and the same sequence of operations, so they only differ in their value orders.
+    A group is evaluated the way LaneEvaluator evaluates lanes, with the expressions of the group as the lanes: the program of the group
+    is read once, a push gathers the value every expression puts in that slot, and an operation is one loop over the group with no branch per expression.
+
+    Groups are small when there are few expressions per shape, so grouping is not always faster than evaluating one program at a time.
+    ExpressionList.isGroupedFaster times both and remembers the faster one.
+*/
+public class ShapeGroupedList {
+
+    private final int numValues;
+    private final int programLength;
+    private final int numExpressions;
+    private final Operation[] operations;
+    private final int numGroups;
+    private final int[] groupStarts;
+    private final byte[] groupPrograms;
+    private final int[] expressionIndices;
+    private final byte[] valueOrders;
+    private final int maxGroupSize;
+
+    private ShapeGroupedList(int numValues, int numExpressions, Operation[] operations, int numGroups, int[] groupStarts, byte[] groupPrograms, int[] expressionIndices, byte[] valueOrders) {
+        this.numValues = numValues;
+        this.programLength = 2*numValues-1;
+        this.numExpressions = numExpressions;
+        this.operations = operations;
+        this.numGroups = numGroups;
+        this.groupStarts = groupStarts;
+        this.groupPrograms = groupPrograms;
+        this.expressionIndices = expressionIndices;
+        this.valueOrders = valueOrders;
+        int largest = 0;
+        for (int g = 0; g < numGroups; g++) {
+            largest = Math.max(largest, groupStarts[g+1]-groupStarts[g]);
+        }
+        this.maxGroupSize = largest;
+    }
+
+    /**
+        Groups the expressions of a compiled list by shape and sequence of operations.
+        @param compiledList: a <code>CompiledExpressionList</code> to group.
+        @return a <code>ShapeGroupedList</code> representing the grouped list.
+        @throws IllegalArgumentException if the shapes of the list do not fit in a long, with too many values or operations.
+    */
+    public static ShapeGroupedList group(CompiledExpressionList compiledList) {
+        int numValues = compiledList.getNumValues();
+        int numExpressions = compiledList.size();
+        int programLength = 2*numValues-1;
+        byte[] program = compiledList.getProgram();
+        Operation[] operations = compiledList.getOperations();
+        int operationBits = 32-Integer.numberOfLeadingZeros(Math.max(operations.length-1, 1));
+        if (1+numValues+(numValues-1)*(1+operationBits) > 63) {
+            throw new IllegalArgumentException("The shapes of expressions of "+numValues+" values with "+operations.length+" operations do not fit in a long");
+        }
+
+        // first pass: the group of every expression and the size of every group
+        TLongIntHashMap groupsByShape = new TLongIntHashMap(1024, 0.5f, Long.MIN_VALUE, -1);
+        int[] groupOf = new int[numExpressions];
+        int[] groupSizes = new int[16];
+        int[] firstExpressions = new int[16];
+        int numGroups = 0;
+        for (int i = 0; i < numExpressions; i++) {
+            long shape = 1;
+            for (int p = i*programLength, end = p+programLength; p < end; p++) {
+                byte code = program[p];
+                shape = code >= 0 ? shape << 1 | 1 : (shape << (1+operationBits)) | ((-code-1) << 1);
+            }
+            int group = groupsByShape.putIfAbsent(shape, numGroups);
+            if (group == -1) {
+                group = numGroups++;
+                if (group == groupSizes.length) {
+                    groupSizes = Arrays.copyOf(groupSizes, group*2);
+                    firstExpressions = Arrays.copyOf(firstExpressions, group*2);
+                }
+                firstExpressions[group] = i;
+            }
+            groupOf[i] = group;
+            groupSizes[group]++;
+        }
+
+        int[] groupStarts = new int[numGroups+1];
+        byte[] groupPrograms = new byte[numGroups*programLength];
+        for (int g = 0; g < numGroups; g++) {
+            groupStarts[g+1] = groupStarts[g]+groupSizes[g];
+            // the program of a group pushes slots instead of values: slot k is the k-th value an expression pushes
+            int slot = 0;
+            for (int p = 0; p < programLength; p++) {
+                byte code = program[firstExpressions[g]*programLength+p];
+                groupPrograms[g*programLength+p] = code >= 0 ? (byte) slot++ : code;
+            }
+        }
+
+        // second pass: the expressions of every group, with the value each puts in every slot stored slot by slot
+        int[] expressionIndices = new int[numExpressions];
+        byte[] valueOrders = new byte[Math.multiplyExact(numExpressions, numValues)];
+        int[] filled = new int[numGroups];
+        for (int i = 0; i < numExpressions; i++) {
+            int group = groupOf[i];
+            int start = groupStarts[group];
+            int size = groupStarts[group+1]-start;
+            int member = filled[group]++;
+            expressionIndices[start+member] = i;
+            int slot = 0;
+            for (int p = i*programLength, end = p+programLength; p < end; p++) {
+                if (program[p] >= 0) {
+                    valueOrders[start*numValues+slot*size+member] = program[p];
+                    slot++;
+                }
+            }
+        }
+        return new ShapeGroupedList(numValues, numExpressions, operations, numGroups, groupStarts, groupPrograms, expressionIndices, valueOrders);
+    }
+
+    /**
+        Returns the number of groups.
+        @return an <code>int</code> representing the number of distinct shapes and sequences of operations.
+    */
+    public int getNumGroups() {
+        return numGroups;
+    }
+
+    /**
+        Returns where a group starts in the order of the groups, which is also the number of expressions in the groups before it.
+        @param group: an <code>int</code> representing the group, up to getNumGroups().
+        @return an <code>int</code> representing the number of expressions in the groups before it.
+    */
+    public int getGroupStart(int group) {
+        return groupStarts[group];
+    }
+
+    /**
+        Returns how many of the first groups hold at most a given number of expressions, but at least one group if there is any.
+        @param maxExpressions: an <code>int</code> representing the most expressions the groups may hold.
+        @return an <code>int</code> representing the number of groups from the first.
+    */
+    public int getNumGroupsWithin(int maxExpressions) {
+        int count = Math.min(1, numGroups);
+        while (count < numGroups && groupStarts[count+1] <= maxExpressions) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+        Returns the number of expressions in all groups.
+        @return an <code>int</code> representing the number of expressions.
+    */
+    public int size() {
+        return numExpressions;
+    }
+
+    /**
+        Creates scratch space large enough to evaluate any group of this list.
+        @return a <code>double[]</code> to pass to evaluate.
+    */
+    public double[] createScratch() {
+        return new double[(Math.max(numValues, 1)+1)*maxGroupSize];
+    }
+
+    /**
+        Evaluates every expression of a range of groups and rounds it the same way <code>Expression.evaluateWithValues</code> does.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places to round to, see CompiledExpressionList.getScale.
+        @param results: a <code>double[]</code> to write the value of every expression to, at its index in the list. NaN where an operation was undefined.
+        @param fromGroup: an <code>int</code> representing the first group to evaluate.
+        @param toGroup: an <code>int</code> representing the group after the last one to evaluate.
+        @param scratch: a <code>double[]</code> created by createScratch.
+    */
+    public void evaluate(double[] values, double scale, double[] results, int fromGroup, int toGroup, double[] scratch) {
+        evaluate(values, scale, fromGroup, toGroup, scratch, (index, value) -> results[(int) index] = value);
+    }
+
+    /**
+        Evaluates every expression of a range of groups, rounds it the same way <code>Expression.evaluateWithValues</code> does,
+        and passes it to a consumer instead of storing it, so the values of the whole list are never held at once.
+        @param values: a <code>double[]</code> representing the values of the expressions.
+        @param scale: a <code>double</code> equal to 10 to the power of the number of decimal places to round to, see CompiledExpressionList.getScale.
+        @param fromGroup: an <code>int</code> representing the first group to evaluate.
+        @param toGroup: an <code>int</code> representing the group after the last one to evaluate.
+        @param scratch: a <code>double[]</code> created by createScratch.
+        @param consumer: a <code>ValueConsumer</code> given the index and value of every expression, NaN where an operation was undefined.
+    */
+    public void evaluate(double[] values, double scale, int fromGroup, int toGroup, double[] scratch, ValueConsumer consumer) {
+        int maskStart = Math.max(numValues, 1)*maxGroupSize;
+        for (int g = fromGroup; g < toGroup; g++) {
+            int start = groupStarts[g];
+            int size = groupStarts[g+1]-start;
+            int slots = start*numValues;
+            Arrays.fill(scratch, maskStart, maskStart+size, Double.POSITIVE_INFINITY);
+            int top = -1;
+            for (int p = g*programLength, end = p+programLength; p < end; p++) {
+                byte code = groupPrograms[p];
+                if (code >= 0) {
+                    int destination = (++top)*size;
+                    int source = slots+code*size;
+                    for (int e = 0; e < size; e++) {
+                        scratch[destination+e] = values[valueOrders[source+e]];
+                    }
+                } else {
+                    top--;
+                    LaneEvaluator.applyToLanes(operations[-code-1], scratch, top*size, (top+1)*size, size, scratch, maskStart);
+                }
+            }
+            for (int e = 0; e < size; e++) {
+                double value = scratch[maskStart+e] == 0 ? Double.NaN : scratch[e];
+                consumer.accept(expressionIndices[start+e], Double.isNaN(value) ? value : Math.round(value * scale) / scale);
+            }
+        }
+    }
+
+    /**
+        Receives the value of an expression of a grouped list, in the order of the groups rather than the order of the list.
+    */
+    public interface ValueConsumer {
+        void accept(long index, double value);
+    }
+}
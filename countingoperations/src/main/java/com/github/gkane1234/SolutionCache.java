@@ -0,0 +1,333 @@
+package com.github.gkane1234;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+    A bounded, thread-safe cache of the solutions of queries, so that a set of values that was already solved is answered without a scan.
+
+    A query is keyed by its values sorted, its goal, its cap and its number of values, so the same hand in any order is one entry.
+    The solutions are stored with their expressions moved onto the sorted values, and moved back onto the order of the caller's values
+    when they are read, see Expression.changeValueOrder.
+
+    The least recently used entry is evicted once there are more than getMaxEntries() entries. With a spill directory an evicted entry
+    is written to a file instead of being dropped, up to a number of files, and is read back and moved into memory the next time it is asked for.
+    Spilling is best effort: an entry that cannot be written or read is dropped and counted in getSpillFailures().
+*/
+public class SolutionCache {
+
+    private final int maxEntries;
+    private final File spillDirectory;
+    private final int maxSpilledEntries;
+    private final LinkedHashMap<Key, CachedResult> entries;
+    private final LinkedHashMap<Key, File> spilled = new LinkedHashMap<>();
+    private long nextSpillId;
+
+    private long hits;
+    private long misses;
+    private long spillHits;
+    private long evictions;
+    private long spillFailures;
+
+    /**
+        Constructor for a SolutionCache that only keeps entries in memory.
+        @param maxEntries: an <code>int</code> representing the most entries kept in memory.
+    */
+    public SolutionCache(int maxEntries) {
+        this(maxEntries, null, 0);
+    }
+
+    /**
+        Constructor for a SolutionCache that spills evicted entries to files.
+        @param maxEntries: an <code>int</code> representing the most entries kept in memory.
+        @param spillDirectory: a <code>File</code> representing the directory evicted entries are written to, null to drop them.
+        @param maxSpilledEntries: an <code>int</code> representing the most entries kept on disk, the oldest file is deleted past it.
+    */
+    public SolutionCache(int maxEntries, File spillDirectory, int maxSpilledEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: "+maxEntries);
+        }
+        if (spillDirectory != null && !spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create the spill directory "+spillDirectory);
+        }
+        this.maxEntries = maxEntries;
+        this.spillDirectory = spillDirectory;
+        this.maxSpilledEntries = spillDirectory == null ? 0 : maxSpilledEntries;
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() <= SolutionCache.this.maxEntries) {
+                    return false;
+                }
+                evictions++;
+                spill(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+        Returns the cached solutions of a query, with their expressions in the order of the given values.
+        @param values: a <code>double[]</code> representing the values of the query, in any order.
+        @param goal: a <code>double</code> representing the goal of the query.
+        @param maxSolutions: an <code>int</code> representing the cap of the query.
+        @return a <code>SolutionList</code> representing the solutions, null if the query is not cached.
+    */
+    public synchronized SolutionList get(double[] values, double goal, int maxSolutions) {
+        byte[] sortedPositions = sortedPositions(values);
+        Key key = new Key(sortedValues(values, sortedPositions), goal, maxSolutions);
+        CachedResult entry = entries.get(key);
+        if (entry == null) {
+            entry = unspill(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            spillHits++;
+            entries.put(key, entry);
+        }
+        hits++;
+        SolutionList solutions = new SolutionList(values, goal);
+        for (int i = 0; i < entry.expressions.length; i++) {
+            // slot j of a stored expression is the value at position sortedPositions[j] of the caller's values
+            solutions.addEvaluatedExpression(new EvaluatedExpression(entry.expressions[i].changeValueOrder(sortedPositions), values, entry.results[i]));
+        }
+        return solutions;
+    }
+
+    /**
+        Caches the solutions of a query.
+        @param values: a <code>double[]</code> representing the values of the query, in the order the solutions use.
+        @param goal: a <code>double</code> representing the goal of the query.
+        @param maxSolutions: an <code>int</code> representing the cap of the query.
+        @param solutions: a <code>SolutionList</code> representing the solutions of the query.
+    */
+    public synchronized void put(double[] values, double goal, int maxSolutions, SolutionList solutions) {
+        byte[] sortedPositions = sortedPositions(values);
+        byte[] slots = new byte[sortedPositions.length];
+        for (byte j = 0; j < sortedPositions.length; j++) {
+            slots[sortedPositions[j]] = j;
+        }
+        int numSolutions = solutions.getNumSolutions();
+        Expression[] expressions = new Expression[numSolutions];
+        double[] results = new double[numSolutions];
+        int i = 0;
+        for (EvaluatedExpression solution : solutions.getEvaluatedExpressionList()) {
+            expressions[i] = solution.changeValueOrder(slots);
+            results[i++] = solution.getValue();
+        }
+        Key key = new Key(sortedValues(values, sortedPositions), goal, maxSolutions);
+        File file = spilled.remove(key);
+        if (file != null) {
+            file.delete();
+        }
+        entries.put(key, new CachedResult(expressions, results));
+    }
+
+    /**
+        Removes every entry, in memory and on disk. The metrics are kept.
+    */
+    public synchronized void clear() {
+        entries.clear();
+        for (File file : spilled.values()) {
+            file.delete();
+        }
+        spilled.clear();
+    }
+
+    /**
+        Returns the most entries kept in memory.
+        @return an <code>int</code> representing the capacity.
+    */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+        Returns the number of entries in memory.
+        @return an <code>int</code> representing the size.
+    */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+        Returns the number of entries spilled to disk.
+        @return an <code>int</code> representing the number of files.
+    */
+    public synchronized int getSpilledSize() {
+        return spilled.size();
+    }
+
+    /**
+        Returns the number of queries answered from the cache, in memory or on disk.
+        @return a <code>long</code> representing the hits.
+    */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+        Returns the number of queries that were not cached.
+        @return a <code>long</code> representing the misses.
+    */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+        Returns the number of hits that were read back from disk.
+        @return a <code>long</code> representing the hits on spilled entries.
+    */
+    public synchronized long getSpillHits() {
+        return spillHits;
+    }
+
+    /**
+        Returns the number of entries evicted from memory, spilled or not.
+        @return a <code>long</code> representing the evictions.
+    */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+        Returns the number of entries that could not be written to or read from disk.
+        @return a <code>long</code> representing the failures.
+    */
+    public synchronized long getSpillFailures() {
+        return spillFailures;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SolutionCache[size="+entries.size()+"/"+maxEntries+", spilled="+spilled.size()+", hits="+hits+", misses="+misses
+            +", spillHits="+spillHits+", evictions="+evictions+", spillFailures="+spillFailures+"]";
+    }
+
+    private void spill(Key key, CachedResult entry) {
+        if (maxSpilledEntries <= 0) {
+            return;
+        }
+        File file = new File(spillDirectory, "solutions_"+(nextSpillId++)+".ser");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            oos.writeObject(key);
+            oos.writeObject(entry);
+        } catch (IOException e) {
+            spillFailures++;
+            file.delete();
+            return;
+        }
+        spilled.put(key, file);
+        if (spilled.size() > maxSpilledEntries) {
+            Iterator<File> oldest = spilled.values().iterator();
+            oldest.next().delete();
+            oldest.remove();
+        }
+    }
+
+    private CachedResult unspill(Key key) {
+        File file = spilled.remove(key);
+        if (file == null) {
+            return null;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!key.equals(ois.readObject())) {
+                spillFailures++;
+                return null;
+            }
+            return (CachedResult) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            spillFailures++;
+            return null;
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+        Returns the positions of values in increasing order of value.
+    */
+    private static byte[] sortedPositions(double[] values) {
+        byte[] positions = new byte[values.length];
+        for (byte i = 0; i < values.length; i++) {
+            positions[i] = i;
+        }
+        // insertion sort, there are only a few values
+        for (int i = 1; i < positions.length; i++) {
+            byte position = positions[i];
+            int j = i-1;
+            while (j >= 0 && Double.compare(values[positions[j]], values[position]) > 0) {
+                positions[j+1] = positions[j];
+                j--;
+            }
+            positions[j+1] = position;
+        }
+        return positions;
+    }
+
+    private static double[] sortedValues(double[] values, byte[] sortedPositions) {
+        double[] sorted = new double[values.length];
+        for (int j = 0; j < sorted.length; j++) {
+            sorted[j] = values[sortedPositions[j]];
+        }
+        return sorted;
+    }
+
+    /**
+        A query: its values sorted, its goal and its cap. The number of values is the length of the values.
+    */
+    private static final class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final double[] sortedValues;
+        final double goal;
+        final int maxSolutions;
+
+        Key(double[] sortedValues, double goal, int maxSolutions) {
+            this.sortedValues = sortedValues;
+            this.goal = goal;
+            this.maxSolutions = maxSolutions;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Double.compare(goal, other.goal) == 0 && maxSolutions == other.maxSolutions && Arrays.equals(sortedValues, other.sortedValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31*(31*Arrays.hashCode(sortedValues)+Double.hashCode(goal))+maxSolutions;
+        }
+    }
+
+    /**
+        The solutions of a query, with their expressions on the sorted values.
+    */
+    private static final class CachedResult implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Expression[] expressions;
+        final double[] results;
+
+        CachedResult(Expression[] expressions, double[] results) {
+            this.expressions = expressions;
+            this.results = results;
+        }
+    }
+}
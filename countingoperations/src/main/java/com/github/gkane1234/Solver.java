@@ -4,8 +4,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.io.FileNotFoundException;
-import gnu.trove.map.hash.TIntObjectHashMap;
-import gnu.trove.set.hash.TIntHashSet;
 import java.util.Arrays;
 import javax.swing.SwingWorker;
 /**
@@ -17,17 +15,24 @@ public class Solver extends SwingWorker<Void,String>{
     private static final int NUM_TRUNCATORS = 20;
     private static final int ROUNDING =9;
     private static final double TOLERANCE = 1e-5;
+    private static final DedupPolicy DEDUP_POLICY = DedupPolicy.fingerprint(2, 2);
 
     private static final int MAX_SOLUTIONS = 200;
+    private static final int RANGE_BATCH_SIZE = 256;
+    private static final int MIN_REACHABLE_RANGE = 1<<16;
     ExpressionList solverSet;
     private int numValues;
     private boolean verbose;
+    private boolean exact;
+    private EvaluatedIndex evaluatedIndex;
+    private SolutionCache cache;
 
     private final CountingOperationsApplet applet;
+    private final EvaluationEngine engine;
 
     private String status;
     /**
-        Constructor for the Solver class.
+        Constructor for the Solver class, which runs its queries on the shared engine, see EvaluationEngine.getShared.
         @param numValues: an <code>int</code> representing the number of values to use.
         @param verbose: a <code>boolean</code> representing whether to print verbose output.
         @param load: a <code>boolean</code> representing whether to load the expression list from a file.
@@ -35,8 +40,21 @@ public class Solver extends SwingWorker<Void,String>{
         @param compressed: a <code>boolean</code> representing whether to use compressed expression lists.
     */
     Solver(int numValues,boolean verbose, boolean load, CountingOperationsApplet applet, boolean compressed){
+        this(numValues, verbose, load, applet, compressed, EvaluationEngine.getShared());
+    }
+    /**
+        Constructor for the Solver class.
+        @param numValues: an <code>int</code> representing the number of values to use.
+        @param verbose: a <code>boolean</code> representing whether to print verbose output.
+        @param load: a <code>boolean</code> representing whether to load the expression list from a file.
+        @param applet: a <code>CountingOperationsApplet</code> representing the applet to update, null if not in applet.
+        @param compressed: a <code>boolean</code> representing whether to use compressed expression lists.
+        @param engine: an <code>EvaluationEngine</code> representing the pool every query of this solver runs on.
+    */
+    Solver(int numValues,boolean verbose, boolean load, CountingOperationsApplet applet, boolean compressed, EvaluationEngine engine){
         this.verbose = verbose;
         this.applet = applet;
+        this.engine = engine;
         if (load) {
             try {
                 if (verbose) {
@@ -51,7 +69,7 @@ public class Solver extends SwingWorker<Void,String>{
                 if (verbose) {
                     broadcast("File not found, creating instead...");
                 }
-                solverSet = new ExpressionDynamic(numValues,ROUNDING,NUM_TRUNCATORS,null,verbose,compressed,true).getExpressionList();
+                solverSet = createExpressionList(numValues,verbose,compressed);
                 if (compressed) {
                     CompressedExpressionList compressedExpressionList = ExpressionCompression.compressExpressionList(solverSet);
                     CompressedExpressionList.saveCompressed(compressedExpressionList,verbose);
@@ -63,13 +81,23 @@ public class Solver extends SwingWorker<Void,String>{
             }
             
         } else {
-            solverSet = new ExpressionDynamic(numValues,ROUNDING,NUM_TRUNCATORS,null,verbose,compressed,true).getExpressionList();
+            solverSet = createExpressionList(numValues,verbose,compressed);
         }
         if (verbose) {
-            broadcast("Loaded "+solverSet.getNumExpressions()+" expressions.");
+            broadcast("Loaded "+solverSet.getNumExpressionsLong()+" expressions.");
         }
         this.numValues=numValues;
     }
+    /**
+        Generates the expression list for a number of values with the settings every solver uses.
+        @param numValues: an <code>int</code> representing the number of values to use.
+        @param verbose: a <code>boolean</code> representing whether to print verbose output.
+        @param compressed: a <code>boolean</code> representing whether to generate with the database.
+        @return an <code>ExpressionList</code> representing the generated expressions.
+    */
+    static ExpressionList createExpressionList(int numValues, boolean verbose, boolean compressed) {
+        return new ExpressionDynamic(numValues,ROUNDING,NUM_TRUNCATORS,null,verbose,compressed,true,Runtime.getRuntime().availableProcessors()).setDedupPolicy(DEDUP_POLICY).setModular(ModularArithmetic.supportsOperations()).getExpressionList();
+    }
     @Override
     protected Void doInBackground() {
         publish(status);
@@ -85,6 +113,76 @@ public class Solver extends SwingWorker<Void,String>{
     public int getNumValues() {
         return numValues;
     }
+    /**
+        Returns the engine the queries of this solver run on.
+        @return an <code>EvaluationEngine</code> representing the engine.
+    */
+    public EvaluationEngine getEngine() {
+        return engine;
+    }
+    /**
+        Sets whether queries with integer values and an integer goal are evaluated exactly, with fractions instead of doubles.
+        An exact query has no rounding step and no tolerance, so an expression is a solution only if it is exactly equal to the goal.
+        Queries with other values or goals, or over a list with a custom operation, are still evaluated with doubles.
+        @param exact: a <code>boolean</code> representing whether to evaluate exactly when possible.
+        @return a <code>Solver</code> representing this solver.
+    */
+    public Solver setExact(boolean exact) {
+        if (this.exact != exact && cache != null) {
+            cache.clear(); // the solutions of one mode are not the solutions of the other
+        }
+        this.exact = exact;
+        return this;
+    }
+    /**
+        Sets a cache that findAllSolutions and range scans answer repeated queries from, so the same values in any order are only solved once.
+        @param cache: a <code>SolutionCache</code> for this solver only, null to solve every query.
+        @return a <code>Solver</code> representing this solver.
+    */
+    public Solver setCache(SolutionCache cache) {
+        this.cache = cache;
+        return this;
+    }
+    /**
+        Returns the cache repeated queries are answered from, see setCache.
+        @return a <code>SolutionCache</code> representing the cache, null if there is none.
+    */
+    public SolutionCache getCache() {
+        return cache;
+    }
+    /**
+        Returns whether queries with integer values and an integer goal are evaluated exactly, see setExact.
+        @return a <code>boolean</code> representing whether exact evaluation is turned on.
+    */
+    public boolean isExact() {
+        return exact;
+    }
+    /**
+        Checks whether a query is evaluated exactly.
+        @param valueTuples: a <code>double[][]</code> representing the values of every tuple of the query.
+        @param goal: a <code>double</code> representing the goal of the query.
+        @return a <code>boolean</code> representing whether exact evaluation is on and the values and goal are all integers.
+    */
+    private boolean usesExact(double[][] valueTuples, double goal) {
+        if (!exact || !ExactEvaluator.isIntegral(goal) || !ExactEvaluator.supportsOperations(solverSet.getOperations())) {
+            return false;
+        }
+        for (double[] values : valueTuples) {
+            for (double value : values) {
+                if (!ExactEvaluator.isIntegral(value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    private static long[][] toLongs(double[][] valueTuples) {
+        long[][] longTuples = new long[valueTuples.length][];
+        for (int t=0;t<valueTuples.length;t++) {
+            longTuples[t] = ExactEvaluator.toLongs(valueTuples[t]);
+        }
+        return longTuples;
+    }
     /**
         Finds all solutions for a given goal using a set of values.
         @param values: an <code>double[]</code> representing the values to use.
@@ -92,7 +190,20 @@ public class Solver extends SwingWorker<Void,String>{
         @return a <code>SolutionSet</code> representing the solutions found.
     */
     public SolutionList findAllSolutions(double[] values, double goal,int maxSolutions) {
-        return ExpressionSet.findSolutions(solverSet, values, goal, Solver.ROUNDING, maxSolutions, verbose);
+        SolutionList solutions = cache==null ? null : cache.get(values, goal, maxSolutions);
+        if (solutions!=null) {
+            return solutions;
+        }
+        double[][] valueTuples = new double[][]{values};
+        if (usesExact(valueTuples, goal)) {
+            solutions = engine.findSolutionsExact(solverSet, toLongs(valueTuples), (long) goal, maxSolutions)[0];
+        } else {
+            solutions = engine.findSolutions(solverSet, values, goal, Solver.ROUNDING, maxSolutions, verbose);
+        }
+        if (cache!=null) {
+            cache.put(values, goal, maxSolutions, solutions);
+        }
+        return solutions;
     }
     /**
         Finds all solutions for a given goal using a set of values.
@@ -108,6 +219,96 @@ public class Solver extends SwingWorker<Void,String>{
         return findAllSolutions(doubleValues,goal,maxSolutions);
 
     }
+    /**
+        Returns the sorted values of every expression for a set of values, building it the first time these values are asked for.
+        The index of the last set of values is kept, so exploring one set of values with many goals evaluates the list once.
+        @param values: an <code>double[]</code> representing the values to use.
+        @return an <code>EvaluatedIndex</code> representing the sorted values.
+    */
+    public synchronized EvaluatedIndex getEvaluatedIndex(double[] values) {
+        if (evaluatedIndex==null || !evaluatedIndex.isFor(solverSet, values)) {
+            evaluatedIndex = null; // let the old index be collected before the new one is built
+            evaluatedIndex = EvaluatedIndex.build(engine, solverSet, values, Solver.ROUNDING);
+        }
+        return evaluatedIndex;
+    }
+    /**
+        Finds all solutions for a given goal using a set of values, with the index of getEvaluatedIndex instead of a scan of the list.
+        Queries that are evaluated exactly, see setExact, are answered by findAllSolutions instead, since the index holds rounded doubles.
+        Like findAllSolutions, the cache is used when there is one, and when there are more than maxSolutions the lowest indices are kept.
+        @param values: an <code>double[]</code> representing the values to use.
+        @param goal: a <code>double</code> representing the goal to find solutions for.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
+    public SolutionList findAllSolutionsIndexed(double[] values, double goal,int maxSolutions) {
+        if (usesExact(new double[][]{values}, goal)) {
+            return findAllSolutions(values, goal, maxSolutions);
+        }
+        SolutionList solutions = cache==null ? null : cache.get(values, goal, maxSolutions);
+        if (solutions!=null) {
+            return solutions;
+        }
+        solutions = getEvaluatedIndex(values).findSolutions(goal, maxSolutions);
+        if (cache!=null) {
+            cache.put(values, goal, maxSolutions, solutions);
+        }
+        return solutions;
+    }
+    /**
+        Finds the expressions whose values are nearest to a goal, for example when the goal cannot be made.
+        The index of getEvaluatedIndex is used if it was built for these values, otherwise the list is scanned in parallel.
+        @param values: an <code>double[]</code> representing the values to use.
+        @param goal: a <code>double</code> representing the goal.
+        @param k: an <code>int</code> representing the number of expressions to find.
+        @return an <code>EvaluatedExpression[]</code> representing the expressions found, nearest first.
+    */
+    public EvaluatedExpression[] findNearest(double[] values, double goal, int k) {
+        EvaluatedIndex index;
+        synchronized (this) {
+            index = evaluatedIndex;
+        }
+        if (index!=null && index.isFor(solverSet, values)) {
+            return index.findNearest(goal, k);
+        }
+        return engine.findNearest(solverSet, values, goal, Solver.ROUNDING, k);
+    }
+    /**
+        Finds solutions for many goals using a set of values, evaluating every expression once for all of the goals.
+        @param values: an <code>double[]</code> representing the values to use.
+        @param goals: a <code>double[]</code> representing the goals to find solutions for.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find for each goal.
+        @return a <code>SolutionList[]</code> representing the solutions found for each goal, in the order of goals.
+    */
+    public SolutionList[] findAllSolutions(double[] values, double[] goals,int maxSolutions) {
+        int[] caps = new int[goals.length];
+        Arrays.fill(caps, maxSolutions);
+        return findAllSolutions(values, goals, caps);
+    }
+    /**
+        Finds solutions for many goals using a set of values, evaluating every expression once for all of the goals.
+        @param values: an <code>double[]</code> representing the values to use.
+        @param goals: a <code>double[]</code> representing the goals to find solutions for.
+        @param maxSolutions: an <code>int[]</code> representing the most solutions to find for each goal.
+        @return a <code>SolutionList[]</code> representing the solutions found for each goal, in the order of goals.
+    */
+    public SolutionList[] findAllSolutions(double[] values, double[] goals,int[] maxSolutions) {
+        return engine.findSolutions(solverSet, values, goals, Solver.ROUNDING, maxSolutions);
+    }
+    /**
+        Finds solutions for many goals using a set of values, evaluating every expression once for all of the goals.
+        @param values: an <code>int[]</code> representing the values to use.
+        @param goals: a <code>double[]</code> representing the goals to find solutions for.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find for each goal.
+        @return a <code>SolutionList[]</code> representing the solutions found for each goal, in the order of goals.
+    */
+    public SolutionList[] findAllSolutions(int[] values, double[] goals,int maxSolutions) {
+        double[] doubleValues = new double[values.length];
+        for (int i=0;i<values.length;i++) {
+            doubleValues[i]=values[i];
+        }
+        return findAllSolutions(doubleValues,goals,maxSolutions);
+    }
     /**
         Finds upto one solution for a given goal using a set of values.
         @param values: an <code>double[]</code> representing the values to use.
@@ -116,15 +317,11 @@ public class Solver extends SwingWorker<Void,String>{
     */
     public EvaluatedExpression findFirstSolution(double[] values, double goal) {
         broadcast("Finding first solution for "+goal+" with values "+Arrays.toString(values));
-        for (int i=0;i<solverSet.getNumExpressions();i++) {
-            if (verbose&&i%100000==0) {
-                broadcast("Evaluating expression "+i+" of "+solverSet.getNumExpressions());
-            }
-            if (Solver.equal(solverSet.get(i).evaluateWithValues(values,Solver.ROUNDING),goal)) {
-                return new EvaluatedExpression(solverSet.get(i),values,goal);
-            }
+        double[][] valueTuples = new double[][]{values};
+        if (usesExact(valueTuples, goal)) {
+            return engine.findFirstSolutionsExact(solverSet, toLongs(valueTuples), (long) goal)[0];
         }
-        return null;
+        return engine.findFirstSolution(solverSet, values, goal, Solver.ROUNDING);
     }
     /**
         Finds upto one solution for a given goal using a set of values.
@@ -217,73 +414,106 @@ public class Solver extends SwingWorker<Void,String>{
     public List<SolutionList> findAllPossibleSolvableValuesInRange(int[] range,double goal,boolean findAllSolutions) {
         //Finds all possible solvable sets of numbers to make the goal
         // Will do so only returning values in non-descreasing order
+        // The sets are searched a block at a time, so every expression is decoded once per block instead of once per set
         RangeIterator allValuesInRangeIterator = new RangeIterator(range, this.numValues);
         List<SolutionList> solvables = new ArrayList<>();
-        SolutionList nextSolutionList;
+        List<double[]> block = new ArrayList<>(RANGE_BATCH_SIZE);
         int tracker = 0;
         while (allValuesInRangeIterator.hasNext()) {
             int[] values = allValuesInRangeIterator.next();
             if (++tracker%1000==0) {
                 System.err.println(Arrays.toString(values));
             }
-            if (findAllSolutions) {
-                nextSolutionList = findAllSolutions(values, goal,MAX_SOLUTIONS);
-            } else {
-                EvaluatedExpression firstSolution = findFirstSolution(values, goal);
-                nextSolutionList = new SolutionList(values,goal);
-                if (firstSolution!=null) {
-                    nextSolutionList.addEvaluatedExpression(firstSolution);
-                }
+            double[] doubleValues = new double[values.length];
+            for (int i=0;i<values.length;i++) {
+                doubleValues[i]=values[i];
+            }
+            block.add(doubleValues);
+            if (block.size()==RANGE_BATCH_SIZE || !allValuesInRangeIterator.hasNext()) {
+                findSolutionsForBlock(block.toArray(new double[0][]), goal, findAllSolutions, solvables);
+                block.clear();
             }
-            solvables.add(nextSolutionList);
         }
 
         return solvables;
-
-        
-
-
-
-
+    }
+    private void findSolutionsForBlock(double[][] valueTuples, double goal, boolean findAllSolutions, List<SolutionList> solvables) {
+        boolean exactBlock = usesExact(valueTuples, goal);
+        if (findAllSolutions) {
+            // only the tuples that are not cached are searched
+            SolutionList[] solutions = new SolutionList[valueTuples.length];
+            List<double[]> uncached = new ArrayList<>();
+            for (int t=0;t<valueTuples.length;t++) {
+                solutions[t] = cache==null ? null : cache.get(valueTuples[t], goal, MAX_SOLUTIONS);
+                if (solutions[t]==null) {
+                    uncached.add(valueTuples[t]);
+                }
+            }
+            if (!uncached.isEmpty()) {
+                double[][] uncachedTuples = uncached.toArray(new double[0][]);
+                SolutionList[] found = exactBlock
+                    ? engine.findSolutionsExact(solverSet, toLongs(uncachedTuples), (long) goal, MAX_SOLUTIONS)
+                    : engine.findSolutions(solverSet, uncachedTuples, goal, Solver.ROUNDING, MAX_SOLUTIONS);
+                for (int t=0, u=0;t<valueTuples.length;t++) {
+                    if (solutions[t]==null) {
+                        solutions[t] = found[u++];
+                        if (cache!=null) {
+                            cache.put(valueTuples[t], goal, MAX_SOLUTIONS, solutions[t]);
+                        }
+                    }
+                }
+            }
+            solvables.addAll(Arrays.asList(solutions));
+        } else {
+            EvaluatedExpression[] firstSolutions = exactBlock
+                ? engine.findFirstSolutionsExact(solverSet, toLongs(valueTuples), (long) goal)
+                : engine.findFirstSolutions(solverSet, valueTuples, goal, Solver.ROUNDING);
+            for (int t=0;t<valueTuples.length;t++) {
+                SolutionList nextSolutionList = new SolutionList(valueTuples[t],goal);
+                if (firstSolutions[t]!=null) {
+                    nextSolutionList.addEvaluatedExpression(firstSolutions[t]);
+                }
+                solvables.add(nextSolutionList);
+            }
+        }
     }
     /**
-        Finds the first value in a given range that can/can't be created using a set of values.
+        Walks the integers from the start of a range towards its end while they can (or can't) be created using a set of values,
+        and returns the first one that breaks the run.
         @param values: an <code>double[]</code> representing the values to use.
         @param goalRange: an <code>int[]</code> representing the range of goals to use.
-        @param works: a <code>boolean</code> representing whether to find the first value that can be created or the first value that cannot be created.
-        @param output: a <code>boolean</code> representing whether to print the value and the solution that creates it.
-        @return an <code>int</code> representing the first value in the range that can be created or cannot be created.
+        @param works: a <code>boolean</code> representing whether to walk over the values that can be created, stopping at the first that cannot, or the reverse.
+        @param output: a <code>boolean</code> representing whether to print every value walked and the solution that creates it.
+        @return an <code>int</code> representing the first value from the start of the range that cannot be created if works, or can be created if not.
     */
     public int findFirstInRange(double[] values,int[] goalRange,boolean works,boolean output) {
-        // If works is true: Returns the first value that can be created using the values
-        // If works is false: Returns the first value that cannot be created using the values
-        TIntHashSet intSet = new TIntHashSet();
-        TIntObjectHashMap <EvaluatedExpression> outputs = new TIntObjectHashMap<>();
-
-
-        EvaluatedExpressionList evaluatedExpressionList = ExpressionList.evaluate(solverSet, values, Solver.ROUNDING);
-        for (EvaluatedExpression evaluatedExpression : evaluatedExpressionList.getEvaluatedExpressionList()) {
-            double answer = evaluatedExpression.getValue();
-            if (Solver.equal(answer, Math.round(answer))) {
-                int wholeNumberAnswer = (int)Math.round(answer);
-                
-                //System.err.println(wholeNumberAnswer);
-                if (intSet.add(wholeNumberAnswer)&&output) {
-                    outputs.put(wholeNumberAnswer, evaluatedExpression);
-                }
-            }
-            
-            
-        }
+        // If works is true: Returns the first value that cannot be created using the values
+        // If works is false: Returns the first value that can be created using the values
+        // The integers are streamed into a bitmap over the range, which is widened if the walk leaves it
+        // The walk may go past the end of the range, so a short range is covered a little further from the start
         int i = goalRange[0];
         int delta = goalRange[0]<goalRange[1]? 1: -1;
+        long end = i+(long) delta*Math.max(Math.abs((long) goalRange[1]-goalRange[0]), MIN_REACHABLE_RANGE-1);
+        int low = (int) Math.max(Integer.MIN_VALUE, Math.min(i, end));
+        int high = (int) Math.min(Integer.MAX_VALUE-1, Math.max(i, end));
+        ReachableIntegers reachable = engine.findReachableIntegers(solverSet, values, Solver.ROUNDING, low, high, output);
         while (true){
-            boolean inside  = intSet.contains(i);
-            i+=delta;
+            if (!reachable.covers(i)) {
+                long width = (long) reachable.getHigh()-reachable.getLow()+1;
+                low = delta<0 ? (int) Math.max(Integer.MIN_VALUE, reachable.getLow()-width) : reachable.getLow();
+                high = delta>0 ? (int) Math.min(Integer.MAX_VALUE-1, reachable.getHigh()+width) : reachable.getHigh();
+                if (low==reachable.getLow() && high==reachable.getHigh()) {
+                    throw new IllegalStateException("No such value in the range of an int");
+                }
+                reachable = engine.findReachableIntegers(solverSet, values, Solver.ROUNDING, low, high, output);
+                continue;
+            }
+            boolean inside  = reachable.contains(i);
             if (output) {
+                long witness = reachable.getWitness(i);
                 broadcast(String.valueOf(i));
                 broadcast(" ");
-                broadcast(outputs.get(i).toString());
+                broadcast(String.valueOf(witness<0 ? null : new EvaluatedExpression(solverSet.get(witness), values, i)));
 
             }
                 
@@ -291,6 +521,7 @@ public class Solver extends SwingWorker<Void,String>{
             if (inside!=works) {
                 return i;
             }
+            i+=delta;
         }
     }
     public void broadcast(String message) {
@@ -0,0 +1,368 @@
+package com.github.gkane1234;
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+    Answers goal queries for more values than any stored expression list, by joining the lists of fewer values at the root.
+
+    Every expression of n values is (L op R), where L uses a subset S of the values and R uses the rest,
+    so it is equivalent to (l op r) for some l of the list for |S| values and r of the list for n-|S| values, the same decomposition
+    ExpressionDynamic builds the lists with. For every split of the caller's values both lists are evaluated on their subset,
+    the results of the larger side are indexed in a primitive hash by their rounded value,
+    and every result of the smaller side is probed with the value the other side needs for an operation to hit the goal (goal-l, goal/l and so on).
+
+    With the lists of up to k values stored, queries for up to 2k values are answered, for example 9 or 10 values from the lists of up to 5.
+    A side of a split with more than k values has no list, so it is built by joining its own splits the same way, keeping every distinct
+    value it reaches once with the first expression that reached it. Queries of more than k+1 values are therefore much slower, and
+    solutions through such a side differ in their root but not in how that side reaches its value.
+    Custom operations, see Operation.getKind, cannot be inverted, so with them every pair of a split is combined, which is much slower.
+*/
+public class SplitJoinSolver {
+
+    private static final int NO_ENTRY = -1;
+
+    private final ExpressionList[] expressionLists;
+    private final int maxListValues;
+    private final double scale;
+    private final Operation[] operations;
+
+    /**
+        Constructor for a SplitJoinSolver that loads the lists of 1 to maxListValues values, generating and saving any that are not found.
+        @param maxListValues: an <code>int</code> representing the number of values of the largest list to use.
+        @param rounding: an <code>int</code> representing the number of decimal places values are rounded to before they are compared.
+        @param verbose: a <code>boolean</code> representing whether to print verbose output.
+    */
+    public SplitJoinSolver(int maxListValues, int rounding, boolean verbose) {
+        this(loadExpressionLists(maxListValues, verbose), rounding);
+    }
+
+    /**
+        Constructor for a SplitJoinSolver over lists that are already loaded.
+        @param expressionLists: an <code>ExpressionList[]</code> where the list at index i holds the expressions of i+1 values.
+        @param rounding: an <code>int</code> representing the number of decimal places values are rounded to before they are compared.
+    */
+    public SplitJoinSolver(ExpressionList[] expressionLists, int rounding) {
+        if (expressionLists.length < 1) {
+            throw new IllegalArgumentException("A SplitJoinSolver needs at least the list of 1 value");
+        }
+        for (int i = 0; i < expressionLists.length; i++) {
+            if (expressionLists[i].getNumValues() != i+1) {
+                throw new IllegalArgumentException("The list at index "+i+" has "+expressionLists[i].getNumValues()+" values, not "+(i+1));
+            }
+            expressionLists[i].newEvaluator(); // compile once before any query
+        }
+        this.expressionLists = expressionLists.clone();
+        this.maxListValues = expressionLists.length;
+        this.scale = CompiledExpressionList.getScale(rounding);
+        this.operations = Operation.getOperations();
+    }
+
+    /**
+        Returns the largest number of values a query can have, twice the number of values of the largest list.
+        @return an <code>int</code> representing the number of values.
+    */
+    public int getMaxValues() {
+        return 2*maxListValues;
+    }
+
+    /**
+        Checks whether some values can make a goal.
+        @param values: a <code>double[]</code> representing the values to use.
+        @param goal: a <code>double</code> representing the goal.
+        @return a <code>boolean</code> representing whether any expression of all the values evaluates to the goal.
+    */
+    public boolean canMake(double[] values, double goal) {
+        return findFirstSolution(values, goal) != null;
+    }
+
+    /**
+        Finds an expression of all the values that evaluates to a goal.
+        @param values: a <code>double[]</code> representing the values to use.
+        @param goal: a <code>double</code> representing the goal.
+        @return an <code>EvaluatedExpression</code> representing a solution, null if there is none.
+    */
+    public EvaluatedExpression findFirstSolution(double[] values, double goal) {
+        SolutionList solutions = findSolutions(values, goal, 1);
+        if (solutions.getNumSolutions() == 0) {
+            return null;
+        }
+        return solutions.getEvaluatedExpressionList().iterator().next();
+    }
+
+    /**
+        Finds up to maxSolutions expressions of all the values that evaluate to a goal.
+        Every solution has a different root: a different split, operation or pair of expressions from the lists.
+        Two solutions can still be equivalent, for example (a+b)+(c+d) and a+(b+(c+d)).
+        @param values: a <code>double[]</code> representing the values to use.
+        @param goal: a <code>double</code> representing the goal.
+        @param maxSolutions: an <code>int</code> representing the most solutions to find.
+        @return a <code>SolutionList</code> representing the solutions found.
+    */
+    public SolutionList findSolutions(double[] values, double goal, int maxSolutions) {
+        int numValues = values.length;
+        if (numValues < 1 || numValues > getMaxValues()) {
+            throw new IllegalArgumentException("A SplitJoinSolver with lists of up to "+maxListValues+" values answers queries of 1 to "+getMaxValues()+" values, not "+numValues);
+        }
+        SolutionList solutions = new SolutionList(values, goal);
+        if (maxSolutions <= 0) {
+            return solutions;
+        }
+        if (numValues == 1) {
+            if (Solver.equal(values[0], goal)) {
+                solutions.addEvaluatedExpression(new EvaluatedExpression(expressionLists[0].get(0), values, goal));
+            }
+            return solutions;
+        }
+        int fullMask = (1 << numValues)-1;
+        // the sides without a list are joined once per query and shared, with the sides they are joined from, by every split that needs them
+        Side[] joinedSides = numValues > maxListValues+1 ? new Side[fullMask] : null;
+        // only splits whose first subset holds the first value, so each pair of subsets is joined once
+        for (int first = fullMask-1; first > 0; first = (first-1) & fullMask) {
+            if ((first & 1) == 0) {
+                continue;
+            }
+            int second = fullMask ^ first;
+            if (!joinSplit(side(values, first, joinedSides), side(values, second, joinedSides), goal, values, solutions, maxSolutions)) {
+                break;
+            }
+        }
+        return solutions;
+    }
+
+    /**
+        Joins the two sides of a split, in both orders for the operations that are not commutative.
+        @return a <code>boolean</code> representing whether the search should go on.
+    */
+    private boolean joinSplit(Side first, Side second, double goal, double[] values, SolutionList solutions, int maxSolutions) {
+        Side known = first.results.length <= second.results.length ? first : second;
+        Side target = known == first ? second : first;
+        target.index();
+        for (byte opCode = 0; opCode < operations.length; opCode++) {
+            if (!join(known, target, true, opCode, goal, values, solutions, maxSolutions)) {
+                return false;
+            }
+            if (!operations[opCode].isCommutative() && !join(known, target, false, opCode, goal, values, solutions, maxSolutions)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+        Searches for expressions (known op target), or (target op known) when knownFirst is false, that evaluate to a goal.
+        @return a <code>boolean</code> representing whether the search should go on.
+    */
+    private boolean join(Side known, Side target, boolean knownFirst, byte opCode, double goal, double[] values, SolutionList solutions, int maxSolutions) {
+        Operation operation = operations[opCode];
+        boolean invertible = GoalInversion.isInvertible(operation);
+        for (int k = 0; k < known.results.length; k++) {
+            double knownValue = known.results[k];
+            if (!isValid(knownValue)) {
+                continue;
+            }
+            double needed = invertible ? GoalInversion.neededOperand(operation.getKind(), knownValue, goal, knownFirst) : Double.POSITIVE_INFINITY;
+            if (Double.isNaN(needed)) {
+                continue;
+            }
+            if (Double.isInfinite(needed)) {
+                // every operand may work, so every one is tried
+                for (int t = 0; t < target.results.length; t++) {
+                    if (isValid(target.results[t]) && !check(known, k, target, t, knownFirst, opCode, goal, values, solutions, maxSolutions)) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            int firstDelta = GoalInversion.hasNeighbours(needed, scale) ? -1 : 0;
+            for (int delta = firstDelta; delta <= -firstDelta; delta++) {
+                long key = firstDelta == 0 ? GoalInversion.key(needed, scale) : GoalInversion.neighbourKey(needed, scale, delta);
+                for (int t = target.heads.get(key); t != NO_ENTRY; t = target.next[t]) {
+                    if (!check(known, k, target, t, knownFirst, opCode, goal, values, solutions, maxSolutions)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+        Adds (known op target), or (target op known) when knownFirst is false, to the solutions if it evaluates to the goal.
+        @return a <code>boolean</code> representing whether the search should go on.
+    */
+    private boolean check(Side known, int k, Side target, int t, boolean knownFirst, byte opCode, double goal, double[] values, SolutionList solutions, int maxSolutions) {
+        Operation operation = operations[opCode];
+        double result = knownFirst ? operation.apply(known.results[k], target.results[t]) : operation.apply(target.results[t], known.results[k]);
+        if (Double.isNaN(result) || !Solver.equal(result, goal)) {
+            return true;
+        }
+        Expression expression = knownFirst
+            ? Expression.combineExpressions(known.witness(k), target.witness(t), opCode)
+            : Expression.combineExpressions(target.witness(t), known.witness(k), opCode);
+        solutions.addEvaluatedExpression(new EvaluatedExpression(expression, values, goal));
+        return solutions.getNumSolutions() < maxSolutions;
+    }
+
+    /**
+        Returns the side for a subset of the values, evaluating its list when it has one and joining its splits otherwise.
+        When some side has no list, every side is kept in joinedSides, so each is built once per query and witnesses can be rebuilt from them.
+    */
+    private Side side(double[] values, int mask, Side[] joinedSides) {
+        if (joinedSides == null) {
+            return new Side(values, mask);
+        }
+        if (joinedSides[mask] == null) {
+            joinedSides[mask] = Integer.bitCount(mask) <= maxListValues ? new Side(values, mask) : new Side(values, mask, joinedSides);
+        }
+        return joinedSides[mask];
+    }
+
+    private static boolean isValid(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    private static ExpressionList[] loadExpressionLists(int maxListValues, boolean verbose) {
+        ExpressionList[] expressionLists = new ExpressionList[maxListValues];
+        for (int numValues = 1; numValues <= maxListValues; numValues++) {
+            try {
+                expressionLists[numValues-1] = ExpressionList.loadCompressed(numValues);
+            } catch (FileNotFoundException e) {
+                if (verbose) {
+                    System.out.println("File not found for "+numValues+" values, creating instead...");
+                }
+                expressionLists[numValues-1] = Solver.createExpressionList(numValues, verbose, false);
+                ExpressionSet.saveCompressed(expressionLists[numValues-1], verbose);
+            }
+        }
+        return expressionLists;
+    }
+
+    /**
+        One subset of a split: the list for its number of values evaluated on its values, or the distinct values its own splits reach
+        when there is no list for that many values, and when it is the side that is probed, an index from the key of each result to its expressions.
+    */
+    private final class Side {
+        final ExpressionList expressionList;
+        final byte[] positions;
+        final double[] results;
+        TLongIntHashMap heads;
+        int[] next;
+
+        // how each result of a joined side was first reached: from the side of firstMask and the side of the rest of the subset
+        final int mask;
+        final Side[] joinedSides;
+        int[] firstMasks;
+        int[] firstIndices;
+        int[] secondIndices;
+        byte[] opCodes;
+
+        Side(double[] values, int mask) {
+            int size = Integer.bitCount(mask);
+            this.mask = mask;
+            this.joinedSides = null;
+            this.expressionList = expressionLists[size-1];
+            this.positions = new byte[size];
+            double[] subsetValues = new double[size];
+            for (int i = 0, remaining = mask; remaining != 0; i++, remaining &= remaining-1) {
+                positions[i] = (byte) Integer.numberOfTrailingZeros(remaining);
+                subsetValues[i] = values[positions[i]];
+            }
+            this.results = new double[expressionList.getNumExpressions()];
+            ExpressionEvaluator evaluator = expressionList.newEvaluator();
+            for (int i = 0; i < results.length; i++) {
+                results[i] = evaluator.evaluate(i, subsetValues);
+            }
+        }
+
+        /**
+            Constructor for a side without a list, which combines every split of the subset and keeps each distinct value once.
+        */
+        Side(double[] values, int mask, Side[] joinedSides) {
+            this.mask = mask;
+            this.joinedSides = joinedSides;
+            this.expressionList = null;
+            this.positions = null;
+            TLongIntHashMap seen = new TLongIntHashMap(16, 0.5f, Long.MIN_VALUE, NO_ENTRY);
+            double[] reached = new double[16];
+            firstMasks = new int[16];
+            firstIndices = new int[16];
+            secondIndices = new int[16];
+            opCodes = new byte[16];
+            int size = 0;
+            int lowestBit = mask & -mask;
+            for (int first = (mask-1) & mask; first > 0; first = (first-1) & mask) {
+                if ((first & lowestBit) == 0) {
+                    continue;
+                }
+                Side firstSide = side(values, first, joinedSides);
+                Side secondSide = side(values, mask ^ first, joinedSides);
+                for (byte opCode = 0; opCode < operations.length; opCode++) {
+                    for (int order = 0; order < (operations[opCode].isCommutative() ? 1 : 2); order++) {
+                        Side left = order == 0 ? firstSide : secondSide;
+                        Side right = order == 0 ? secondSide : firstSide;
+                        for (int l = 0; l < left.results.length; l++) {
+                            if (!isValid(left.results[l])) {
+                                continue;
+                            }
+                            for (int r = 0; r < right.results.length; r++) {
+                                double result = isValid(right.results[r]) ? operations[opCode].apply(left.results[l], right.results[r]) : Double.NaN;
+                                if (!isValid(result) || seen.putIfAbsent(GoalInversion.key(result, scale), size) != NO_ENTRY) {
+                                    continue;
+                                }
+                                if (size == reached.length) {
+                                    int capacity = size*2;
+                                    reached = Arrays.copyOf(reached, capacity);
+                                    firstMasks = Arrays.copyOf(firstMasks, capacity);
+                                    firstIndices = Arrays.copyOf(firstIndices, capacity);
+                                    secondIndices = Arrays.copyOf(secondIndices, capacity);
+                                    opCodes = Arrays.copyOf(opCodes, capacity);
+                                }
+                                reached[size] = result;
+                                firstMasks[size] = left.mask;
+                                firstIndices[size] = l;
+                                secondIndices[size] = r;
+                                opCodes[size] = opCode;
+                                size++;
+                            }
+                        }
+                    }
+                }
+            }
+            this.results = Arrays.copyOf(reached, size);
+        }
+
+        /**
+            Chains the expressions with the same key, the head of each chain in a primitive hash and the rest in next,
+            in increasing order of index. A side shared by several splits is only indexed once.
+        */
+        void index() {
+            if (heads != null) {
+                return;
+            }
+            heads = new TLongIntHashMap(results.length*2, 0.5f, Long.MIN_VALUE, NO_ENTRY);
+            next = new int[results.length];
+            for (int i = results.length-1; i >= 0; i--) {
+                next[i] = NO_ENTRY;
+                if (isValid(results[i])) {
+                    next[i] = heads.put(GoalInversion.key(results[i], scale), i);
+                }
+            }
+        }
+
+        /**
+            Returns the expression of the list at an index, moved onto the positions of the subset,
+            or for a joined side, the expression that first reached the value at the index.
+        */
+        Expression witness(int index) {
+            if (expressionList != null) {
+                return expressionList.get(index).changeValueOrder(positions);
+            }
+            Side first = joinedSides[firstMasks[index]];
+            Side second = joinedSides[mask ^ firstMasks[index]];
+            return Expression.combineExpressions(first.witness(firstIndices[index]), second.witness(secondIndices[index]), opCodes[index]);
+        }
+    }
+}
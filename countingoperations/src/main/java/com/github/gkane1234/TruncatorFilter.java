@@ -0,0 +1,20 @@
+package com.github.gkane1234;
+/**
+    An interface for expression sets that decide inequivalence using the values of expressions on truncators.
+    Used by ExpressionDynamic to dedup combined expressions from values it has already computed,
+    without evaluating or even creating the expressions.
+*/
+public interface TruncatorFilter {
+    /**
+        Returns the truncators used by the set.
+        @return a <code>double[][]</code> where each row is a truncator, a list of test values for the values of the expressions.
+    */
+    double[][] getTruncators();
+
+    /**
+        Records the unrounded values of a candidate expression on each truncator.
+        @param truncatorValues: a <code>double[]</code> representing the value of the candidate on each truncator, NaN if it is undefined.
+        @return a <code>boolean</code> representing whether the candidate is inequivalent to all expressions recorded so far.
+    */
+    boolean addTruncatorValues(double[] truncatorValues);
+}
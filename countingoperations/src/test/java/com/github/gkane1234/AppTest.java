@@ -15,7 +15,7 @@ public class AppTest {
 
         int numValues = 5;
         int numExpressions = 10;
-        Solver s = new Solver(numValues, false, true, null);
+        ExpressionList solverSet = Solver.createExpressionList(numValues, false, false);
         Random r = new Random();
 
        
@@ -25,8 +25,8 @@ public class AppTest {
         Expression[] expressions = new Expression[numExpressions];
 
         for (int i = 0; i < numExpressions; i++) {
-            int rIndex = (int)(r.nextDouble()*s.solverSet.getNumExpressions());
-            Expression randomExpression = s.solverSet.get(rIndex);
+            int rIndex = (int)(r.nextDouble()*solverSet.getNumExpressions());
+            Expression randomExpression = solverSet.get(rIndex);
             System.err.println(randomExpression);
             System.err.println(i);
             long compressedExpression = ExpressionCompression.compressExpression(randomExpression);
@@ -40,9 +40,9 @@ public class AppTest {
         System.err.println(Arrays.toString(expressions));
         System.err.println(e.getNumExpressions());
         System.err.println(numExpressions);
-        long[] compressedExpressionSet = ExpressionCompression.compressExpressionSet(e);
+        CompressedExpressionList compressedExpressionSet = ExpressionCompression.compressExpressionList(e);
 
-        ExpressionSet decompressedExpressionSet = ExpressionCompression.decompressExpressionSet(compressedExpressionSet, e.getNumExpressions(),numValues);
+        ExpressionList decompressedExpressionSet = ExpressionCompression.decompressExpressionList(compressedExpressionSet, false);
         System.err.println(decompressedExpressionSet);
         Assert.assertTrue(e.equals(decompressedExpressionSet));
         
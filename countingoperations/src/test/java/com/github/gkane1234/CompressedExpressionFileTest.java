@@ -0,0 +1,123 @@
+package com.github.gkane1234;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedExpressionFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int NUM_VALUES = 5;
+
+    private String writeList(ExpressionList expressionList) throws IOException {
+        String filename = new File(folder.getRoot(), "expressionList_"+NUM_VALUES+"_compressed.bin").getPath();
+        CompressedExpressionFile.write(ExpressionCompression.compressExpressionList(expressionList), filename);
+        return filename;
+    }
+
+    /**
+        Overwrites the int at a byte offset of the header, little-endian like the format.
+    */
+    private static void overwriteInt(String filename, long offset, int value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.seek(offset);
+            file.writeInt(Integer.reverseBytes(value));
+        }
+    }
+
+    /**
+        Overwrites the long at a byte offset of the header, little-endian like the format.
+    */
+    private static void overwriteLong(String filename, long offset, long value) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.seek(offset);
+            file.writeLong(Long.reverseBytes(value));
+        }
+    }
+
+    @Test
+    public void testWriteThenMap() throws IOException {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        CompressedExpressionList mapped = CompressedExpressionFile.map(writeList(expressionList));
+
+        Assert.assertEquals(NUM_VALUES, mapped.getNumValues());
+        Assert.assertEquals(expressionList.getNumExpressionsLong(), mapped.getNumExpressionsLong());
+        for (int i = 0; i < expressionList.getNumExpressions(); i++) {
+            Assert.assertTrue("expression "+i, expressionList.get(i).equals(mapped.get(i)));
+        }
+    }
+
+    @Test
+    public void testBadMagicIsRejected() throws IOException {
+        String filename = writeList(Solver.createExpressionList(NUM_VALUES, false, false));
+        overwriteInt(filename, 0, CompressedExpressionFile.MAGIC+1);
+        try {
+            CompressedExpressionFile.map(filename);
+            Assert.fail("A file with the wrong magic was mapped");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("is not a compressed expression list"));
+        }
+    }
+
+    @Test
+    public void testBadVersionIsRejected() throws IOException {
+        String filename = writeList(Solver.createExpressionList(NUM_VALUES, false, false));
+        overwriteInt(filename, 4, CompressedExpressionFile.VERSION+1);
+        try {
+            CompressedExpressionFile.map(filename);
+            Assert.fail("A file with the wrong version was mapped");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("format version"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedFileIsRejected() throws IOException {
+        String filename = writeList(Solver.createExpressionList(NUM_VALUES, false, false));
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            file.setLength(file.length()-Long.BYTES);
+        }
+        CompressedExpressionFile.map(filename);
+    }
+
+    @Test
+    public void testMoreThanIntExpressionsAreMapped() throws IOException {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        String filename = writeList(expressionList);
+        int expressionSize = ExpressionCompression.REQUIRED_BITS(NUM_VALUES)[3];
+        long numExpressions = Integer.MAX_VALUE+5L;
+        // the header count is raised and the file is extended to fit it, sparsely, so the data past the real expressions reads as zeros
+        overwriteLong(filename, 16, numExpressions);
+        try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
+            long dataOffset = file.length()-ExpressionCompression.getCompressedExpressionListSize(expressionList.getNumExpressionsLong(), expressionSize)*Long.BYTES;
+            file.setLength(dataOffset+ExpressionCompression.getCompressedExpressionListSize(numExpressions, expressionSize)*Long.BYTES);
+        }
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        CompressedExpressionList mapped;
+        try {
+            System.setOut(new PrintStream(printed, true));
+            mapped = CompressedExpressionList.loadCompressed(filename, NUM_VALUES, true);
+        } finally {
+            System.setOut(out);
+        }
+        Assert.assertTrue(printed.toString(), printed.toString().startsWith("Mapped "+numExpressions+" compressed expressions"));
+        Assert.assertEquals(numExpressions, mapped.getNumExpressionsLong());
+        Assert.assertTrue(expressionList.get(0).equals(mapped.get(0L)));
+        try {
+            mapped.getNumExpressions();
+            Assert.fail("More than Integer.MAX_VALUE expressions were counted in an int");
+        } catch (ArithmeticException e) {
+            // expected, the count only fits in getNumExpressionsLong
+        }
+    }
+}
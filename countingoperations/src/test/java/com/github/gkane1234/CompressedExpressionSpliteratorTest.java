@@ -0,0 +1,90 @@
+package com.github.gkane1234;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompressedExpressionSpliteratorTest {
+    private static final int NUM_VALUES = 5;
+
+    private static ExpressionList expressionList;
+    private static CompressedExpressionList compressedList;
+
+    @BeforeClass
+    public static void createLists() {
+        expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        compressedList = ExpressionCompression.compressExpressionList(expressionList);
+        Assert.assertTrue(compressedList.getNumExpressions() > 4*CompressedExpressionSpliterator.CHUNK_SIZE);
+    }
+
+    @Test
+    public void testSplitsAreAlignedAndCoverTheList() {
+        Deque<CompressedExpressionSpliterator> toSplit = new ArrayDeque<>();
+        toSplit.add(new CompressedExpressionSpliterator(compressedList));
+        List<CompressedExpressionSpliterator> chunks = new ArrayList<>();
+        while (!toSplit.isEmpty()) {
+            CompressedExpressionSpliterator spliterator = toSplit.poll();
+            CompressedExpressionSpliterator prefix = (CompressedExpressionSpliterator) spliterator.trySplit();
+            if (prefix == null) {
+                chunks.add(spliterator);
+            } else {
+                Assert.assertEquals(0, spliterator.getIndex()%CompressedExpressionSpliterator.CHUNK_SIZE);
+                Assert.assertEquals(spliterator.getIndex(), prefix.getIndex()+prefix.estimateSize());
+                toSplit.add(prefix);
+                toSplit.add(spliterator);
+            }
+        }
+        chunks.sort((a, b) -> Long.compare(a.getIndex(), b.getIndex()));
+        long next = 0;
+        for (CompressedExpressionSpliterator chunk : chunks) {
+            Assert.assertEquals(next, chunk.getIndex());
+            chunk.forEachRemaining((CompressedExpressionSpliterator.IndexedConsumer) (index, expression) ->
+                Assert.assertTrue("expression "+index, expressionList.get(index).equals(expression)));
+            next = chunk.getIndex(); // the end of the chunk, once it is consumed
+        }
+        Assert.assertEquals(compressedList.getNumExpressionsLong(), next);
+    }
+
+    @Test
+    public void testParallelStreamKeepsOrder() {
+        List<Expression> streamed = StreamSupport.stream(new CompressedExpressionSpliterator(compressedList), true).collect(Collectors.toList());
+        Assert.assertEquals(expressionList.getNumExpressions(), streamed.size());
+        for (int i = 0; i < streamed.size(); i++) {
+            Assert.assertTrue("expression "+i, expressionList.get(i).equals(streamed.get(i)));
+        }
+    }
+
+    @Test
+    public void testEngineDecodesEveryExpressionOnce() {
+        EvaluationEngine engine = new EvaluationEngine(3, EvaluationEngine.DEFAULT_CHUNK_SIZE);
+        try {
+            AtomicIntegerArray seen = new AtomicIntegerArray(compressedList.getNumExpressions());
+            engine.forEachExpression(compressedList, (index, expression) -> {
+                seen.incrementAndGet((int) index);
+                Assert.assertTrue("expression "+index, expressionList.get(index).equals(expression));
+            });
+            for (int i = 0; i < seen.length(); i++) {
+                Assert.assertEquals("expression "+i, 1, seen.get(i));
+            }
+
+            ExpressionList decompressed = ExpressionCompression.decompressExpressionList(compressedList, engine, false);
+            CompiledExpressionList compiled = CompiledExpressionList.compile(compressedList, engine);
+            CompiledExpressionList expected = CompiledExpressionList.compile(expressionList);
+            Assert.assertEquals(expressionList.getNumExpressions(), decompressed.getNumExpressions());
+            Assert.assertArrayEquals(expected.getProgram(), compiled.getProgram());
+            for (int i = 0; i < decompressed.getNumExpressions(); i++) {
+                Assert.assertTrue("expression "+i, expressionList.get(i).equals(decompressed.get(i)));
+            }
+        } finally {
+            engine.shutdown();
+        }
+    }
+}
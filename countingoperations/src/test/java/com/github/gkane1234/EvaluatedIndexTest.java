@@ -0,0 +1,95 @@
+package com.github.gkane1234;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class EvaluatedIndexTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+    private static final int MAX_SOLUTIONS = 3;
+    private static final double[] VALUES = {1, 3, 4, 6};
+
+    private static ExpressionList expressionList;
+
+    @BeforeClass
+    public static void createList() {
+        expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+    }
+
+    /**
+        Finds the index of every expression that evaluates to a goal, in increasing order.
+    */
+    private static List<Long> scanSolutions(double[] values, double goal) {
+        List<Long> indices = new ArrayList<>();
+        for (long e = 0; e < expressionList.getNumExpressionsLong(); e++) {
+            if (Solver.equal(expressionList.get(e).evaluateWithValues(values, ROUNDING), goal)) {
+                indices.add(e);
+            }
+        }
+        return indices;
+    }
+
+    private static Set<String> displays(SolutionList solutions) {
+        Set<String> displays = new HashSet<>();
+        for (EvaluatedExpression solution : solutions.getEvaluatedExpressionList()) {
+            displays.add(solution.display());
+        }
+        return displays;
+    }
+
+    @Test
+    public void testCappedSolutionsHaveTheLowestIndices() {
+        EvaluatedIndex index = EvaluatedIndex.build(EvaluationEngine.getShared(), expressionList, VALUES, ROUNDING);
+        for (double goal : new double[] {24, 1, 10, 0.5}) {
+            List<Long> expected = scanSolutions(VALUES, goal);
+            Assert.assertEquals("count of "+goal, expected.size(), index.countSolutions(goal));
+            Assert.assertEquals("all of "+goal, expected.size(), index.findSolutions(goal, Integer.MAX_VALUE).getNumSolutions());
+            // a SolutionList is unordered, so only which solutions were kept is compared
+            Set<String> lowest = new HashSet<>();
+            for (int i = 0; i < expected.size() && i < MAX_SOLUTIONS; i++) {
+                lowest.add(new EvaluatedExpression(expressionList.get(expected.get(i)), VALUES, goal).display());
+            }
+            Assert.assertEquals("capped "+goal, lowest, displays(index.findSolutions(goal, MAX_SOLUTIONS)));
+        }
+    }
+
+    @Test
+    public void testIsFor() {
+        EvaluatedIndex index = EvaluatedIndex.build(EvaluationEngine.getShared(), expressionList, VALUES, ROUNDING);
+        Assert.assertTrue(index.isFor(expressionList, VALUES.clone()));
+        Assert.assertFalse(index.isFor(expressionList, new double[] {6, 4, 3, 1}));
+        Assert.assertFalse(index.isFor(Solver.createExpressionList(NUM_VALUES, false, false), VALUES));
+    }
+
+    @Test
+    public void testSolverIndexedAgreesWithScan() {
+        Solver solver = new Solver(NUM_VALUES, false, false, null, false);
+        SolutionCache cache = new SolutionCache(8);
+        solver.setCache(cache);
+        for (boolean exact : new boolean[] {false, true}) {
+            solver.setExact(exact);
+            for (double goal : new double[] {24, 7, 2.5}) {
+                String message = Arrays.toString(VALUES)+" to "+goal+(exact ? " exactly" : "");
+                SolutionList scanned = solver.findAllSolutions(VALUES, goal, Integer.MAX_VALUE);
+                long hits = cache.getHits();
+                SolutionList indexed = solver.findAllSolutionsIndexed(VALUES, goal, Integer.MAX_VALUE);
+                Assert.assertEquals(message, hits+1, cache.getHits());
+                Assert.assertEquals(message, displays(scanned), displays(indexed));
+            }
+        }
+        // a query that was not cached yet is answered from the index and cached
+        solver.setExact(false);
+        long misses = cache.getMisses();
+        SolutionList indexed = solver.findAllSolutionsIndexed(VALUES, 13, Integer.MAX_VALUE);
+        Assert.assertEquals(misses+1, cache.getMisses());
+        Assert.assertEquals(displays(indexed), displays(solver.findAllSolutions(VALUES, 13, Integer.MAX_VALUE)));
+        Assert.assertEquals(scanSolutions(VALUES, 13).size(), indexed.getNumSolutions());
+    }
+}
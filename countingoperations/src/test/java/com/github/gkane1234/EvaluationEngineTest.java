@@ -0,0 +1,74 @@
+package com.github.gkane1234;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EvaluationEngineTest {
+    private static final int NUM_VALUES = 5;
+    private static final int ROUNDING = 9;
+    private static final int PARALLELISM = 4;
+    private static final int CHUNK_SIZE = 64;
+
+    private EvaluationEngine engine;
+
+    @Before
+    public void createEngine() {
+        engine = new EvaluationEngine(PARALLELISM, CHUNK_SIZE);
+    }
+
+    @After
+    public void shutdownEngine() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void testFindFirstSolutionIsTheLowestIndex() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        double[] values = {2, 3, 5, 7, 11};
+        double scale = CompiledExpressionList.getScale(ROUNDING);
+        ExpressionEvaluator evaluator = expressionList.newEvaluator();
+        for (double goal : new double[] {28, 1, 500, 2310, 0.25, 1e9}) {
+            long expected = -1;
+            for (long e = 0; e < expressionList.getNumExpressionsLong() && expected < 0; e++) {
+                if (Solver.equal(evaluator.evaluate(e, values, scale), goal)) {
+                    expected = e;
+                }
+            }
+            EvaluatedExpression first = engine.findFirstSolution(expressionList, values, goal, ROUNDING);
+            if (expected < 0) {
+                Assert.assertNull("goal "+goal, first);
+            } else {
+                Assert.assertNotNull("goal "+goal, first);
+                Assert.assertTrue("goal "+goal, expressionList.get(expected).equals(first));
+            }
+        }
+    }
+
+    @Test
+    public void testSkippedChunksDoNotRun() {
+        long size = 1_000_000L*CHUNK_SIZE;
+        AtomicBoolean found = new AtomicBoolean();
+        AtomicInteger chunksRun = new AtomicInteger();
+        engine.forEachChunk(size, (start, end) -> {
+            chunksRun.incrementAndGet();
+            found.set(true);
+        }, start -> found.get());
+        // once the first chunk cancels the search, only the chunks already running finish
+        Assert.assertTrue(chunksRun.get() >= 1);
+        Assert.assertTrue("ran "+chunksRun.get()+" chunks", chunksRun.get() <= 4*PARALLELISM);
+
+        // without a skip every expression is covered once, in chunks of at most the chunk size
+        AtomicLong covered = new AtomicLong();
+        engine.forEachChunk(100L*CHUNK_SIZE+1, (start, end) -> {
+            Assert.assertTrue(end-start <= CHUNK_SIZE);
+            covered.addAndGet(end-start);
+        });
+        Assert.assertEquals(100L*CHUNK_SIZE+1, covered.get());
+    }
+}
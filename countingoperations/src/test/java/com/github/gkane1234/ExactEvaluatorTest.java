@@ -0,0 +1,171 @@
+package com.github.gkane1234;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExactEvaluatorTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+    private static final int NUM_VALUE_SETS = 16;
+    private static final long SEED = 4321;
+
+    private static int referenceBitLength;
+
+    /**
+        Evaluates an expression with BigInteger fractions, independently of ExactEvaluator.
+        The most bits any numerator or denominator on the way needed is left in referenceBitLength.
+        @return a <code>BigInteger[]</code> holding the numerator and denominator, null if the expression divides by zero.
+    */
+    private static BigInteger[] evaluateReference(Expression expression, long[] values) {
+        Operation[] operations = Operation.getOperations();
+        BigInteger[] numerators = new BigInteger[NUM_VALUES];
+        BigInteger[] denominators = new BigInteger[NUM_VALUES];
+        int top = -1;
+        referenceBitLength = 0;
+        int valuesPointer = 0;
+        int operationsPointer = 0;
+        for (boolean isNumber : expression.order) {
+            if (isNumber) {
+                numerators[++top] = BigInteger.valueOf(values[expression.valueOrder[valuesPointer++]]);
+                denominators[top] = BigInteger.ONE;
+                continue;
+            }
+            top--;
+            BigInteger a = numerators[top];
+            BigInteger aDenominator = denominators[top];
+            BigInteger b = numerators[top+1];
+            BigInteger bDenominator = denominators[top+1];
+            switch (operations[expression.operations[operationsPointer++]].getKind()) {
+                case Operation.ADD:
+                    numerators[top] = a.multiply(bDenominator).add(b.multiply(aDenominator));
+                    denominators[top] = aDenominator.multiply(bDenominator);
+                    break;
+                case Operation.SUBTRACT:
+                    numerators[top] = a.multiply(bDenominator).subtract(b.multiply(aDenominator));
+                    denominators[top] = aDenominator.multiply(bDenominator);
+                    break;
+                case Operation.MULTIPLY:
+                    numerators[top] = a.multiply(b);
+                    denominators[top] = aDenominator.multiply(bDenominator);
+                    break;
+                default:
+                    if (b.signum() == 0) {
+                        return null;
+                    }
+                    numerators[top] = a.multiply(bDenominator);
+                    denominators[top] = aDenominator.multiply(b);
+            }
+            referenceBitLength = Math.max(referenceBitLength, Math.max(numerators[top].bitLength(), denominators[top].bitLength()));
+        }
+        return new BigInteger[] {numerators[0], denominators[0]};
+    }
+
+    private static ExactEvaluator[] newEvaluators(ExpressionList expressionList) {
+        return new ExactEvaluator[] {
+            expressionList.newExactEvaluator(),
+            ExpressionCompression.compressExpressionList(expressionList).newExactEvaluator()
+        };
+    }
+
+    @Test
+    public void testAgreesWithDoublesOnSmallIntegers() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        CompiledExpressionList compiledList = expressionList.compile();
+        double[] stack = compiledList.createStack();
+        double scale = CompiledExpressionList.getScale(ROUNDING);
+        Random random = new Random(SEED);
+        long[][] valueTuples = new long[NUM_VALUE_SETS][NUM_VALUES];
+        for (long[] values : valueTuples) {
+            for (int v = 0; v < NUM_VALUES; v++) {
+                values[v] = random.nextInt(10); // small enough that doubles are exact after rounding, with zeros to divide by
+            }
+        }
+        long[] columns = ExactEvaluator.toColumns(valueTuples, NUM_VALUES);
+        boolean[] matches = new boolean[NUM_VALUE_SETS];
+        int numDivisions = 0;
+
+        for (ExactEvaluator evaluator : newEvaluators(expressionList)) {
+            for (int e = 0; e < expressionList.getNumExpressions(); e++) {
+                for (int s = 0; s < NUM_VALUE_SETS; s++) {
+                    long[] values = valueTuples[s];
+                    double value = compiledList.evaluate(e, toDoubles(values), stack, scale);
+                    String message = expressionList.get(e)+" on "+Arrays.toString(values);
+                    if (Double.isNaN(value)) {
+                        Assert.assertFalse(message, evaluator.evaluatesTo(e, values, 0));
+                        continue;
+                    }
+                    long goal = (long) Math.floor(value);
+                    boolean integral = value == goal;
+                    Assert.assertEquals(message, integral, evaluator.evaluatesTo(e, values, goal));
+                    Assert.assertFalse(message, evaluator.evaluatesTo(e, values, goal+1));
+                    evaluator.evaluatesTo(e, valueTuples, columns, goal, matches);
+                    Assert.assertEquals(message, integral, matches[s]);
+                    if (integral && expressionList.get(e).toString().contains("/")) {
+                        numDivisions++;
+                    }
+                }
+            }
+        }
+        Assert.assertTrue("No integer goal was reached through a division", numDivisions > 0);
+    }
+
+    @Test
+    public void testOverflowIsExact() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        long[] values = {3_000_000_000_000L, 4_000_000_000_000L, 6_000_000_000_000L, 2_000_000_000_000L}; // 0*1 == 2*3, past a long
+        long[][] valueTuples = {values, {1, 2, 3, 4}};
+        long[] columns = ExactEvaluator.toColumns(valueTuples, NUM_VALUES);
+        boolean[] matches = new boolean[valueTuples.length];
+        int numOverflowing = 0;
+
+        for (ExactEvaluator evaluator : newEvaluators(expressionList)) {
+            for (int e = 0; e < expressionList.getNumExpressions(); e++) {
+                BigInteger[] fraction = evaluateReference(expressionList.get(e), values);
+                String message = expressionList.get(e).toString();
+                if (fraction == null) {
+                    Assert.assertFalse(message, evaluator.evaluatesTo(e, values, 0));
+                    continue;
+                }
+                BigInteger[] quotient = fraction[0].divideAndRemainder(fraction[1]);
+                if (quotient[1].signum() != 0 || quotient[0].bitLength() > 63) {
+                    Assert.assertFalse(message, evaluator.evaluatesTo(e, values, quotient[0].longValue()));
+                    continue;
+                }
+                long goal = quotient[0].longValueExact();
+                Assert.assertTrue(message, evaluator.evaluatesTo(e, values, goal));
+                Assert.assertFalse(message, evaluator.evaluatesTo(e, values, goal+1));
+                evaluator.evaluatesTo(e, valueTuples, columns, goal, matches);
+                Assert.assertTrue(message, matches[0]);
+                if (referenceBitLength > 63) {
+                    numOverflowing++;
+                }
+            }
+        }
+        Assert.assertTrue("No integer goal overflowed a long on the way", numOverflowing > 0);
+    }
+
+    @Test
+    public void testSolverAgreesWithDoubles() {
+        Solver solver = new Solver(NUM_VALUES, false, false, null, false);
+        double[][] valueSets = {{1, 3, 4, 6}, {3, 3, 8, 8}, {1, 5, 5, 5}, {2, 0, 7, 9}};
+        for (double[] values : valueSets) {
+            for (int goal = -5; goal <= 30; goal++) {
+                int doubleSolutions = solver.setExact(false).findAllSolutions(values, goal, Integer.MAX_VALUE).getNumSolutions();
+                int exactSolutions = solver.setExact(true).findAllSolutions(values, goal, Integer.MAX_VALUE).getNumSolutions();
+                Assert.assertEquals(Arrays.toString(values)+" to "+goal, doubleSolutions, exactSolutions);
+            }
+        }
+    }
+
+    private static double[] toDoubles(long[] values) {
+        double[] doubleValues = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            doubleValues[i] = values[i];
+        }
+        return doubleValues;
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.gkane1234;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionDynamicTest {
+    private static final int ROUNDING = 9;
+    private static final int NUM_TRUNCATORS = 20;
+    private static final int NUM_THREADS = 4;
+
+    private static final DedupPolicy[] POLICIES = {
+        DedupPolicy.getDefault(),
+        DedupPolicy.perTruncator(1),
+        DedupPolicy.fingerprint(1, 1),
+        DedupPolicy.fingerprint(2, 2),
+        DedupPolicy.fingerprint(3, 2),
+        null // modular, see generate
+    };
+
+    /**
+        Generates the list for a number of values, with modular arithmetic if the policy is null.
+    */
+    private static ExpressionList generate(int numValues, DedupPolicy policy, int numThreads) {
+        ExpressionDynamic expressionDynamic = new ExpressionDynamic(numValues, ROUNDING, NUM_TRUNCATORS, null, false, false, false, numThreads);
+        if (policy == null) {
+            expressionDynamic.setModular(true);
+        } else {
+            expressionDynamic.setDedupPolicy(policy);
+        }
+        return expressionDynamic.getExpressionList();
+    }
+
+    private static void checkPolicies(int numValues) {
+        for (DedupPolicy policy : POLICIES) {
+            String name = policy == null ? "modular" : policy.toString();
+            ExpressionList sequential = generate(numValues, policy, 1);
+            Assert.assertEquals(name, ExpressionList.getMaximumSizeLong(numValues), sequential.getNumExpressionsLong());
+            // the truncators or points of each set are random, so the same order from both means the order does not depend on them or on the threads
+            ExpressionList parallel = generate(numValues, policy, NUM_THREADS);
+            Assert.assertEquals(name, ExpressionList.getMaximumSizeLong(numValues), parallel.getNumExpressionsLong());
+            Assert.assertEquals(name+": the list made on "+NUM_THREADS+" threads is in a different order", sequential, parallel);
+        }
+    }
+
+    @Test
+    public void testFiveValuesMatchCounter() {
+        checkPolicies(5);
+    }
+
+    @Test
+    public void testSixValuesMatchCounter() {
+        checkPolicies(6);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCounterMismatchFails() {
+        // three rounded truncators that must all be new lose expressions to chance collisions
+        new ExpressionDynamic(5, 5, 3, null, false, false, false, 1).setDedupPolicy(DedupPolicy.perTruncator(3)).getExpressionList();
+    }
+
+    @Test
+    public void testSetsPastAnIntGrow() {
+        // 9 values have more inequivalent expressions than an array can hold, so the sets start small instead of failing
+        Assert.assertTrue(ExpressionList.getMaximumSizeLong(9) > ExpressionList.MAX_CAPACITY);
+        ExpressionList[] sets = {new ModularExpressionSet(9, true), new ExpressionSet(9, ROUNDING, NUM_TRUNCATORS, true, DedupPolicy.fingerprint(2, 2))};
+        Expression expression = new Expression(new byte[]{0}, new byte[]{}, new boolean[] {true});
+        for (ExpressionList set : sets) {
+            int capacity = set.getExpressions().length;
+            Assert.assertTrue(capacity < ExpressionList.MAX_CAPACITY);
+            for (int i = 0; i <= capacity; i++) {
+                set.forceAdd(expression);
+            }
+            Assert.assertEquals(capacity+1, set.getNumExpressionsLong());
+        }
+    }
+}
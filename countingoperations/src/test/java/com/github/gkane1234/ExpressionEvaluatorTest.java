@@ -0,0 +1,94 @@
+package com.github.gkane1234;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpressionEvaluatorTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+    private static final int NUM_VALUE_SETS = 32;
+    private static final long SEED = 1234;
+
+    /**
+        Random value sets, where every other one is made of small integers so that some expressions divide by zero.
+        The first one always has a zero.
+    */
+    private static double[][] randomValueSets() {
+        Random random = new Random(SEED);
+        double[][] valueSets = new double[NUM_VALUE_SETS][NUM_VALUES];
+        for (int s = 0; s < NUM_VALUE_SETS; s++) {
+            for (int v = 0; v < NUM_VALUES; v++) {
+                valueSets[s][v] = s%2 == 0 ? random.nextInt(4) : random.nextDouble()*20-10;
+            }
+        }
+        valueSets[0][NUM_VALUES-1] = 0;
+        return valueSets;
+    }
+
+    @Test
+    public void testEvaluatorsAgree() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        CompiledExpressionList compiledList = CompiledExpressionList.compile(expressionList);
+        CompressedExpressionList compressedList = ExpressionCompression.compressExpressionList(expressionList);
+        PackedExpressionEvaluator packedEvaluator = (PackedExpressionEvaluator) compressedList.newEvaluator();
+        LaneEvaluator laneEvaluator = new LaneEvaluator(NUM_VALUES, NUM_VALUE_SETS);
+
+        double[][] valueSets = randomValueSets();
+        double[] columns = LaneEvaluator.toColumns(valueSets, NUM_VALUES);
+        double[] stack = compiledList.createStack();
+        double scale = CompiledExpressionList.getScale(ROUNDING);
+        double[] laneResults = new double[NUM_VALUE_SETS];
+        double[] roundedLaneResults = new double[NUM_VALUE_SETS];
+        double[] packedBatchResults = new double[NUM_VALUE_SETS];
+        int numNaN = 0;
+
+        for (int e = 0; e < expressionList.getNumExpressions(); e++) {
+            Expression expression = expressionList.get(e);
+            laneEvaluator.evaluate(expression, columns, laneResults);
+            laneEvaluator.evaluate(expression, columns, scale, roundedLaneResults);
+            packedEvaluator.evaluateBatch(e, columns, NUM_VALUE_SETS, packedBatchResults);
+            for (int s = 0; s < NUM_VALUE_SETS; s++) {
+                String message = expression+" on set "+s;
+                double compiled = compiledList.evaluate(e, valueSets[s], stack);
+                Assert.assertEquals(message, compiled, packedEvaluator.evaluate(e, valueSets[s]), 0);
+                Assert.assertEquals(message, compiled, laneResults[s], 0);
+                Assert.assertEquals(message, compiled, packedBatchResults[s], 0);
+
+                double rounded = expression.evaluateWithValues(valueSets[s], ROUNDING);
+                Assert.assertEquals(message, rounded, compiledList.evaluate(e, valueSets[s], stack, scale), 0);
+                Assert.assertEquals(message, rounded, roundedLaneResults[s], 0);
+                if (Double.isNaN(compiled)) {
+                    numNaN++;
+                }
+            }
+        }
+        Assert.assertTrue("No expression divided by zero", numNaN > 0);
+    }
+
+    @Test
+    public void testDivisionByZeroIsNaN() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        CompiledExpressionList compiledList = CompiledExpressionList.compile(expressionList);
+        PackedExpressionEvaluator packedEvaluator = (PackedExpressionEvaluator) ExpressionCompression.compressExpressionList(expressionList).newEvaluator();
+        LaneEvaluator laneEvaluator = new LaneEvaluator(NUM_VALUES, 1);
+        double[] values = {1, 2, 3, 0};
+        double[] results = new double[1];
+        int numChecked = 0;
+
+        for (int e = 0; e < expressionList.getNumExpressions(); e++) {
+            Expression expression = expressionList.get(e);
+            if (!expression.toString().contains("/3)")) { // value 3 is zero
+                continue;
+            }
+            laneEvaluator.evaluate(expression, values, results);
+            Assert.assertTrue(expression.toString(), Double.isNaN(expression.evaluateWithValues(values, ROUNDING)));
+            Assert.assertTrue(expression.toString(), Double.isNaN(compiledList.evaluate(e, values, compiledList.createStack())));
+            Assert.assertTrue(expression.toString(), Double.isNaN(packedEvaluator.evaluate(e, values)));
+            Assert.assertTrue(expression.toString(), Double.isNaN(results[0]));
+            numChecked++;
+        }
+        Assert.assertTrue("No expression divides by value 3", numChecked > 0);
+    }
+}
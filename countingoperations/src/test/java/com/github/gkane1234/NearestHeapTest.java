@@ -0,0 +1,93 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NearestHeapTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+    private static final int K = 7;
+    private static final long SEED = 99;
+
+    private static long[] drainIndices(NearestHeap heap) {
+        long[] indices = new long[heap.size()];
+        double[] results = new double[heap.size()];
+        heap.drainSorted(indices, results);
+        return indices;
+    }
+
+    @Test
+    public void testTiesAreBrokenByIndex() {
+        NearestHeap heap = new NearestHeap(3);
+        // every expression is at the same distance, offered from the highest index down
+        for (long index = 10; index >= 0; index--) {
+            heap.offer(1, Integer.MAX_VALUE+index, 5);
+        }
+        Assert.assertArrayEquals(new long[] {Integer.MAX_VALUE, Integer.MAX_VALUE+1L, Integer.MAX_VALUE+2L}, drainIndices(heap));
+
+        heap.offer(2, 0, 5);
+        heap.offer(1, 9, 5);
+        heap.offer(1, 4, 5);
+        heap.offer(0.5, 20, 5);
+        Assert.assertArrayEquals(new long[] {20, 4, 9}, drainIndices(heap));
+    }
+
+    @Test
+    public void testMergedHeapsKeepTheNearest() {
+        Random random = new Random(SEED);
+        double[] distances = new double[200];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = random.nextInt(20); // with many ties
+        }
+        NearestHeap whole = new NearestHeap(K);
+        NearestHeap[] parts = {new NearestHeap(K), new NearestHeap(K), new NearestHeap(K)};
+        for (int i = 0; i < distances.length; i++) {
+            whole.offer(distances[i], i, distances[i]);
+            parts[random.nextInt(parts.length)].offer(distances[i], i, distances[i]);
+        }
+        NearestHeap merged = new NearestHeap(K);
+        for (NearestHeap part : parts) {
+            merged.merge(part);
+        }
+
+        Integer[] order = new Integer[distances.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> distances[i]).thenComparingInt(i -> i));
+        long[] expected = new long[K];
+        for (int i = 0; i < K; i++) {
+            expected[i] = order[i];
+        }
+        Assert.assertArrayEquals(expected, drainIndices(whole));
+        Assert.assertArrayEquals(expected, drainIndices(merged));
+    }
+
+    @Test
+    public void testFindNearestMatchesFullSort() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        double[] values = {1, 3, 4, 6};
+        for (double target : new double[] {24, 1000, -7.5}) {
+            Integer[] order = new Integer[expressionList.getNumExpressions()];
+            double[] distances = new double[order.length];
+            for (int e = 0; e < order.length; e++) {
+                order[e] = e;
+                double value = expressionList.get(e).evaluateWithValues(values, ROUNDING);
+                distances[e] = Double.isNaN(value) ? Double.POSITIVE_INFINITY : Math.abs(value-target);
+            }
+            Arrays.sort(order, Comparator.<Integer>comparingDouble(e -> distances[e]).thenComparingInt(e -> e));
+
+            EvaluatedExpression[] nearest = EvaluationEngine.getShared().findNearest(expressionList, values, target, ROUNDING, K);
+            Assert.assertEquals(K, nearest.length);
+            for (int i = 0; i < K; i++) {
+                String message = "nearest "+i+" to "+target;
+                Assert.assertTrue(message, expressionList.get(order[i]).equals(nearest[i]));
+                Assert.assertEquals(message, distances[order[i]], Math.abs(nearest[i].getValue()-target), 0);
+            }
+        }
+    }
+}
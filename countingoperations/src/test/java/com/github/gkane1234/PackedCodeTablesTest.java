@@ -0,0 +1,74 @@
+package com.github.gkane1234;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PackedCodeTablesTest {
+    private static final int MAX_VALUES = 14;
+    private static final int NUM_PERMUTATIONS = 2000;
+    private static final long SEED = 2024;
+
+    /**
+        Decodes a permutation number by removing the digit-th smallest unused value one digit at a time, independently of the tables.
+    */
+    private static byte[] referenceDecode(long permutationNumber, int numValues) {
+        List<Integer> unused = new ArrayList<>();
+        for (int v = 0; v < numValues; v++) {
+            unused.add(v);
+        }
+        byte[] valueOrder = new byte[numValues];
+        for (int i = 0; i < numValues; i++) {
+            long factorial = PackedCodeTables.factorial(numValues-1-i);
+            int digit = (int) (permutationNumber/factorial);
+            permutationNumber -= digit*factorial;
+            valueOrder[i] = (byte) (int) unused.remove(digit);
+        }
+        return valueOrder;
+    }
+
+    @Test
+    public void testShardedValueOrdersRoundTrip() {
+        Random random = new Random(SEED);
+        for (int numValues = PackedCodeTables.MAX_TABLE_VALUES+1; numValues <= MAX_VALUES; numValues++) {
+            List<Byte> values = new ArrayList<>();
+            for (int v = 0; v < numValues; v++) {
+                values.add((byte) v);
+            }
+            byte[] decoded = new byte[numValues+2];
+            for (int p = 0; p < NUM_PERMUTATIONS; p++) {
+                Collections.shuffle(values, random);
+                byte[] valueOrder = new byte[numValues];
+                for (int v = 0; v < numValues; v++) {
+                    valueOrder[v] = values.get(v);
+                }
+                long permutationNumber = PackedCodeTables.encodeValueOrder(valueOrder);
+                Assert.assertTrue(permutationNumber >= 0 && permutationNumber < PackedCodeTables.factorial(numValues));
+                Assert.assertArrayEquals(valueOrder, referenceDecode(permutationNumber, numValues));
+                PackedCodeTables.decodeValueOrder(permutationNumber, numValues, decoded, 1);
+                for (int v = 0; v < numValues; v++) {
+                    Assert.assertEquals(numValues+" values, permutation "+permutationNumber, valueOrder[v], decoded[v+1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testShardBoundaries() {
+        // the last permutation of a shard and the first of the next differ in the prefix, which picks the values left for the table
+        int numValues = PackedCodeTables.MAX_TABLE_VALUES+2;
+        long shardSize = PackedCodeTables.factorial(PackedCodeTables.MAX_TABLE_VALUES);
+        byte[] decoded = new byte[numValues];
+        for (long shard = 0; shard < PackedCodeTables.factorial(numValues)/shardSize; shard++) {
+            for (long permutationNumber : new long[] {shard*shardSize, shard*shardSize+1, (shard+1)*shardSize-1}) {
+                PackedCodeTables.decodeValueOrder(permutationNumber, numValues, decoded, 0);
+                Assert.assertArrayEquals("permutation "+permutationNumber, referenceDecode(permutationNumber, numValues), decoded);
+                Assert.assertEquals(permutationNumber, PackedCodeTables.encodeValueOrder(decoded));
+            }
+        }
+    }
+}
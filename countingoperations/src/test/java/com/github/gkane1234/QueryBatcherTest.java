@@ -0,0 +1,87 @@
+package com.github.gkane1234;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryBatcherTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+    private static final int NUM_ROUNDS = 50;
+    private static final int NUM_SUBMITTERS = 4;
+    private static final int MAX_BATCH_SIZE = 8;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private static ExpressionList expressionList;
+
+    @BeforeClass
+    public static void createList() {
+        expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+    }
+
+    @Test
+    public void testAnswersMatchSolver() throws Exception {
+        Solver solver = new Solver(NUM_VALUES, false, false, null, false);
+        QueryBatcher batcher = new QueryBatcher(expressionList, EvaluationEngine.getShared(), ROUNDING, MAX_BATCH_SIZE);
+        double[] values = {1, 2, 3, 4};
+        List<CompletableFuture<SolutionList>> results = new ArrayList<>();
+        for (int goal = 0; goal < 30; goal++) {
+            results.add(batcher.submit(values, goal, Integer.MAX_VALUE));
+        }
+        batcher.shutdown();
+        for (int goal = 0; goal < 30; goal++) {
+            SolutionList solutions = results.get(goal).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Assert.assertEquals("goal "+goal, solver.findAllSolutions(values, goal, Integer.MAX_VALUE).getNumSolutions(), solutions.getNumSolutions());
+        }
+    }
+
+    @Test
+    public void testSubmitRacingShutdownNeverHangs() throws Exception {
+        double[] values = {1, 2, 3, 4};
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            QueryBatcher batcher = new QueryBatcher(expressionList, EvaluationEngine.getShared(), ROUNDING, MAX_BATCH_SIZE);
+            List<List<CompletableFuture<SolutionList>>> accepted = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> submitters = new ArrayList<>();
+            for (int t = 0; t < NUM_SUBMITTERS; t++) {
+                List<CompletableFuture<SolutionList>> futures = new ArrayList<>();
+                accepted.add(futures);
+                Thread submitter = new Thread(() -> {
+                    try {
+                        start.await();
+                        // submits until the batcher refuses, so some queries are always queued around the shutdown
+                        while (true) {
+                            futures.add(batcher.submit(values, 24, 1));
+                        }
+                    } catch (RejectedExecutionException e) {
+                        // expected once shutdown has run
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                submitter.start();
+                submitters.add(submitter);
+            }
+            start.countDown();
+            Thread.sleep(round%3);
+            batcher.shutdown();
+            for (Thread submitter : submitters) {
+                submitter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+                Assert.assertFalse("a submitter was never refused", submitter.isAlive());
+            }
+            // every query that was accepted is answered, even the ones queued just before the shutdown
+            for (List<CompletableFuture<SolutionList>> futures : accepted) {
+                for (CompletableFuture<SolutionList> future : futures) {
+                    Assert.assertEquals(1, future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getNumSolutions());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReachabilitySolverTest {
+    private static final int ROUNDING = 9;
+    private static final int MAX_GOAL = 200;
+
+    private static final double[][] FIVE_VALUE_SETS = {{3, 7, 8, 11, 13}, {2, 2, 9, 10, 13}, {1, 1, 1, 1, 1}, {0, 4, 5, 6, 9}};
+    private static final double[] SIX_VALUES = {1, 3, 4, 6, 8, 25};
+
+    /**
+        Finds every goal from -MAX_GOAL to MAX_GOAL some expression of the full list evaluates to.
+    */
+    private static Set<Integer> fullListReachable(ExpressionList expressionList, double[] values) {
+        Set<Integer> reachable = new HashSet<>();
+        for (long e = 0; e < expressionList.getNumExpressionsLong(); e++) {
+            double value = expressionList.get(e).evaluateWithValues(values, ROUNDING);
+            long nearest = Math.round(value);
+            if (!Double.isNaN(value) && Solver.equal(value, nearest) && Math.abs(nearest) <= MAX_GOAL) {
+                reachable.add((int) nearest);
+            }
+        }
+        return reachable;
+    }
+
+    private static void assertAgrees(ExpressionList expressionList, double[] values) {
+        ReachabilitySolver solver = new ReachabilitySolver(values, ROUNDING);
+        Set<Integer> reachable = fullListReachable(expressionList, values);
+        for (int goal = -MAX_GOAL; goal <= MAX_GOAL; goal++) {
+            String message = Arrays.toString(values)+" to "+goal;
+            EvaluatedExpression solution = solver.findFirstSolution(goal);
+            Assert.assertEquals(message, reachable.contains(goal), solution != null);
+            if (solution != null) {
+                Assert.assertEquals(message+" by "+solution.display(), goal, solution.evaluateWithValues(values, ROUNDING), 0);
+                int[] uses = new int[values.length];
+                for (byte position : solution.valueOrder) {
+                    uses[position]++;
+                }
+                for (int use : uses) {
+                    Assert.assertEquals(message+" uses every value once", 1, use);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAgreesWithFullListOfFiveValues() {
+        ExpressionList expressionList = Solver.createExpressionList(5, false, false);
+        for (double[] values : FIVE_VALUE_SETS) {
+            assertAgrees(expressionList, values);
+        }
+    }
+
+    @Test
+    public void testAgreesWithFullListOfSixValues() {
+        assertAgrees(Solver.createExpressionList(SIX_VALUES.length, false, false), SIX_VALUES);
+    }
+
+    @Test
+    public void testFindSolutionsAreDistinctAndValid() {
+        double[] values = {1, 2, 3, 4, 5};
+        SolutionList solutions = new ReachabilitySolver(values, ROUNDING).findSolutions(24, 50);
+        Assert.assertTrue(solutions.getNumSolutions() > 1 && solutions.getNumSolutions() <= 50);
+        for (EvaluatedExpression solution : solutions.getEvaluatedExpressionList()) {
+            Assert.assertEquals(solution.display(), 24, solution.evaluateWithValues(values, ROUNDING), 0);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.github.gkane1234;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReachableIntegersTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+
+    @Test
+    public void testWitnessesPastIntIndices() {
+        ReachableIntegers reachable = new ReachableIntegers(0, 10, true);
+        long farIndex = Integer.MAX_VALUE+10L;
+        reachable.add(3, farIndex);
+        reachable.add(3, farIndex+1);
+        reachable.add(5, farIndex+2);
+        reachable.add(5, 7);
+        Assert.assertEquals(farIndex, reachable.getWitness(3));
+        Assert.assertEquals(7, reachable.getWitness(5));
+        Assert.assertEquals(-1, reachable.getWitness(4));
+        Assert.assertEquals(2, reachable.count());
+    }
+
+    @Test
+    public void testWitnessesAreTheLowestIndices() {
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        double[] values = {1, 2, 3, 4};
+        ReachableIntegers reachable = EvaluationEngine.getShared().findReachableIntegers(expressionList, values, ROUNDING, -50, 50, true);
+        for (int goal = -50; goal <= 50; goal++) {
+            long expected = -1;
+            for (long e = 0; e < expressionList.getNumExpressionsLong() && expected < 0; e++) {
+                if (Solver.equal(expressionList.get(e).evaluateWithValues(values, ROUNDING), goal)) {
+                    expected = e;
+                }
+            }
+            Assert.assertEquals("witness of "+goal, expected, reachable.getWitness(goal));
+            Assert.assertEquals("reachability of "+goal, expected >= 0, reachable.contains(goal));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.gkane1234;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SolutionCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+    private static final double GOAL = 24;
+    private static final int MAX_SOLUTIONS = Integer.MAX_VALUE;
+
+    private static Solver solver;
+
+    @BeforeClass
+    public static void createSolver() {
+        solver = new Solver(NUM_VALUES, false, false, null, false);
+    }
+
+    /**
+        Checks that two solution lists hold the same expressions in the same order, each on the same values in every slot.
+    */
+    private static void assertSameSolutions(SolutionList expected, SolutionList actual) {
+        List<EvaluatedExpression> expectedSolutions = expected.getEvaluatedExpressionList();
+        List<EvaluatedExpression> actualSolutions = actual.getEvaluatedExpressionList();
+        Assert.assertEquals(expectedSolutions.size(), actualSolutions.size());
+        for (int i = 0; i < expectedSolutions.size(); i++) {
+            Assert.assertEquals(expectedSolutions.get(i).display(), actualSolutions.get(i).display());
+            Assert.assertEquals(expectedSolutions.get(i), actualSolutions.get(i));
+            Assert.assertEquals(expectedSolutions.get(i).getValue(), actualSolutions.get(i).getValue(), 0);
+        }
+    }
+
+    @Test
+    public void testPermutedHitIsRemapped() {
+        double[] values = {1, 2, 3, 4};
+        double[] permuted = {4, 1, 3, 2};
+        SolutionList solutions = solver.findAllSolutions(values, GOAL, MAX_SOLUTIONS);
+        Assert.assertTrue(solutions.getNumSolutions() > 0);
+
+        SolutionCache cache = new SolutionCache(8);
+        cache.put(values, GOAL, MAX_SOLUTIONS, solutions);
+        SolutionList cached = cache.get(permuted, GOAL, MAX_SOLUTIONS);
+        Assert.assertNotNull(cached);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(0, cache.getMisses());
+
+        // the same solutions, but with indices into the permuted values
+        assertSameSolutions(solutions, cached);
+        for (EvaluatedExpression solution : cached.getEvaluatedExpressionList()) {
+            Assert.assertArrayEquals(permuted, solution.getValues(), 0);
+            Assert.assertEquals(solution.display(), GOAL, solution.evaluateWithValues(permuted, ROUNDING), 0);
+        }
+        Assert.assertNull(cache.get(values, GOAL+1, MAX_SOLUTIONS));
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testSpilledEntryIsReloaded() {
+        double[] values = {1, 2, 3, 4};
+        double[] otherValues = {2, 3, 5, 7};
+        SolutionList solutions = solver.findAllSolutions(values, GOAL, MAX_SOLUTIONS);
+        SolutionCache memoryCache = new SolutionCache(1);
+        memoryCache.put(values, GOAL, MAX_SOLUTIONS, solutions);
+        SolutionList inMemory = memoryCache.get(values, GOAL, MAX_SOLUTIONS);
+
+        SolutionCache cache = new SolutionCache(1, folder.getRoot(), 4);
+        cache.put(values, GOAL, MAX_SOLUTIONS, solutions);
+        cache.put(otherValues, GOAL, MAX_SOLUTIONS, solver.findAllSolutions(otherValues, GOAL, MAX_SOLUTIONS));
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(1, cache.getSpilledSize());
+        Assert.assertEquals(1, folder.getRoot().listFiles().length);
+
+        SolutionList reloaded = cache.get(values, GOAL, MAX_SOLUTIONS);
+        Assert.assertNotNull(reloaded);
+        Assert.assertEquals(1, cache.getSpillHits());
+        Assert.assertEquals(0, cache.getSpillFailures());
+        assertSameSolutions(inMemory, reloaded);
+        for (int i = 0; i < solutions.getNumSolutions(); i++) {
+            Expression expected = inMemory.getEvaluatedExpression(i);
+            Assert.assertTrue("expression "+i, reloaded.getEvaluatedExpression(i).equals(expected)); // the same value order, not only the same values
+        }
+
+        // the reloaded entry is back in memory and the other one was spilled in its place
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(1, cache.getSpilledSize());
+        Assert.assertEquals(1, folder.getRoot().listFiles().length);
+    }
+}
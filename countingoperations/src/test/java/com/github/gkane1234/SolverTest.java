@@ -0,0 +1,116 @@
+package com.github.gkane1234;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SolverTest {
+    private static final int NUM_VALUES = 4;
+    private static final int ROUNDING = 9;
+
+    private static final double[][] VALUE_SETS = {{1, 2, 3, 4}, {1, 1, 1, 1}, {2, 3, 5, 7}, {0, 4, 4, 9}};
+    private static final int[][] RANGES = {{1, 1000}, {-200, 200}, {200, -200}, {0, 10}};
+
+    /**
+        Finds every integer some expression evaluates to by evaluating each expression on its own.
+    */
+    private static Set<Integer> bruteForceReachable(ExpressionList expressionList, double[] values) {
+        Set<Integer> reachable = new HashSet<>();
+        for (int e = 0; e < expressionList.getNumExpressions(); e++) {
+            double value = expressionList.get(e).evaluateWithValues(values, ROUNDING);
+            long nearest = Math.round(value);
+            if (!Double.isNaN(value) && Solver.equal(value, nearest)) {
+                reachable.add((int) nearest);
+            }
+        }
+        return reachable;
+    }
+
+    private static Set<String> displays(SolutionList solutions) {
+        Set<String> displays = new HashSet<>();
+        for (EvaluatedExpression solution : solutions.getEvaluatedExpressionList()) {
+            displays.add(solution.display());
+        }
+        return displays;
+    }
+
+    private static int bruteForceFirst(Set<Integer> reachable, int[] range, boolean works) {
+        int delta = range[0] < range[1] ? 1 : -1;
+        int i = range[0];
+        while (reachable.contains(i) == works) {
+            i += delta;
+        }
+        return i;
+    }
+
+    @Test
+    public void testFindFirstInRangeMatchesBruteForce() {
+        Solver solver = new Solver(NUM_VALUES, false, false, null, false);
+        ExpressionList expressionList = Solver.createExpressionList(NUM_VALUES, false, false);
+        for (double[] values : VALUE_SETS) {
+            Set<Integer> reachable = bruteForceReachable(expressionList, values);
+            for (int[] range : RANGES) {
+                for (boolean works : new boolean[] {true, false}) {
+                    String message = Arrays.toString(values)+" from "+range[0]+" to "+range[1]+(works ? " while reachable" : " while unreachable");
+                    Assert.assertEquals(message, bruteForceFirst(reachable, range, works), solver.findFirstInRange(values, range, works, false));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindFirstInRangeOutputsTheTestedValues() {
+        Solver solver = new Solver(NUM_VALUES, false, false, null, false);
+        double[] values = {1, 2, 3, 4};
+        Set<Integer> reachable = bruteForceReachable(Solver.createExpressionList(NUM_VALUES, false, false), values);
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        int first;
+        try {
+            System.setOut(new PrintStream(printed, true));
+            first = solver.findFirstInRange(values, new int[] {1, 1000}, true, true);
+        } finally {
+            System.setOut(out);
+        }
+
+        // every value walked prints three lines: the value, a space and its solution
+        String[] lines = printed.toString().split("\\R");
+        Assert.assertEquals(0, lines.length%3);
+        int expected = 1;
+        for (int l = 0; l < lines.length; l += 3) {
+            int value = Integer.parseInt(lines[l]);
+            Assert.assertEquals(expected++, value);
+            Assert.assertEquals("solution of "+value, reachable.contains(value), !lines[l+2].equals("null"));
+        }
+        Assert.assertEquals(first, expected-1);
+    }
+
+    @Test
+    public void testManyGoalsMatchOneGoalAtATime() {
+        Solver solver = new Solver(NUM_VALUES, false, false, null, false);
+        // unsorted, with a repeated goal, a goal nothing reaches and a fraction
+        double[] goals = {24, 1, 10, 24, -3, 1000, 2.5, 0};
+        int[] caps = {Integer.MAX_VALUE, 2, 0, 1, Integer.MAX_VALUE, Integer.MAX_VALUE, 3, Integer.MAX_VALUE};
+        for (double[] values : VALUE_SETS) {
+            SolutionList[] uncapped = solver.findAllSolutions(values, goals, Integer.MAX_VALUE);
+            SolutionList[] capped = solver.findAllSolutions(values, goals, caps);
+            Assert.assertEquals(goals.length, uncapped.length);
+            for (int g = 0; g < goals.length; g++) {
+                String message = Arrays.toString(values)+" to "+goals[g];
+                SolutionList single = solver.findAllSolutions(values, goals[g], Integer.MAX_VALUE);
+                Set<String> expected = displays(single);
+                Assert.assertEquals(message, goals[g], uncapped[g].getGoal(), 0);
+                Assert.assertEquals(message, single.getNumSolutions(), uncapped[g].getNumSolutions());
+                Assert.assertEquals(message, expected, displays(uncapped[g]));
+                Assert.assertEquals(message+" capped at "+caps[g], Math.min(single.getNumSolutions(), caps[g]), capped[g].getNumSolutions());
+                Assert.assertTrue(message+" capped at "+caps[g], expected.containsAll(displays(capped[g])));
+            }
+        }
+    }
+}
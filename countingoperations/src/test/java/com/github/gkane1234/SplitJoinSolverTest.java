@@ -0,0 +1,73 @@
+package com.github.gkane1234;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SplitJoinSolverTest {
+    private static final int MAX_LIST_VALUES = 3;
+    private static final int NUM_VALUES = 5;
+    private static final int ROUNDING = 9;
+    private static final int MAX_GOAL = 300;
+    private static final int GOAL_STEP = 7;
+
+    // queries with splits of 4 and 1 values, which have no list of 4 values to join
+    private static final double[][] VALUE_SETS = {{3, 7, 8, 11, 13}, {2, 2, 9, 10, 13}, {1, 2, 3, 4, 5}};
+
+    // a query of twice the largest list, split into 5 and 1 values, where the side of 5 values is joined from a side of 4
+    private static final double[] LARGEST_VALUE_SET = {2, 3, 5, 7, 8, 13};
+
+    /**
+        Finds every goal from 0 to MAX_GOAL some expression of the full list evaluates to.
+    */
+    private static Set<Integer> fullListReachable(ExpressionList expressionList, double[] values) {
+        Set<Integer> reachable = new HashSet<>();
+        for (int e = 0; e < expressionList.getNumExpressions(); e++) {
+            double value = expressionList.get(e).evaluateWithValues(values, ROUNDING);
+            long nearest = Math.round(value);
+            if (!Double.isNaN(value) && Solver.equal(value, nearest) && nearest >= 0 && nearest <= MAX_GOAL) {
+                reachable.add((int) nearest);
+            }
+        }
+        return reachable;
+    }
+
+    private static SplitJoinSolver newSolver() {
+        ExpressionList[] expressionLists = new ExpressionList[MAX_LIST_VALUES];
+        for (int i = 0; i < MAX_LIST_VALUES; i++) {
+            expressionLists[i] = Solver.createExpressionList(i+1, false, false);
+        }
+        return new SplitJoinSolver(expressionLists, ROUNDING);
+    }
+
+    private static void assertAgrees(SplitJoinSolver solver, double[] values, Set<Integer> reachable, int goalStep) {
+        for (int goal = 0; goal <= MAX_GOAL; goal += goalStep) {
+            String message = Arrays.toString(values)+" to "+goal;
+            EvaluatedExpression solution = solver.findFirstSolution(values, goal);
+            Assert.assertEquals(message, reachable.contains(goal), solution != null);
+            if (solution != null) {
+                Assert.assertEquals(message+" by "+solution.display(), goal, solution.evaluateWithValues(values, ROUNDING), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testAgreesWithFullList() {
+        SplitJoinSolver solver = newSolver();
+        ExpressionList fullList = Solver.createExpressionList(NUM_VALUES, false, false);
+        for (double[] values : VALUE_SETS) {
+            assertAgrees(solver, values, fullListReachable(fullList, values), 1);
+        }
+    }
+
+    @Test
+    public void testAgreesWithFullListAtMaxValues() {
+        SplitJoinSolver solver = newSolver();
+        Assert.assertEquals(LARGEST_VALUE_SET.length, solver.getMaxValues());
+        ExpressionList fullList = Solver.createExpressionList(LARGEST_VALUE_SET.length, false, false);
+        assertAgrees(solver, LARGEST_VALUE_SET, fullListReachable(fullList, LARGEST_VALUE_SET), GOAL_STEP);
+    }
+}